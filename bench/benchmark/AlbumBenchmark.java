@@ -0,0 +1,88 @@
+package benchmark;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Album;
+import model.SoundClip;
+
+/**
+ * Measures adding clips to the deepest album of a chain of albums, and
+ * removing them again from the top of the chain. Every invocation starts
+ * from a fresh chain, so the albums never grow between invocations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class AlbumBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Clips {
+		@Param({"1000", "100000", "1000000"})
+		public int clipCount;
+
+		@Param({"1", "8", "32"})
+		public int depth;
+
+		Set<SoundClip> clips;
+
+		@Setup(Level.Trial)
+		public void createClips() {
+			clips = SyntheticLibrary.asSet(SyntheticLibrary.createClips(clipCount, 42));
+		}
+	}
+
+	// A chain of empty albums
+	@State(Scope.Thread)
+	public static class EmptyChain {
+		Album deepest;
+
+		@Setup(Level.Invocation)
+		public void createChain(Clips clips) {
+			deepest = SyntheticLibrary.createChain(clips.depth);
+		}
+	}
+
+	// A chain whose deepest album holds all the clips
+	@State(Scope.Thread)
+	public static class FilledChain {
+		Album top;
+
+		@Setup(Level.Invocation)
+		public void createChain(Clips clips) {
+			Album deepest = SyntheticLibrary.createChain(clips.depth);
+			deepest.addSoundClips(clips.clips);
+			top = deepest;
+			while (top.getParentAlbum().getParentAlbum() != null) {
+				top = top.getParentAlbum();
+			}
+		}
+	}
+
+	@Benchmark
+	public Album addSoundClips(Clips clips, EmptyChain chain) {
+		chain.deepest.addSoundClips(clips.clips);
+		return chain.deepest;
+	}
+
+	@Benchmark
+	public Album removeSoundClips(Clips clips, FilledChain chain) {
+		chain.top.removeSoundClips(clips.clips);
+		return chain.top;
+	}
+}
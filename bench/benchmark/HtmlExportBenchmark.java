@@ -0,0 +1,64 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Album;
+import model.HtmlExporter;
+
+/**
+ * Measures exporting an album hierarchy to an HTML file with the default
+ * template, the way Save As does. The page is streamed to the file, so
+ * the time grows linearly with the number of clips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HtmlExportBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int clipCount;
+
+	@Param({"10"})
+	public int albumCount;
+
+	@Param({"DEEP", "WIDE"})
+	public SyntheticLibrary.Shape shape;
+
+	private Album root;
+	private File file;
+
+	@Setup
+	public void createHierarchy() throws IOException {
+		root = SyntheticLibrary.createAlbumTree(SyntheticLibrary.createClips(clipCount, 42), albumCount, shape);
+		file = File.createTempFile("music-organizer-bench", ".html");
+	}
+
+	@TearDown
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Benchmark
+	public File export() throws IOException {
+		new HtmlExporter().export(root, file);
+		return file;
+	}
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Album;
+import model.SoundClip;
+import model.SoundClipLoader;
+
+/**
+ * Measures scanning a generated folder tree with the sequential and the
+ * parallel loader. The tree stays in the page cache between iterations,
+ * so this measures the scanners rather than the disk.
+ * Larger trees can be measured with -p clipCount=1000000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoaderBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int clipCount;
+
+	@Param({"50"})
+	public int filesPerFolder;
+
+	@Param({"4"})
+	public int parallelism;
+
+	private Path folder;
+
+	@Setup
+	public void createFolders() throws IOException {
+		folder = SyntheticLibrary.createFolderTree(clipCount, filesPerFolder, 4, 42);
+	}
+
+	@TearDown
+	public void deleteFolders() throws IOException {
+		SyntheticLibrary.deleteTree(folder);
+	}
+
+	@Benchmark
+	public Set<SoundClip> sequentialScan() {
+		return SoundClipLoader.loadSoundClips(folder.toString());
+	}
+
+	@Benchmark
+	public Set<SoundClip> parallelScan() {
+		return SoundClipLoader.loadSoundClips(folder.toString(), parallelism);
+	}
+
+	@Benchmark
+	public void streamingLoadIntoRoot(Blackhole blackhole) {
+		Album root = new Album();
+		blackhole.consume(SoundClipLoader.loadSoundClips(folder.toString(), parallelism, 4096, root::addSoundClips));
+		blackhole.consume(root);
+	}
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Album;
+import model.HierarchyStore;
+
+/**
+ * Measures saving and loading album hierarchies of different sizes and shapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PersistenceBenchmark {
+
+	@Param({"1000", "100000", "1000000"})
+	public int clipCount;
+
+	@Param({"100"})
+	public int albumCount;
+
+	@Param({"DEEP", "WIDE"})
+	public SyntheticLibrary.Shape shape;
+
+	private Album root;
+	private File saved;
+	private File scratch;
+
+	@Setup
+	public void createHierarchy() throws IOException {
+		root = SyntheticLibrary.createAlbumTree(SyntheticLibrary.createClips(clipCount, 42), albumCount, shape);
+		saved = File.createTempFile("music-organizer-bench", ".ser");
+		scratch = File.createTempFile("music-organizer-bench", ".ser");
+		HierarchyStore.saveHierarchy(root, saved);
+	}
+
+	@TearDown
+	public void deleteFiles() {
+		saved.delete();
+		scratch.delete();
+	}
+
+	@Benchmark
+	public File saveHierarchy() throws IOException {
+		HierarchyStore.saveHierarchy(root, scratch);
+		return scratch;
+	}
+
+	@Benchmark
+	public Album loadHierarchy() throws IOException {
+		return HierarchyStore.loadHierarchy(saved);
+	}
+
+	@Benchmark
+	public Album roundTrip() throws IOException {
+		HierarchyStore.saveHierarchy(root, scratch);
+		return HierarchyStore.loadHierarchy(scratch);
+	}
+}
@@ -0,0 +1,143 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import model.Album;
+import model.SoundClip;
+
+/**
+ * SyntheticLibrary generates sound clip libraries for the benchmarks, both
+ * as folder trees on disk and as album trees in memory. All generators take
+ * a seed, so the same parameters always give the same library.
+ */
+public class SyntheticLibrary {
+
+	/** The shape of a generated album tree */
+	public enum Shape {
+		/** A single chain of albums, each the only sub-album of the one above */
+		DEEP,
+		/** Every album is a sub-album of the root */
+		WIDE
+	}
+
+	/**
+	 * Creates a folder tree with clipCount empty .wav files below a new
+	 * temporary folder. Every folder holds up to filesPerFolder files, and
+	 * has up to foldersPerFolder sub folders. A quarter of the files in
+	 * every folder are not .wav files, so the loader has something to skip.
+	 * @return the root of the new folder tree
+	 */
+	public static Path createFolderTree(int clipCount, int filesPerFolder, int foldersPerFolder, long seed) throws IOException {
+		Path root = Files.createTempDirectory("music-organizer-bench");
+		Random random = new Random(seed);
+		Deque<Path> folders = new ArrayDeque<>();
+		folders.add(root);
+		int created = 0;
+		while (created < clipCount) {
+			Path folder = folders.poll();
+			for (int i = 0; i < foldersPerFolder; i++) {
+				folders.add(Files.createDirectory(folder.resolve("folder" + i)));
+			}
+			int files = Math.min(filesPerFolder, clipCount - created);
+			for (int i = 0; i < files; i++) {
+				Files.createFile(folder.resolve("clip" + random.nextInt(Integer.MAX_VALUE) + "_" + i + ".wav"));
+			}
+			for (int i = 0; i < files / 4; i++) {
+				Files.createFile(folder.resolve("notes" + i + ".txt"));
+			}
+			created += files;
+		}
+		return root;
+	}
+
+	/**
+	 * Deletes a folder tree made by {@link #createFolderTree}.
+	 */
+	public static void deleteTree(Path root) throws IOException {
+		if (root == null || !Files.exists(root)) return;
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Makes count sound clips for files that do not need to exist on disk,
+	 * spread over folders of 100 clips each.
+	 */
+	public static List<SoundClip> createClips(int count, long seed) {
+		Random random = new Random(seed);
+		List<SoundClip> clips = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			File folder = new File("/library/artist" + (i / 10000) + "/album" + (i / 100));
+			clips.add(new SoundClip(new File(folder, "clip" + i + "_" + random.nextInt(1000) + ".wav")));
+		}
+		return clips;
+	}
+
+	/**
+	 * Creates an album tree with albumCount albums below the root. All the
+	 * clips are in the root album, and every album is given its own equal
+	 * share of them. In a DEEP tree an album also holds the clips of all
+	 * the albums below it.
+	 * @return the root album
+	 */
+	public static Album createAlbumTree(List<SoundClip> clips, int albumCount, Shape shape) {
+		Album root = new Album();
+		root.addSoundClips(new HashSet<>(clips));
+		Album parent = root;
+		int share = albumCount == 0 ? 0 : clips.size() / albumCount;
+		for (int i = 0; i < albumCount; i++) {
+			Album album = new Album("Album " + i, parent);
+			parent.addAlbum(album);
+			album.addSoundClips(new HashSet<>(clips.subList(i * share, (i + 1) * share)));
+			if (shape == Shape.DEEP) {
+				parent = album;
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Creates a chain of depth albums below a new root album
+	 * @return the deepest album of the chain
+	 */
+	public static Album createChain(int depth) {
+		Album album = new Album();
+		for (int i = 0; i < depth; i++) {
+			Album sub = new Album("Level " + (i + 1), album);
+			album.addAlbum(sub);
+			album = sub;
+		}
+		return album;
+	}
+
+	/**
+	 * @return the clips as a set, in the form the album methods take them
+	 */
+	public static Set<SoundClip> asSet(List<SoundClip> clips) {
+		return new HashSet<>(clips);
+	}
+}
@@ -0,0 +1,17 @@
+#!/bin/sh
+# Compiles the headless part of the model together with the benchmarks and
+# runs them with JMH. JMH_CLASSPATH must list the jmh-core and
+# jmh-generator-annprocess jars and their dependencies (jopt-simple and
+# commons-math3). Arguments are passed on to JMH, e.g.
+#   bench/run.sh AlbumBenchmark -p depth=32
+set -e
+cd "$(dirname "$0")/.."
+: "${JMH_CLASSPATH:?set JMH_CLASSPATH to the JMH jars}"
+
+OUT=bench/out
+rm -rf "$OUT"
+mkdir -p "$OUT"
+# SoundClipPlayer is the only model class that needs JavaFX
+javac -d "$OUT" -cp "$JMH_CLASSPATH" \
+	$(ls src/model/*.java | grep -v SoundClipPlayer) bench/benchmark/*.java
+java -Djava.awt.headless=true -cp "$OUT:$JMH_CLASSPATH" org.openjdk.jmh.Main "$@"
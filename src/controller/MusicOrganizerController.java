@@ -1,42 +1,122 @@
 package controller;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import javafx.application.Platform;
 import javafx.stage.FileChooser;
 import model.Album;
+import model.AlbumExporter;
+import model.AutosaveService;
+import model.ClipMetadataStore;
+import model.ClipRegistry;
+import model.ClipRule;
+import model.ClipStats;
+import model.DuplicateFinder;
+import model.HierarchyJournal;
+import model.PlayStatistics;
 import model.SoundClip;
 import model.SoundClipBlockingQueue;
-import model.SoundClipLoader;
+import model.ParallelSoundClipScanner;
+import model.ScanIndex;
+import model.ScanMetrics;
+import model.SearchIndex;
+import model.SmartAlbum;
 import model.SoundClipPlayer;
+import model.SoundClipWatcher;
+import model.UndoJournal;
+import model.WavMetadataExtractor;
+import model.WaveformPeakCache;
 import view.AlbumWindowCreator;
 import view.MusicOrganizerWindow;
 import java.io.*;
-import java.nio.file.Files;
 import javafx.stage.Stage;
 
 public class MusicOrganizerController implements Serializable {
 
-	private MusicOrganizerWindow view;
+	private volatile MusicOrganizerWindow view;
 	private SoundClipBlockingQueue queue;
 	private Album root;
 	private AlbumWindowCreator albumWindowCreator = new AlbumWindowCreator();
+	private File libraryFolder; // The folder the sound clips were loaded from
+	private SoundClipWatcher watcher;
+	// Both read every clip of the hierarchy, so they are made when first used
+	private SearchIndex searchIndex; // Follows the clips of the root album, null until needed
+	private ClipMetadataStore metadataStore; // Metadata of the clips of the root album, in columns, null until needed
+	private WaveformPeakCache peakCache; // null if the cache file could not be opened
+	private static final File PEAK_CACHE_FILE = new File(".waveform-cache"); // Waveform peaks of the sound clips
+	private static final int LOAD_BATCH_SIZE = 4096; // Largest number of clips added to the root album at once
+	private static final File SCAN_INDEX_FILE = new File(".scan-index"); // Remembers the scanned folders between launches
+	private UndoJournal journal; // The changes made by the user, to undo and redo
+	private static final long UNDO_MEMORY = 64L << 20; // Largest number of bytes the undo journal may take up
+	private PlayStatistics playStatistics; // Play counts, favourites and flags of the sound clips
+	private static final File PLAY_STATS_FILE = new File(".play-stats");
+	private static final int MOST_PLAYED_SIZE = 100; // Number of most played clips kept track of
+	private static final long PLAY_STATS_SAVE_SECONDS = 60; // How often changed statistics are saved
+	private HierarchyJournal library; // Saves the changes to the hierarchy as they are made, null if it could not
+	private static final File LIBRARY_FILE = new File(".library"); // The hierarchy opened at launch
+	private AutosaveService autosave; // Keeps the hierarchy saved to the file it was last saved as, or null
+	private static final long AUTOSAVE_DELAY_MILLIS = 2000; // How long an autosave waits for more changes
+	private final List<AlbumExporter> exporters = AlbumExporter.all(); // The formats albums can be exported in
+	private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "AlbumExporter");
+		t.setDaemon(true);
+		return t;
+	});
 	/**
 	 * Adds an album to the Music Organizer
 	 */
 
 	public MusicOrganizerController() {
 
-		// Create the root album
-		root = new Album();
+		// Open the hierarchy kept from the last launch, with the changes made
+		// since it was last compacted, and keep saving the changes made to it
+		try {
+			library = HierarchyJournal.open(LIBRARY_FILE, HierarchyJournal.FsyncPolicy.INTERVAL);
+			root = library.getRoot();
+		} catch (IOException e) {
+			System.out.println("Could not open the library " + LIBRARY_FILE);
+			e.printStackTrace();
+			root = new Album();
+		}
+		journal = new UndoJournal(root, UNDO_MEMORY);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::closeHierarchy));
+
+		// Open the waveform peak cache, and write it to disk on exit
+		try {
+			peakCache = new WaveformPeakCache(PEAK_CACHE_FILE);
+			Runtime.getRuntime().addShutdownHook(new Thread(this::closePeakCache));
+		} catch (IOException e) {
+			System.out.println("Could not open the waveform cache " + PEAK_CACHE_FILE);
+			e.printStackTrace();
+		}
+
+		// Load the play statistics, and save them now and then and on exit
+		playStatistics = PlayStatistics.load(PLAY_STATS_FILE, MOST_PLAYED_SIZE);
+		ScheduledExecutorService statsSaver = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "PlayStatistics");
+			t.setDaemon(true);
+			return t;
+		});
+		statsSaver.scheduleWithFixedDelay(this::savePlayStatistics,
+				PLAY_STATS_SAVE_SECONDS, PLAY_STATS_SAVE_SECONDS, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::savePlayStatistics));
 
 		// Create the blocking queue
 		queue = new SoundClipBlockingQueue();
 
 		// Create a separate thread for the sound clip player and start it
 
-		(new Thread(new SoundClipPlayer(queue))).start();
+		(new Thread(new SoundClipPlayer(queue, playStatistics))).start();
 
 		// Set the controller for the windows
 		albumWindowCreator.setController(this);
@@ -45,18 +125,321 @@ public class MusicOrganizerController implements Serializable {
 	/**
 	 * Load the sound clips found in all subfolders of a path on disk. If path is not
 	 * an actual folder on disk, has no effect.
+	 * The folders are scanned on a background thread, and the clips are added
+	 * to the root album in batches on the JavaFX application thread while the
+	 * scan goes on. Folders that have not changed since the last launch are
+	 * not listed again, thanks to the scan index kept in SCAN_INDEX_FILE, and
+	 * their clips, which the library kept, are not added again. The clips of
+	 * the folders listed that are no longer on disk are removed.
+	 * Call it on the JavaFX application thread, once the view is registered.
+	 */
+	public void loadSoundClips(String path) {
+		libraryFolder = new File(path);
+		startWatching();
+		Thread t = new Thread(() -> scan(path), "SoundClipScanner");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// Scans path, handing each batch of clips found to the JavaFX application thread
+	private void scan(String path) {
+		ScanIndex index = ScanIndex.load(SCAN_INDEX_FILE, path);
+		ScanMetrics metrics = ScanMetrics.GLOBAL;
+		ScanMetrics.register();
+		int kept = root.getClipRegistry().size(); // The clips the library kept from the last launch
+		List<SoundClip> added = new ArrayList<>(); // Only used on the JavaFX application thread
+		// Waits for each batch to be added, so that the scan holds back no
+		// more clips than one batch, as ClipBatcher promises
+		Consumer<Set<SoundClip>> sink = clips -> runAndWait(() -> {
+			long start = System.nanoTime();
+			root.addSoundClips(clips);
+			// The clips the hierarchy holds, which the metadata is read into
+			ClipRegistry registry = root.getClipRegistry();
+			for (SoundClip clip : clips) {
+				int id = registry.lookup(clip);
+				if (id >= 0) added.add(registry.get(id));
+			}
+			metrics.recordBatchInsert(System.nanoTime() - start);
+		});
+		// Files deleted or moved while the Music Organizer was closed
+		Consumer<Set<SoundClip>> gone = clips -> runAndWait(() -> root.removeSoundClips(clips));
+		// The library kept the clips of the folders that have not changed
+		// since the last scan, unless it is new, so only the others are added,
+		// and the clips the folders listed no longer hold removed
+		boolean changedOnly = library != null && root.getClipRegistry().size() > 0;
+		ParallelSoundClipScanner scanner = new ParallelSoundClipScanner();
+		int count = changedOnly ? scanner.scanChanged(new File(path), LOAD_BATCH_SIZE, sink, gone, index)
+				: scanner.scan(new File(path), LOAD_BATCH_SIZE, sink, index);
+		System.out.println(metrics.getSummary());
+		System.out.println("Added " + count + " sound clips (scan index: "
+				+ index.getHits() + " hits, " + index.getMisses() + " misses)");
+		// Runs after the batches, which were handed over before it
+		Platform.runLater(() -> {
+			if (view != null) {
+				view.onClipsUpdated();
+			}
+			extractMetadata(added);
+			refreshOutdated(kept);
+			saveScanIndex(index);
+		});
+	}
+
+	// Reads the metadata and waveforms of the clips below id count again where
+	// their files have changed since. A file rewritten in place leaves its
+	// folder as it was, so the launch scan does not add it again.
+	private void refreshOutdated(int count) {
+		ClipRegistry registry = root.getClipRegistry();
+		Thread t = new Thread(() -> {
+			List<SoundClip> outdated = WavMetadataExtractor.findOutdated(registry, count);
+			if (!outdated.isEmpty()) {
+				extractMetadata(outdated);
+			}
+		}, "OutdatedClips");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// Runs task on the JavaFX application thread, and waits until it is done
+	private static void runAndWait(Runnable task) {
+		FutureTask<Void> future = new FutureTask<>(task, null);
+		Platform.runLater(future);
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+	}
+
+	// Saves the scan index once the library has the clips it lists on disk,
+	// as the next scan leaves the clips of the folders it lists out
+	private void saveScanIndex(ScanIndex index) {
+		Thread t = new Thread(() -> {
+			try {
+				if (library != null) {
+					library.sync();
+				}
+				index.save(SCAN_INDEX_FILE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "ScanIndex");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Reads the WAV headers of the given clips on a background thread,
+	 * and refreshes the clip table once they are all read. Then brings
+	 * the waveform peaks of the clips up to date.
+	 */
+	private void extractMetadata(List<SoundClip> clips) {
+		Album album = root;
+		Thread t = new Thread(() -> {
+			WavMetadataExtractor.extract(clips);
+			// Lets the metadata store and the smart albums catch up
+			album.updateSoundClips(clips);
+			if (view != null) {
+				Platform.runLater(() -> view.onClipsUpdated());
+			}
+			if (peakCache != null && peakCache.update(clips) > 0 && view != null) {
+				Platform.runLater(() -> view.onClipsUpdated());
+			}
+			if (peakCache != null && peakCache.isFull() && view != null) {
+				Platform.runLater(() -> view.displayMessage("The waveform cache " + PEAK_CACHE_FILE
+						+ " is full, delete it to have the waveforms of new clips kept"));
+			}
+		}, "WavMetadataExtractor");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public void registerView(MusicOrganizerWindow view) {
+		this.view = view;
+		startWatching();
+	}
+
+	/**
+	 * Starts watching the folder the sound clips were loaded from, so that
+	 * files added, removed or renamed on disk show up in the root album.
+	 * The root album is updated on the JavaFX application thread.
+	 */
+	private void startWatching() {
+		if (libraryFolder == null || watcher != null) return;
+		// The clips it adds have their metadata and waveforms read like those the launch scan adds
+		watcher = new SoundClipWatcher(libraryFolder, root, Platform::runLater, () -> view.onClipsUpdated(),
+				this::extractMetadata);
+		try {
+			watcher.start();
+		} catch (IOException e) {
+			System.out.println("Could not watch " + libraryFolder + " for changes");
+			e.printStackTrace();
+			watcher = null;
+		}
+	}
+
+	private void stopWatching() {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+	}
+
+	// Writes the changes not on disk yet, and stops saving changes
+	private synchronized void closeHierarchy() {
+		if (autosave != null) {
+			autosave.close();
+			autosave = null;
+		}
+		if (library == null) return;
+		try {
+			library.close();
+		} catch (IOException e) {
+			System.out.println("Could not save the changes to " + library.getFile());
+			e.printStackTrace();
+		}
+		library = null;
+	}
+
+	private void closePeakCache() {
+		try {
+			peakCache.close();
+		} catch (IOException e) {
+			System.out.println("Could not save the waveform cache to " + PEAK_CACHE_FILE);
+			e.printStackTrace();
+		}
+	}
+
+	// Only writes the file if a clip was played or marked since the last save
+	private synchronized void savePlayStatistics() {
+		try {
+			playStatistics.save(PLAY_STATS_FILE);
+		} catch (IOException e) {
+			System.out.println("Could not save the play statistics to " + PLAY_STATS_FILE);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the play counts, favourites and flags of the sound clips
+	 */
+	public PlayStatistics getPlayStatistics() {
+		return playStatistics;
+	}
+
+	/**
+	 * Marks the selected sound clips as favourites, or takes the mark
+	 * away if they all have it already
+	 */
+	public void toggleFavourite() {
+		List<SoundClip> clips = view.getSelectedSoundClips();
+		boolean all = !clips.isEmpty();
+		for (SoundClip clip : clips) {
+			all &= playStatistics.isFavourite(clip);
+		}
+		for (SoundClip clip : clips) {
+			playStatistics.setFavourite(clip, !all);
+		}
+		view.onClipsUpdated();
+	}
+
+	/**
+	 * Flags the selected sound clips, or takes the flag away if they
+	 * are all flagged already
+	 */
+	public void toggleFlag() {
+		List<SoundClip> clips = view.getSelectedSoundClips();
+		boolean all = !clips.isEmpty();
+		for (SoundClip clip : clips) {
+			all &= playStatistics.isFlagged(clip);
+		}
+		for (SoundClip clip : clips) {
+			playStatistics.setFlagged(clip, !all);
+		}
+		view.onClipsUpdated();
+	}
+
+	/**
+	 * Shows the most played sound clips, most played first
+	 */
+	public void showMostPlayed() {
+		view.displayClips(inLibrary(playStatistics.getMostPlayed(MOST_PLAYED_SIZE)));
+	}
+
+	/**
+	 * Shows the sound clips marked as favourites
+	 */
+	public void showFavourites() {
+		view.displayClips(inLibrary(playStatistics.getFavourites()));
+	}
+
+	/**
+	 * Shows the flagged sound clips
 	 */
-	public Set<SoundClip> loadSoundClips(String path) {
-		Set<SoundClip> clips = SoundClipLoader.loadSoundClips(path);
+	public void showFlagged() {
+		view.displayClips(inLibrary(playStatistics.getFlagged()));
+	}
 
+	// The sound clips of the root album equal to the given ones, which
+	// unlike the clips kept by the statistics carry their metadata
+	private List<SoundClip> inLibrary(List<SoundClip> clips) {
+		ClipRegistry registry = root.getClipRegistry();
+		Set<SoundClip> library = root.getSoundClips();
+		List<SoundClip> result = new ArrayList<>(clips.size());
 		for (SoundClip clip : clips) {
-			root.addSoundClip(clip);
+			int id = registry.lookup(clip);
+			if (id >= 0 && library.contains(clip)) {
+				result.add(registry.get(id));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the waveform peak cache, or null if there is none
+	 */
+	public WaveformPeakCache getPeakCache() {
+		return peakCache;
+	}
+
+	/**
+	 * Finds the sound clips whose name or folder contains a query
+	 * @param query the text to look for, ignoring case
+	 * @param album the album to search in, with its sub-albums, or null for all clips
+	 * @param limit the largest number of clips to return
+	 * @return the best matches, best first
+	 */
+	public List<SoundClip> search(String query, Album album, int limit) {
+		if (searchIndex == null) {
+			searchIndex = new SearchIndex(root);
 		}
+		return searchIndex.search(query, album, limit);
+	}
 
-		return clips;
+	/**
+	 * Finds the albums whose name contains a query
+	 * @param query the text to look for, ignoring case
+	 * @param limit the largest number of albums to return
+	 * @return the best matches, best first
+	 */
+	public List<Album> searchAlbums(String query, int limit) {
+		if (searchIndex == null) {
+			searchIndex = new SearchIndex(root);
+		}
+		return searchIndex.searchAlbums(query, null, limit);
 	}
 
-	public void registerView(MusicOrganizerWindow view) {this.view = view;}
+	/**
+	 * Returns the number, total play time and total size of the
+	 * sound clips in an album and its sub-albums
+	 */
+	public ClipStats getAlbumStats(Album album) {
+		if (metadataStore == null) {
+			metadataStore = new ClipMetadataStore(root);
+		}
+		return metadataStore.aggregate(album);
+	}
 
 	/**
 	 * Returns the root album
@@ -71,29 +454,63 @@ public class MusicOrganizerController implements Serializable {
 			Album parentAlbum = view.getSelectedAlbum();
 			Album newAlbum = new Album(albumName, parentAlbum);
 			if (parentAlbum != null) {
-				parentAlbum.addAlbum(newAlbum);
+				journal.addAlbum(parentAlbum, newAlbum);
 				view.onAlbumAdded(parentAlbum, newAlbum);
 			}
 		}
 	}
 	
+	/**
+	 * Adds a smart album under the root album, holding the sound clips
+	 * whose file name matches a pattern
+	 */
+	public void addNewSmartAlbum() {
+		String albumName = view.promptForAlbumName();
+		if (albumName == null) return;
+		String pattern = view.promptForNamePattern();
+		if (pattern == null) return;
+		SmartAlbum newAlbum = new SmartAlbum(albumName, root, new ClipRule().nameMatches(pattern));
+		journal.addAlbum(root, newAlbum);
+		view.onAlbumAdded(root, newAlbum);
+		view.displayMessage(newAlbum + " holds " + newAlbum.getSoundClips().size() + " sound clips");
+	}
+
 	/**
 	 * Removes an album from the Music Organizer
 	 */
 	public void deleteAlbum(){
 		Album selectedAlbum = view.getSelectedAlbum();
-		selectedAlbum.removeAlbum(selectedAlbum);
+		if (selectedAlbum == null || selectedAlbum == root) return;
+		journal.removeAlbum(selectedAlbum);
 		view.onAlbumRemoved(selectedAlbum);
 	}
 	
+	/**
+	 * Moves an album, with its sub-albums and sound clips, into another album
+	 */
+	public void moveAlbum(Album album, Album newParent) {
+		try {
+			journal.moveAlbum(album, newParent);
+		} catch (IllegalArgumentException e) {
+			view.displayMessage("Cannot move " + album + " into " + newParent);
+			return;
+		}
+		view.onAlbumMoved(album);
+		view.selectAlbum(album);
+	}
+
 	/**
 	 * Adds sound clips to an album
 	 */
 	public void addSoundClips(){
 		List<SoundClip> selectedClips = view.getSelectedSoundClips();
 		Album selectedAlbum = view.getSelectedAlbum();
+		if (selectedAlbum instanceof SmartAlbum) {
+			view.displayMessage("The sound clips of " + selectedAlbum + " follow its rule");
+			return;
+		}
 		if (selectedAlbum != null) {
-			selectedAlbum.addSoundClips(new HashSet<>(selectedClips));
+			journal.addSoundClips(selectedAlbum, new HashSet<>(selectedClips));
 		}
 		view.onClipsUpdated();
 	}
@@ -104,12 +521,51 @@ public class MusicOrganizerController implements Serializable {
 	public void removeSoundClips(){
 		List<SoundClip> selectedClips = view.getSelectedSoundClips();
 		Album selectedAlbum = view.getSelectedAlbum();
+		if (selectedAlbum instanceof SmartAlbum) {
+			view.displayMessage("The sound clips of " + selectedAlbum + " follow its rule");
+			return;
+		}
 		if (!selectedAlbum.equals(root)) {
-			selectedAlbum.removeSoundClips(new HashSet<>(selectedClips));
+			journal.removeSoundClips(selectedAlbum, new HashSet<>(selectedClips));
 			view.onClipsUpdated();
 		}
 	}
 	
+	/**
+	 * Undoes the latest change to the albums
+	 */
+	public void undo() {
+		String change = journal.undo();
+		if (change == null) {
+			view.displayMessage("Nothing to undo");
+		} else {
+			onUndone("Undid " + change);
+		}
+	}
+
+	/**
+	 * Makes the latest undone change to the albums again
+	 */
+	public void redo() {
+		String change = journal.redo();
+		if (change == null) {
+			view.displayMessage("Nothing to redo");
+		} else {
+			onUndone("Redid " + change);
+		}
+	}
+
+	// Shows the hierarchy as it is after undoing or redoing a change
+	private void onUndone(String message) {
+		Album selectedAlbum = view.getSelectedAlbum();
+		view.updateTreeView(root);
+		if (selectedAlbum != null && root.getTree().getAlbum(selectedAlbum.getId()) == selectedAlbum) {
+			view.selectAlbum(selectedAlbum);
+		}
+		view.onClipsUpdated();
+		view.displayMessage(message);
+	}
+
 	/**
 	 * Puts the selected sound clips on the queue and lets
 	 * the sound clip player thread play them. Essentially, when
@@ -131,21 +587,39 @@ public class MusicOrganizerController implements Serializable {
 		}
 	}
 	/**
-	 * Saves the current view to a file
+	 * Saves the hierarchy to a file, or exports the selected album and its
+	 * sub-albums in one of the formats of the exporters
 	 */
 	public void saveAs(Stage primaryStage) {
 		FileChooser fileChooser = new FileChooser();
 		fileChooser.setTitle("Save As");
-		fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("HTML", "*.html"), new FileChooser.ExtensionFilter("Searialize", "*.ser"));
+		List<FileChooser.ExtensionFilter> filters = new ArrayList<>();
+		for (AlbumExporter e : exporters) {
+			filters.add(new FileChooser.ExtensionFilter(e.getName(), "*." + e.getExtension()));
+		}
+		FileChooser.ExtensionFilter serialize = new FileChooser.ExtensionFilter("Searialize", "*.ser");
+		filters.add(serialize);
+		fileChooser.getExtensionFilters().addAll(filters);
 		File file = fileChooser.showSaveDialog(primaryStage);
-		String fileExtension = file.getName().substring(file.getName().lastIndexOf("."));
 		if (file != null) {
-			if (fileExtension.equals(".html")) {
-				file = createHTML(root, file);
-				view.displayMessage("Successfully saved to " + file.getName());
-			} else if (fileExtension.equals(".ser")) {
+			AlbumExporter exporter = AlbumExporter.forFile(exporters, file);
+			FileChooser.ExtensionFilter chosen = fileChooser.getSelectedExtensionFilter();
+			if (exporter == null && !file.getName().endsWith(".ser") && chosen != null) {
+				// No extension of ours was typed, so the file gets that of the format chosen
+				int i = filters.indexOf(chosen);
+				if (chosen == serialize) {
+					file = new File(file.getPath() + ".ser");
+				} else if (i >= 0) {
+					exporter = exporters.get(i);
+					file = new File(file.getPath() + "." + exporter.getExtension());
+				}
+			}
+			if (exporter != null) {
+				Album album = view.getSelectedAlbum();
+				exportAlbum(exporter, album != null ? album : root, file);
+			} else if (file.getName().endsWith(".ser")) {
+				view.displayMessage("Saving to " + file.getName() + "...");
 				saveHierarchy(file);
-				view.displayMessage("Successfully saved to " + file.getName());
 			} else {
 				view.displayMessage("Invalid file type.");
 			}
@@ -153,19 +627,44 @@ public class MusicOrganizerController implements Serializable {
 	}
 
 	/**
-	 * Saves the hierarchy to a .ser file
+	 * Saves the hierarchy to a .ser file on a background thread, and keeps
+	 * it saved there as it changes. Saving it to the file it was opened from
+	 * folds the journal of the changes into that file instead, as the
+	 * journal keeps that file saved already.
 	 * @param file
 	 */
-	public void saveHierarchy(File file) {
-		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
-			out.writeObject(root);
-		} catch (IOException e) {
-			e.printStackTrace();
+	public synchronized void saveHierarchy(File file) {
+		HierarchyJournal current = library;
+		if (current != null && current.getFile().getAbsoluteFile().equals(file.getAbsoluteFile())) {
+			Thread t = new Thread(() -> {
+				try {
+					current.compact();
+					Platform.runLater(() -> view.displayMessage("Successfully saved to " + file.getName()));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}, "HierarchyJournal compaction");
+			t.setDaemon(true);
+			t.start();
+			return;
+		}
+		if (autosave == null || !autosave.getFile().equals(file)) {
+			if (autosave != null) {
+				AutosaveService old = autosave;
+				new Thread(old::close, "AutosaveService close").start();
+			}
+			autosave = new AutosaveService(root, file, AUTOSAVE_DELAY_MILLIS,
+					report -> Platform.runLater(() -> view.displayMessage("Autosave: " + report)));
+			autosave.start();
 		}
+		autosave.saveNow();
 	}
 
 	/**
-	 * Loads a hierarchy from a .ser file
+	 * Opens a hierarchy from a .ser file. The albums and sound clips are
+	 * read from the file as they are shown, so large libraries open at once.
+	 * The changes made to the hierarchy from then on are kept in a journal
+	 * next to the file, instead of in the library opened at launch.
 	 */
 	public void loadHierarchy() {
 		FileChooser fileChooser = new FileChooser();
@@ -173,71 +672,105 @@ public class MusicOrganizerController implements Serializable {
 		fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("Searialize", "*.ser")); // only allow loading .ser files
 		File file = fileChooser.showOpenDialog(null);
 		if (file != null) {
+			try {
+				if (library != null && library.getFile().getAbsoluteFile()
+						.equals(HierarchyJournal.baseFile(file).getAbsoluteFile())) {
+					view.displayMessage(file.getName() + " is the hierarchy already open");
+					return;
+				}
+			} catch (IOException e) {
+				view.displayMessage("Could not load the hierarchy from " + file.getName() + ": " + e.getMessage());
+				return;
+			}
 			view.displayMessage("Loading " + file.getName());
-			try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-				root = (Album) in.readObject();
-				view.updateTreeView(root);
-				view.onClipsUpdated();
-				view.displayMessage("Successfully loaded hierarchy from " + file.getName());
-			} catch (IOException | ClassNotFoundException e) {
+			// The hierarchy open now stays open, and saved, unless the new one opens
+			HierarchyJournal opened;
+			try {
+				opened = HierarchyJournal.open(file, HierarchyJournal.FsyncPolicy.INTERVAL);
+			} catch (IOException | UncheckedIOException e) {
 				e.printStackTrace();
+				view.displayMessage("Could not load the hierarchy from " + file.getName() + ": " + e.getMessage());
+				return;
 			}
+			closeHierarchy();
+			library = opened;
+			root = library.getRoot();
+			journal = new UndoJournal(root, UNDO_MEMORY);
+			if (searchIndex != null) {
+				searchIndex.close();
+				searchIndex = null;
+			}
+			if (metadataStore != null) {
+				metadataStore.close();
+				metadataStore = null;
+			}
+			stopWatching();
+			startWatching();
+			view.updateTreeView(root);
+			view.onClipsUpdated();
+			view.displayMessage("Successfully loaded hierarchy from " + file.getName());
 		}
 	}
 
 	/**
-	 * Creates an HTML file from the album hierarchy
-	 * @param album
-	 * @param file
-	 * @return the created HTML file
-	 */
-	public File createHTML(Album album, File file) {
-		String html = createAlbumHTML(album);
-		File htmlFile = new File("HTMLTemplate/template.html"); // template file
-		String htmlString = getHtmlString(htmlFile); // get the template as a string
-		String title = "Music Organizer";
-		htmlString = htmlString.replace("$title", title);
-		htmlString = htmlString.replace("$list", html); // replace the list with the album hierarchy
-		try {
-			Files.write(file.toPath(), htmlString.getBytes());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return file;
+	 * Exports album and its sub-albums to file on a background thread, one
+	 * export at a time, so the window stays responsive
+	 */
+	public void exportAlbum(AlbumExporter exporter, Album album, File file) {
+		view.displayMessage("Exporting " + album + " to " + file.getName() + "...");
+		exportExecutor.execute(() -> {
+			long start = System.nanoTime();
+			String message;
+			try {
+				exporter.export(album, file);
+				message = "Exported " + album + " to " + file.getName() + " in "
+						+ (System.nanoTime() - start) / 1_000_000 + " ms";
+			} catch (IOException | UncheckedIOException e) {
+				e.printStackTrace();
+				message = "Could not export to " + file.getName() + ": " + e.getMessage();
+			}
+			String text = message;
+			Platform.runLater(() -> view.displayMessage(text));
+		});
 	}
 
 	/**
-	 * Gets the contents of an HTML file as a string
-	 * @param html
-	 * @return the HTML file as a string
+	 * Looks for sound clips with identical content on a background thread.
+	 * The duplicates found are put in a new album under the root album,
+	 * with one sub-album for each group of identical clips.
 	 */
-	public String getHtmlString(File html){
-		String htmlString = "";
-		try {
-			htmlString = new String(Files.readAllBytes(html.toPath()));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return htmlString;
+	public void findDuplicates() {
+		List<SoundClip> clips = new ArrayList<>(root.getSoundClips());
+		Album parent = root;
+		view.displayMessage("Looking for duplicates among " + clips.size() + " sound clips...");
+		Thread t = new Thread(() -> {
+			List<Set<SoundClip>> groups = new DuplicateFinder().findDuplicates(clips);
+			Platform.runLater(() -> addDuplicateAlbums(parent, groups));
+		}, "DuplicateFinder");
+		t.setDaemon(true);
+		t.start();
 	}
 
-	/**
-	 * Creates an HTML representation of the album hierarchy
-	 * @param album
-	 * @return the HTML representation of the album hierarchy
-	 */
-	public String createAlbumHTML(Album album){
-		String html = "<ul>"; // start of the list
-		for (Album subAlbum : album.getSubAlbums()){
-			html += "<li><b>" + subAlbum.toString() + "</b></li>"; // add a list item for every subAlbum
-			html += createAlbumHTML(subAlbum); // add the subAlbum's subAlbums
-		}
-		for (SoundClip clip : album.getSoundClips()){
-			html += "<li>" + clip.toString() + "</li>"; // add a list item for every SoundClip
+	// Runs on the JavaFX application thread once the duplicates are found
+	private void addDuplicateAlbums(Album parent, List<Set<SoundClip>> groups) {
+		if (groups.isEmpty()) {
+			view.displayMessage("No duplicates found");
+			return;
 		}
-		html += "</ul>"; // end of the list
-		return html;
+		Album duplicates = new Album("Duplicates", parent);
+		parent.getEventBus().batch(() -> {
+			parent.addAlbum(duplicates);
+			view.onAlbumAdded(parent, duplicates);
+			for (Set<SoundClip> group : groups) {
+				Album groupAlbum = new Album(group.iterator().next() + " (" + group.size() + ")", duplicates);
+				duplicates.addAlbum(groupAlbum);
+				groupAlbum.addSoundClips(group);
+				view.onAlbumAdded(duplicates, groupAlbum);
+			}
+		});
+		view.displayMessage("Found " + groups.size() + " groups of duplicates");
 	}
+
 	/**
 	 * Creates a new window displaying the contents of an Album
 	 * @param album
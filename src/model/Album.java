@@ -1,12 +1,36 @@
 package model;
-import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
-public class Album extends Observable implements Serializable {
-    private Album parentAlbum;
-    private String albumName;
-    private Set<SoundClip> SoundClips;
-    private List<Album> subAlbums;
+/**
+ * Album is a named set of SoundClips that may contain sub-albums.
+ * Changes are made under the write lock of the AlbumTree the album belongs
+ * to, so any thread may change an album. Reading needs no lock.
+ *
+ * An album of a hierarchy opened with {@link HierarchyStore#openHierarchy}
+ * reads its sub-albums, and separately its SoundClips, from the file the
+ * first time they are needed.
+ */
+public class Album {
+    private volatile Album parentAlbum;
+    private volatile String albumName;
+    private long id; // Unique within the AlbumTree
+    private AlbumTree tree; // Shared by all the albums of a hierarchy
+    private ClipIdSet clipIds; // Ids of the SoundClips, see ClipRegistry
+    private ClipIdSet ownIds; // Ids of the SoundClips added to this album itself
+    // A clip is referenced once by ownIds and once by each sub-album holding it.
+    // clipIds holds the clips with at least one reference, and extraRefs the
+    // number of references beyond the first of the clips with more than one.
+    private IntCountMap extraRefs;
+    private List<Album> subAlbums; // Copied on write, so it can be read without the lock
+    private volatile ClipIdSet snapshot; // Immutable copy of clipIds, null until first read
+    private volatile boolean snapshotStale; // True once clipIds has changed since the copy
+    private static final int SUB_ALBUMS = 1, CLIPS = 2; // Parts of an album that may not be read yet
+    private volatile int unread; // The parts still to be read from source
+    private volatile MappedHierarchy source; // The file the album comes from, null once read
+    private int sourceIndex; // The position of the album in source
 
     /**Constructor that creates the root album |
      * USE ONLY FOR ROOT ALBUM*/
@@ -18,25 +42,196 @@ public class Album extends Observable implements Serializable {
      * @param albumName The name of the new album
      * @param parent The parent album */
     public Album(String albumName, Album parent) {
+        this(albumName, parent, -1);
+    }
+
+    // Creates an album with the given id, or a new one if id is -1. Albums are
+    // made again with the id they had when a HierarchyJournal is replayed.
+    Album(String albumName, Album parent, long id) {
+        this.albumName = albumName;
+        parentAlbum = parent;
+        tree = parent != null ? parent.tree : new AlbumTree(this);
+        this.id = id >= 0 ? id : tree.newAlbumId();
+        subAlbums = new CopyOnWriteArrayList<>();
+        clipIds = new ClipIdSet();
+        ownIds = new ClipIdSet();
+        extraRefs = new IntCountMap();
+        if (parent == null) {
+            tree.index(this);
+        }
+    }
+
+    // Creates an album of a hierarchy file, with the id it was saved with.
+    // Its sub-albums and clips are read from the file when they are needed,
+    // and parent puts it among its sub-albums when it reads them.
+    Album(String albumName, Album parent, long id, MappedHierarchy source, int sourceIndex) {
         this.albumName = albumName;
         parentAlbum = parent;
-        subAlbums = new ArrayList<>();
-        SoundClips = new HashSet<>();
+        tree = parent != null ? parent.tree : new AlbumTree(this);
+        this.id = id;
+        subAlbums = new CopyOnWriteArrayList<>();
+        clipIds = new ClipIdSet();
+        ownIds = new ClipIdSet();
+        extraRefs = new IntCountMap();
+        this.source = source;
+        this.sourceIndex = sourceIndex;
+        unread = SUB_ALBUMS | CLIPS;
+        if (parent == null) {
+            tree.index(this);
+        }
     }
+
     /** Adds a subAlbum to the album
      * @param newAlbum The album to be added
      * */
     public void addAlbum(Album newAlbum) {
-        subAlbums.add(newAlbum);
-        newAlbum.parentAlbum = this;
+        addAlbum(newAlbum, -1);
+    }
+
+    // Adds a sub-album at the given position among the sub-albums, or last if index is -1
+    void addAlbum(Album newAlbum, int index) {
+        Lock lock = writeLock();
+        try {
+            readSubAlbums();
+            readClips();
+            newAlbum.readClips();
+            if (index < 0 || index > subAlbums.size()) {
+                subAlbums.add(newAlbum);
+            } else {
+                subAlbums.add(index, newAlbum);
+            }
+            newAlbum.parentAlbum = this;
+            if (newAlbum.tree != tree) {
+                newAlbum.changeTree(tree);
+            }
+            tree.index(newAlbum);
+            tree.getEventBus().publish(AlbumEvent.albumAdded(newAlbum, this));
+            addRefs(newAlbum.clipIds.copy());
+            HierarchyJournal journal = tree.getJournal();
+            if (journal != null) {
+                journal.albumAdded(this, newAlbum, subAlbums.indexOf(newAlbum));
+            }
+            tree.fill(newAlbum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves this album and its sub-albums to another hierarchy, which gives
+    // them and their clips new ids
+    private void changeTree(AlbumTree newTree) {
+        readSubAlbums();
+        readClips();
+        id = newTree.newAlbumId();
+        ClipRegistry registry = tree.getClipRegistry();
+        ClipRegistry newRegistry = newTree.getClipRegistry();
+        clipIds = remap(clipIds, registry, newRegistry);
+        ownIds = remap(ownIds, registry, newRegistry);
+        IntCountMap oldRefs = extraRefs;
+        extraRefs = new IntCountMap();
+        oldRefs.forEach((id, count) -> {
+            int newId = newRegistry.idOf(registry.get(id));
+            for (int i = 0; i < count; i++) {
+                extraRefs.increment(newId);
+            }
+        });
+        tree = newTree;
+        snapshotStale = true;
+        for (Album a : subAlbums) {
+            a.changeTree(newTree);
+        }
+    }
+
+    private static ClipIdSet remap(ClipIdSet ids, ClipRegistry registry, ClipRegistry newRegistry) {
+        int[] newIds = ids.toArray();
+        for (int i = 0; i < newIds.length; i++) {
+            newIds[i] = newRegistry.idOf(registry.get(newIds[i]));
+        }
+        return ClipIdSet.of(newIds);
     }
 
     /** Removes an album
      * @param album The album to be removed*/
     public void removeAlbum(Album album) {
-        getParentAlbum().getSubAlbums().remove(album);
-        setChanged();
-        notifyObservers("albumRemoved");
+        Lock lock = writeLock();
+        try {
+            Album parent = getParentAlbum();
+            parent.readSubAlbums();
+            parent.readClips();
+            album.readClips();
+            if (parent.subAlbums.remove(album)) {
+                tree.unindex(album);
+                tree.getEventBus().publish(AlbumEvent.albumRemoved(album, parent));
+                parent.removeRefs(album.clipIds.copy());
+                HierarchyJournal journal = tree.getJournal();
+                if (journal != null) {
+                    journal.albumRemoved(album);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Moves the album, with its sub-albums and SoundClips, to another parent
+     * in the same hierarchy
+     * @param newParent The album to move the album into */
+    public void moveTo(Album newParent) {
+        moveTo(newParent, -1);
+    }
+
+    // Moves the album to the given position among the sub-albums of newParent, or last if index is -1
+    void moveTo(Album newParent, int index) {
+        Lock lock = writeLock();
+        try {
+            Album oldParent = parentAlbum;
+            if (oldParent == null || newParent.tree != tree || newParent.isInside(this)) {
+                throw new IllegalArgumentException("cannot move " + this + " into " + newParent);
+            }
+            if (newParent == oldParent) {
+                return;
+            }
+            readClips();
+            oldParent.readSubAlbums();
+            newParent.readSubAlbums();
+            oldParent.subAlbums.remove(this);
+            if (index < 0 || index > newParent.subAlbums.size()) {
+                newParent.subAlbums.add(this);
+            } else {
+                newParent.subAlbums.add(index, this);
+            }
+            parentAlbum = newParent;
+            // In one batch, so that the clips leaving and coming back to the
+            // common ancestors cancel out
+            tree.getEventBus().batch(() -> {
+                tree.getEventBus().publish(AlbumEvent.albumMoved(this, newParent, oldParent));
+                oldParent.removeRefs(clipIds.copy());
+                newParent.addRefs(clipIds.copy());
+            });
+            HierarchyJournal journal = tree.getJournal();
+            if (journal != null) {
+                journal.albumMoved(this, newParent, newParent.subAlbums.indexOf(this));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Renames the album
+     * @param newName The new name of the album */
+    public void rename(String newName) {
+        Lock lock = writeLock();
+        try {
+            String oldName = albumName;
+            albumName = newName;
+            tree.getEventBus().publish(AlbumEvent.albumRenamed(this, oldName));
+            HierarchyJournal journal = tree.getJournal();
+            if (journal != null) {
+                journal.albumRenamed(this);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Adds a SoundClip to the album
@@ -48,12 +243,62 @@ public class Album extends Observable implements Serializable {
     /** Adds one or more SoundClips to the album
      * @param clips The SoundClips to be added */
     public void addSoundClips(Set<SoundClip> clips) {
-        SoundClips.addAll(clips);
-        if (parentAlbum != null) {
-            parentAlbum.addSoundClips(clips);
+        // Handing out ids needs no lock, so producers only queue up for the set operations
+        ClipIdSet ids = tree.getClipRegistry().idsOf(clips);
+        Lock lock = writeLock();
+        try {
+            addOwn(ids);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds ids to the clips added to this album itself, and returns those
+    // that were not among them yet. The write lock must be held.
+    ClipIdSet addOwn(ClipIdSet ids) {
+        readClips();
+        ClipIdSet added = ownIds.addAll(ids);
+        addRefs(added);
+        HierarchyJournal journal = tree.getJournal();
+        if (journal != null && !added.isEmpty()) {
+            journal.clipsAdded(this, added);
+        }
+        return added;
+    }
+
+    // Removes ids from the clips added to this album itself, leaving the
+    // sub-albums alone, and returns those that were among them. The write
+    // lock must be held.
+    ClipIdSet removeOwn(ClipIdSet ids) {
+        readClips();
+        ClipIdSet removed = ownIds.removeAll(ids);
+        removeRefs(removed);
+        HierarchyJournal journal = tree.getJournal();
+        if (journal != null && !removed.isEmpty()) {
+            journal.clipsRemoved(this, removed);
+        }
+        return removed;
+    }
+
+    // Adds one reference to each of ids. Only the clips that had no reference
+    // before are new to this album, and only those are passed on to the parent.
+    private void addRefs(ClipIdSet ids) {
+        if (ids.isEmpty()) return;
+        readClips();
+        ClipIdSet added = clipIds.addAll(ids);
+        snapshotStale = true;
+        if (added.size() < ids.size()) {
+            ids.andNot(added).forEach(extraRefs::increment);
+        }
+        if (!added.isEmpty()) {
+            tree.getEventBus().publish(AlbumEvent.clipsAdded(this, added));
+            if (parentAlbum != null) {
+                parentAlbum.addRefs(added);
+            } else {
+                // New to the hierarchy
+                tree.clipsAdded(added);
+            }
         }
-        setChanged();
-        notifyObservers();
     }
 
     /** Removes a SoundClip from the album
@@ -65,12 +310,78 @@ public class Album extends Observable implements Serializable {
     /** Removes one or more SoundClips from the album
      * @param clips The SoundClips to be removed */
     public void removeSoundClips(Set<SoundClip> clips) {
-        SoundClips.removeAll(clips);
+        ClipIdSet ids = tree.getClipRegistry().lookupAll(clips);
+        Lock lock = writeLock();
+        try {
+            removeFromSubtree(ids, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes ids from this album and all its sub-albums, the sub-albums
+    // first. Sub-albums holding none of the ids are skipped. If removed is
+    // not null, the ids each album lost from its own clips are put in it.
+    // The write lock must be held.
+    void removeFromSubtree(ClipIdSet ids, Map<Album, ClipIdSet> removed) {
+        readSubAlbums();
         for (Album a : subAlbums) {
-            a.removeSoundClips(clips);
+            a.readClips();
+            if (a.clipIds.intersects(ids)) {
+                a.removeFromSubtree(ids, removed);
+            }
+        }
+        ClipIdSet own = removeOwn(ids);
+        if (removed != null && !own.isEmpty()) {
+            removed.put(this, own);
+        }
+    }
+
+    /** Tells the hierarchy that the metadata of SoundClips of the album has
+     * been read or has changed, so that its smart albums and listeners catch up
+     * @param clips The SoundClips whose metadata changed */
+    public void updateSoundClips(Collection<SoundClip> clips) {
+        ClipIdSet ids = tree.getClipRegistry().lookupAll(clips);
+        Lock lock = writeLock();
+        try {
+            readClips();
+            ids = ids.and(clipIds);
+            if (!ids.isEmpty()) {
+                tree.getEventBus().publish(AlbumEvent.clipsUpdated(this, ids));
+                tree.clipsUpdated(ids);
+                HierarchyJournal journal = tree.getJournal();
+                if (journal != null) {
+                    journal.clipsUpdated(ids);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes one reference from each of ids, which must all be in clipIds.
+    // Only the clips left without references leave this album, and only
+    // those are passed on to the parent.
+    private void removeRefs(ClipIdSet ids) {
+        if (ids.isEmpty()) return;
+        readClips();
+        ClipIdSet removed = ids;
+        if (extraRefs.size() > 0) {
+            int[] gone = new int[ids.size()];
+            int[] n = {0};
+            ids.forEach(id -> {
+                if (!extraRefs.decrement(id)) gone[n[0]++] = id;
+            });
+            removed = ClipIdSet.of(Arrays.copyOf(gone, n[0]));
+        }
+        if (!removed.isEmpty()) {
+            clipIds.removeAll(removed);
+            snapshotStale = true;
+            tree.getEventBus().publish(AlbumEvent.clipsRemoved(this, removed));
+            if (parentAlbum != null) {
+                parentAlbum.removeRefs(removed);
+            }
         }
-        setChanged();
-        notifyObservers();
     }
 
     /** @return - The albumName of the album */
@@ -78,19 +389,274 @@ public class Album extends Observable implements Serializable {
         return albumName;
     }
 
+    /** @return - The id of the album, unique within its AlbumTree */
+    public long getId() {
+        return id;
+    }
+
     /** @return - parentAlbum */
     public Album getParentAlbum() {
         return parentAlbum;
     }
 
 
-    /** @return - Set of SoundClips */
+    /** @return - Immutable snapshot of the Set of SoundClips */
     public Set<SoundClip> getSoundClips() {
-        return SoundClips;
+        return new ClipView(snapshot());
+    }
+
+    /** @return - Immutable snapshot of the SoundClips as a list, in the order of
+     * their ids. Each SoundClip is only looked up when it is asked for. */
+    public List<SoundClip> getSoundClipList() {
+        int[] ids = snapshot().toArray();
+        return new ClipList(ids);
+    }
+
+    /** @return - The ids of the SoundClips, in increasing order like getSoundClipList */
+    public int[] getClipIds() {
+        return snapshot().toArray();
+    }
+
+    // Returns an immutable copy of clipIds, copying it again only if it has
+    // changed since the last copy. While a writer holds the lock, the last
+    // copy is returned rather than waiting for the writer.
+    private ClipIdSet snapshot() {
+        readClips();
+        ClipIdSet s = snapshot;
+        if (s != null && !snapshotStale) {
+            return s;
+        }
+        Lock lock = tree.getLock().readLock();
+        if (s != null && !lock.tryLock()) {
+            return s;
+        }
+        if (s == null) {
+            lock.lock();
+        }
+        try {
+            s = clipIds.copy();
+            snapshotStale = false;
+            snapshot = s;
+            return s;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reads the sub-albums from the file if they have not been read yet.
+    // Under the read lock, so that no change is made to the index meanwhile.
+    private void readSubAlbums() {
+        if ((unread & SUB_ALBUMS) == 0) return;
+        Lock lock = tree.getLock().readLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                if ((unread & SUB_ALBUMS) == 0) return;
+                List<Album> read = source.readSubAlbums(sourceIndex, this);
+                subAlbums.addAll(read);
+                // Albums taken out of the hierarchy are not in the index, nor are their sub-albums
+                if (tree.getAlbum(id) == this) {
+                    for (Album a : read) {
+                        tree.index(a);
+                    }
+                }
+                doneReading(SUB_ALBUMS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reads the clips from the file if they have not been read yet
+    private void readClips() {
+        if ((unread & CLIPS) == 0) return;
+        Lock lock = tree.getLock().readLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                if ((unread & CLIPS) == 0) return;
+                Clips clips = source.readClips(sourceIndex);
+                ownIds = clips.own;
+                clipIds = clips.all;
+                extraRefs = clips.extraRefs;
+                snapshotStale = true;
+                doneReading(CLIPS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doneReading(int part) {
+        unread &= ~part;
+        if (unread == 0) {
+            source = null;
+        }
+    }
+
+    // Reads everything still to be read from the file, here and in the sub-albums
+    void readSubtree() {
+        readSubAlbums();
+        readClips();
+        for (Album a : subAlbums) {
+            a.readSubtree();
+        }
+    }
+
+    /** @return - True if the album has sub-albums, without reading them from a file */
+    public boolean hasSubAlbums() {
+        MappedHierarchy s = source;
+        if (s != null && (unread & SUB_ALBUMS) != 0) {
+            return s.subAlbumCount(sourceIndex) > 0;
+        }
+        return !subAlbums.isEmpty();
+    }
+
+    // The file the sub-albums have still to be read from, and are saved from,
+    // or null once they have been read. The lock must be held.
+    MappedHierarchy subAlbumsSource() {
+        MappedHierarchy s = source;
+        return s != null && (unread & SUB_ALBUMS) != 0 ? s : null;
     }
 
-    /** @return - List of sub-albums */
+    // The position of the album in the file it was read from
+    int sourceIndex() {
+        return sourceIndex;
+    }
+
+    // What the album holds, for saving it. If the clips have not been read
+    // from the file yet, they are read when the result is called, and not
+    // kept. The lock must be held.
+    Supplier<Clips> clipsToSave() {
+        MappedHierarchy s = source;
+        int index = sourceIndex;
+        if (s != null && (unread & CLIPS) != 0) {
+            return () -> s.readClips(index);
+        }
+        Clips clips = new Clips(ownIds.copy(), clipIds.copy(), extraRefs.copy());
+        return () -> clips;
+    }
+
+    // The clips of an album as they are saved
+    static final class Clips {
+        final ClipIdSet own; // Added to the album itself
+        final ClipIdSet all; // With those of the sub-albums
+        final IntCountMap extraRefs; // See the fields of Album
+
+        Clips(ClipIdSet own, ClipIdSet all, IntCountMap extraRefs) {
+            this.own = own;
+            this.all = all;
+            this.extraRefs = extraRefs;
+        }
+    }
+
+    // Roughly the number of bytes this album and its sub-albums take up.
+    // Parts not read from a file yet take up nothing.
+    long memoryBytes() {
+        long bytes = 64 + clipIds.memoryBytes() + ownIds.memoryBytes() + extraRefs.size() * 16L;
+        for (Album a : subAlbums) {
+            bytes += a.memoryBytes();
+        }
+        return bytes;
+    }
+
+    // The ids of the SoundClips, for the model classes that work on ids
+    ClipIdSet clipIdSnapshot() {
+        return snapshot();
+    }
+
+    private Lock writeLock() {
+        Lock lock = tree.getLock().writeLock();
+        lock.lock();
+        return lock;
+    }
+
+    /** @return - True if this album is album or one of its sub-albums */
+    public boolean isInside(Album album) {
+        for (Album a = this; a != null; a = a.parentAlbum) {
+            if (a == album) return true;
+        }
+        return false;
+    }
+
+    /** @return - The registry giving the SoundClips of the hierarchy their ids */
+    public ClipRegistry getClipRegistry() {
+        return tree.getClipRegistry();
+    }
+
+    /** @return - The bus the changes to the hierarchy are published on */
+    public AlbumEventBus getEventBus() {
+        return tree.getEventBus();
+    }
+
+    /** @return - Unmodifiable list of sub-albums */
     public List<Album> getSubAlbums() {
-        return subAlbums;
+        readSubAlbums();
+        return Collections.unmodifiableList(subAlbums);
+    }
+
+    // The sub-albums read so far, without reading the others from a file
+    List<Album> subAlbumsRead() {
+        return Collections.unmodifiableList(subAlbums);
+    }
+
+    /** @return - The AlbumTree the album belongs to */
+    public AlbumTree getTree() {
+        return tree;
+    }
+
+    // SoundClips looked up by position in an array of ids
+    private class ClipList extends AbstractList<SoundClip> implements RandomAccess {
+        private final int[] ids;
+
+        ClipList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public SoundClip get(int index) {
+            return getClipRegistry().get(ids[index]);
+        }
+    }
+
+    // SoundClips looked up by id in the registry
+    private class ClipView extends AbstractSet<SoundClip> {
+        private final ClipIdSet ids;
+
+        ClipView(ClipIdSet ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int size() {
+            return ids.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            int id = getClipRegistry().lookup(o);
+            return id >= 0 && ids.contains(id);
+        }
+
+        @Override
+        public Iterator<SoundClip> iterator() {
+            PrimitiveIterator.OfInt ids = this.ids.iterator();
+            return new Iterator<SoundClip>() {
+                @Override
+                public boolean hasNext() {
+                    return ids.hasNext();
+                }
+
+                @Override
+                public SoundClip next() {
+                    return getClipRegistry().get(ids.nextInt());
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,134 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * AlbumEvent describes one change to an album hierarchy. Events are
+ * published on the {@link AlbumEventBus} of the hierarchy. Events about
+ * clips carry only the clips that changed.
+ * Instances are immutable.
+ */
+public final class AlbumEvent {
+
+	public enum Type {
+		/** Clips became part of the album, see {@link #getClipIds()} */
+		CLIPS_ADDED,
+		/** Clips stopped being part of the album, see {@link #getClipIds()} */
+		CLIPS_REMOVED,
+		/** The metadata of clips of the album was read or changed, see {@link #getClipIds()} */
+		CLIPS_UPDATED,
+		/** The album was added to its parent, see {@link #getParent()} */
+		ALBUM_ADDED,
+		/** The album was removed from its parent, see {@link #getParent()} */
+		ALBUM_REMOVED,
+		/** The album got a new name, see {@link #getOldName()} */
+		ALBUM_RENAMED,
+		/** The album was moved to another parent, see {@link #getParent()} and {@link #getOldParent()} */
+		ALBUM_MOVED
+	}
+
+	private final Type type;
+	private final Album album;
+	private final Album parent;
+	private final Album oldParent;
+	private final ClipIdSet clipIds;
+	private final String oldName;
+
+	private AlbumEvent(Type type, Album album, Album parent, Album oldParent, ClipIdSet clipIds, String oldName) {
+		this.type = type;
+		this.album = album;
+		this.parent = parent;
+		this.oldParent = oldParent;
+		this.clipIds = clipIds;
+		this.oldName = oldName;
+	}
+
+	static AlbumEvent clipsAdded(Album album, ClipIdSet clipIds) {
+		return new AlbumEvent(Type.CLIPS_ADDED, album, null, null, clipIds, null);
+	}
+
+	static AlbumEvent clipsRemoved(Album album, ClipIdSet clipIds) {
+		return new AlbumEvent(Type.CLIPS_REMOVED, album, null, null, clipIds, null);
+	}
+
+	static AlbumEvent clipsUpdated(Album album, ClipIdSet clipIds) {
+		return new AlbumEvent(Type.CLIPS_UPDATED, album, null, null, clipIds, null);
+	}
+
+	static AlbumEvent albumAdded(Album album, Album parent) {
+		return new AlbumEvent(Type.ALBUM_ADDED, album, parent, null, null, null);
+	}
+
+	static AlbumEvent albumRemoved(Album album, Album parent) {
+		return new AlbumEvent(Type.ALBUM_REMOVED, album, parent, null, null, null);
+	}
+
+	static AlbumEvent albumRenamed(Album album, String oldName) {
+		return new AlbumEvent(Type.ALBUM_RENAMED, album, null, null, null, oldName);
+	}
+
+	static AlbumEvent albumMoved(Album album, Album parent, Album oldParent) {
+		return new AlbumEvent(Type.ALBUM_MOVED, album, parent, oldParent, null, null);
+	}
+
+	/** @return what kind of change this is */
+	public Type getType() {
+		return type;
+	}
+
+	/** @return the album that changed */
+	public Album getAlbum() {
+		return album;
+	}
+
+	/** @return the parent the album was added to, removed from or moved to, otherwise null */
+	public Album getParent() {
+		return parent;
+	}
+
+	/** @return the parent the album was moved from, otherwise null */
+	public Album getOldParent() {
+		return oldParent;
+	}
+
+	/**
+	 * @return the ids of the clips that were added, removed or updated, otherwise null.
+	 * The set must not be modified.
+	 */
+	public ClipIdSet getClipIds() {
+		return clipIds;
+	}
+
+	/** @return the clips that were added, removed or updated, otherwise an empty list */
+	public List<SoundClip> getSoundClips() {
+		if (clipIds == null) return List.of();
+		int[] ids = clipIds.toArray();
+		ClipRegistry registry = album.getClipRegistry();
+		return new AbstractList<SoundClip>() {
+			@Override
+			public SoundClip get(int index) {
+				return registry.get(ids[index]);
+			}
+
+			@Override
+			public int size() {
+				return ids.length;
+			}
+		};
+	}
+
+	/** @return the name the album had before it was renamed, otherwise null */
+	public String getOldName() {
+		return oldName;
+	}
+
+	public String toString() {
+		String s = type + " " + album;
+		if (oldParent != null) s += " from " + oldParent;
+		if (parent != null) s += " in " + parent;
+		if (clipIds != null) s += " " + clipIds.size() + " clips";
+		if (oldName != null) s += " was " + oldName;
+		return s;
+	}
+}
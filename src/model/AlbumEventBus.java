@@ -0,0 +1,124 @@
+package model;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AlbumEventBus delivers the {@link AlbumEvent}s of one album hierarchy
+ * to its listeners.
+ *
+ * Changes made inside {@link #batch(Runnable)} are merged and delivered
+ * once, when the batch ends. A listener subscribed with an executor, such
+ * as Platform::runLater, gets everything published until the executor gets
+ * round to it merged into a single call, so a burst of changes costs it
+ * one update per frame. Publishing and delivery take no locks.
+ */
+public class AlbumEventBus {
+
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+	/**
+	 * Calls listener on the thread that made the changes, right after
+	 * they are made or at the end of the batch they are made in.
+	 */
+	public void subscribe(AlbumListener listener) {
+		subscriptions.add(new Subscription(listener, null));
+	}
+
+	/**
+	 * Calls listener through executor, with the changes made since the
+	 * previous call.
+	 */
+	public void subscribe(AlbumListener listener, Executor executor) {
+		subscriptions.add(new Subscription(listener, executor));
+	}
+
+	public void unsubscribe(AlbumListener listener) {
+		subscriptions.removeIf(s -> s.listener == listener);
+	}
+
+	/**
+	 * Runs changes, and delivers the events they cause once it returns.
+	 * Batches may be nested, in which case the events are delivered at the
+	 * end of the outermost one.
+	 */
+	public void batch(Runnable changes) {
+		Batch batch = batches.get();
+		if (batch == null) {
+			batch = new Batch();
+			batches.set(batch);
+		}
+		batch.depth++;
+		try {
+			changes.run();
+		} finally {
+			if (--batch.depth == 0) {
+				batches.remove();
+				if (!batch.events.isEmpty()) {
+					deliver(batch.events.drain());
+				}
+			}
+		}
+	}
+
+	void publish(AlbumEvent event) {
+		Batch batch = batches.get();
+		if (batch != null) {
+			batch.events.add(event);
+		} else {
+			deliver(List.of(event));
+		}
+	}
+
+	private void deliver(List<AlbumEvent> events) {
+		for (Subscription s : subscriptions) {
+			s.deliver(events);
+		}
+	}
+
+	private static class Batch {
+		int depth;
+		final AlbumEventCoalescer events = new AlbumEventCoalescer();
+	}
+
+	private static class Subscription {
+		final AlbumListener listener;
+		final Executor executor; // null to deliver right away
+		final ConcurrentLinkedQueue<List<AlbumEvent>> pending = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Subscription(AlbumListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		void deliver(List<AlbumEvent> events) {
+			if (executor == null) {
+				listener.onAlbumEvents(events);
+				return;
+			}
+			pending.add(events);
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this::flush);
+			}
+		}
+
+		// Runs on the executor
+		private void flush() {
+			// Clear the flag first, so that events published from now on
+			// schedule another flush rather than being left behind
+			scheduled.set(false);
+			AlbumEventCoalescer events = new AlbumEventCoalescer();
+			for (List<AlbumEvent> e; (e = pending.poll()) != null; ) {
+				events.addAll(e);
+			}
+			if (!events.isEmpty()) {
+				listener.onAlbumEvents(events.drain());
+			}
+		}
+	}
+}
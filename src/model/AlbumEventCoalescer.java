@@ -0,0 +1,71 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AlbumEventCoalescer collects album events and merges the changes to the
+ * clips of an album made in a row. Clips that are removed and then added
+ * again, or added and then removed again, cancel out. Events that change
+ * the hierarchy itself are kept as they are, and keep their place between
+ * the clip changes made before and after them.
+ */
+final class AlbumEventCoalescer {
+
+	private final List<AlbumEvent> events = new ArrayList<>();
+	// The merged clip changes since the last hierarchy event, by album
+	private final Map<Album, ClipIdSet[]> clipChanges = new LinkedHashMap<>();
+
+	private static final int ADDED = 0, REMOVED = 1;
+
+	void add(AlbumEvent event) {
+		switch (event.getType()) {
+		case CLIPS_ADDED:
+			merge(event.getAlbum(), event.getClipIds(), ADDED, REMOVED);
+			break;
+		case CLIPS_REMOVED:
+			merge(event.getAlbum(), event.getClipIds(), REMOVED, ADDED);
+			break;
+		default:
+			flushClipChanges();
+			events.add(event);
+		}
+	}
+
+	void addAll(List<AlbumEvent> events) {
+		for (AlbumEvent event : events) {
+			add(event);
+		}
+	}
+
+	boolean isEmpty() {
+		return events.isEmpty() && clipChanges.isEmpty();
+	}
+
+	/**
+	 * @return the events collected so far, after which the coalescer is empty
+	 */
+	List<AlbumEvent> drain() {
+		flushClipChanges();
+		List<AlbumEvent> result = new ArrayList<>(events);
+		events.clear();
+		return result;
+	}
+
+	private void merge(Album album, ClipIdSet ids, int kind, int opposite) {
+		ClipIdSet[] changes = clipChanges.computeIfAbsent(album, a -> new ClipIdSet[] {new ClipIdSet(), new ClipIdSet()});
+		ClipIdSet cancelled = changes[opposite].removeAll(ids);
+		changes[kind].addAll(cancelled.isEmpty() ? ids : ids.andNot(cancelled));
+	}
+
+	private void flushClipChanges() {
+		for (Map.Entry<Album, ClipIdSet[]> entry : clipChanges.entrySet()) {
+			ClipIdSet[] changes = entry.getValue();
+			if (!changes[REMOVED].isEmpty()) events.add(AlbumEvent.clipsRemoved(entry.getKey(), changes[REMOVED]));
+			if (!changes[ADDED].isEmpty()) events.add(AlbumEvent.clipsAdded(entry.getKey(), changes[ADDED]));
+		}
+		clipChanges.clear();
+	}
+}
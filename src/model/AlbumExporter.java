@@ -0,0 +1,58 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * AlbumExporter writes an album and its sub-albums to a file in some format
+ * other tools can read. Exporters are meant to stream what they write, so
+ * that exporting takes as much memory however large the hierarchy is, and
+ * are called off the JavaFX thread.
+ *
+ * Besides the exporters of this package, exporters of other jars are found
+ * with a {@link ServiceLoader}, by listing them in
+ * META-INF/services/model.AlbumExporter.
+ */
+public interface AlbumExporter {
+
+	/** @return the name of the format, shown when choosing it */
+	String getName();
+
+	/** @return the extension of the files written, without the dot */
+	String getExtension();
+
+	/**
+	 * Writes album and its sub-albums
+	 * @param album the album exported
+	 * @param file the file to write
+	 */
+	void export(Album album, File file) throws IOException;
+
+	/** @return the exporters of this package, followed by those found by the service loader */
+	static List<AlbumExporter> all() {
+		List<AlbumExporter> exporters = new ArrayList<>();
+		exporters.add(new HtmlExporter());
+		exporters.add(new M3uExporter(true));
+		exporters.add(new M3uExporter(false));
+		exporters.add(new JsonExporter());
+		for (AlbumExporter e : ServiceLoader.load(AlbumExporter.class)) {
+			exporters.add(e);
+		}
+		return exporters;
+	}
+
+	/** @return the one of exporters writing files with the extension of file, or null if there is none */
+	static AlbumExporter forFile(List<AlbumExporter> exporters, File file) {
+		String name = file.getName();
+		String extension = name.substring(name.lastIndexOf('.') + 1);
+		for (AlbumExporter e : exporters) {
+			if (e.getExtension().equalsIgnoreCase(extension)) {
+				return e;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,17 @@
+package model;
+
+import java.util.List;
+
+/**
+ * AlbumListener is notified of the changes to an album hierarchy,
+ * see {@link AlbumEventBus#subscribe(AlbumListener)}.
+ */
+public interface AlbumListener {
+
+	/**
+	 * Called with the changes made since the last call, in the order they
+	 * were made. Changes to the clips of an album made in a row are merged
+	 * into at most one CLIPS_REMOVED and one CLIPS_ADDED event per album.
+	 */
+	void onAlbumEvents(List<AlbumEvent> events);
+}
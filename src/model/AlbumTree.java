@@ -0,0 +1,149 @@
+package model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AlbumTree holds what the albums of one hierarchy share: the registry
+ * giving their clips ids, the index of the albums by id, the bus their
+ * changes are published on, and the lock that lets one thread at a time
+ * change them. Album ids are never reused, and are kept when the
+ * hierarchy is saved and loaded again.
+ *
+ * Readers do not need the lock. {@link Album#getSoundClips()} returns an
+ * immutable snapshot, and the lists of sub-albums are copied on write.
+ *
+ * The tree also keeps its {@link SmartAlbum}s up to date. Whenever clips
+ * join the root album, or their metadata changes, only those clips are
+ * checked against the rules, under the same lock as the change itself.
+ * Albums not yet read from a hierarchy file hold no smart albums, as the
+ * smart albums of a file are read as soon as it is opened.
+ */
+public class AlbumTree {
+
+	private final Album root;
+	private final ClipRegistry registry = new ClipRegistry();
+	private final Map<Long, Album> albums = new ConcurrentHashMap<>(); // The albums in the hierarchy, by id
+	private final List<SmartAlbum> smartAlbums = new CopyOnWriteArrayList<>(); // The smart albums in the index
+	private long nextAlbumId;
+	private final AlbumEventBus eventBus = new AlbumEventBus();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile HierarchyJournal journal; // Where the changes are written, or null
+
+	AlbumTree(Album root) {
+		this.root = root;
+	}
+
+	/** @return the root album of the hierarchy */
+	public Album getRoot() {
+		return root;
+	}
+
+	/** @return the registry giving the clips of the hierarchy their ids */
+	public ClipRegistry getClipRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @return the album with the given id, or null if there is none in the
+	 * hierarchy. Of a hierarchy opened from a file, only the albums read so
+	 * far are found.
+	 */
+	public Album getAlbum(long id) {
+		return albums.get(id);
+	}
+
+	/** @return the number of albums in the hierarchy, or read so far of a hierarchy opened from a file */
+	public int getAlbumCount() {
+		return albums.size();
+	}
+
+	synchronized long newAlbumId() {
+		return nextAlbumId++;
+	}
+
+	// The id the next album will get, for saving the hierarchy
+	synchronized long peekNextAlbumId() {
+		return nextAlbumId;
+	}
+
+	synchronized void restoreNextAlbumId(long id) {
+		nextAlbumId = id;
+	}
+
+	// Adds album and its sub-albums to the index
+	void index(Album album) {
+		albums.put(album.getId(), album);
+		if (album instanceof SmartAlbum) {
+			smartAlbums.add((SmartAlbum) album);
+		}
+		for (Album a : album.subAlbumsRead()) {
+			index(a);
+		}
+	}
+
+	// Removes album and its sub-albums from the index
+	void unindex(Album album) {
+		albums.remove(album.getId());
+		if (album instanceof SmartAlbum) {
+			smartAlbums.remove(album);
+		}
+		for (Album a : album.subAlbumsRead()) {
+			unindex(a);
+		}
+	}
+
+	// Fills the smart albums among album and its sub-albums, which have just
+	// been added to the hierarchy, from the clips of the root album
+	void fill(Album album) {
+		if (album instanceof SmartAlbum) {
+			((SmartAlbum) album).addMatching(root.clipIdSnapshot());
+		}
+		for (Album a : album.subAlbumsRead()) {
+			fill(a);
+		}
+	}
+
+	// Checks clips that have just joined the root album against every rule
+	void clipsAdded(ClipIdSet ids) {
+		for (SmartAlbum album : smartAlbums) {
+			album.addMatching(ids);
+		}
+	}
+
+	// Checks clips whose metadata has changed against the rules that look at it
+	void clipsUpdated(ClipIdSet ids) {
+		for (SmartAlbum album : smartAlbums) {
+			if (album.getRule().needsMetadata()) {
+				album.refresh(ids);
+			}
+		}
+	}
+
+	/** @return the bus the changes to the hierarchy are published on */
+	public AlbumEventBus getEventBus() {
+		return eventBus;
+	}
+
+	/**
+	 * @return the lock every change to the hierarchy is made under. Hold the
+	 * write lock to make several changes that readers should only see together.
+	 */
+	public ReentrantReadWriteLock getLock() {
+		return lock;
+	}
+
+	// The journal the changes to the hierarchy are written to, or null
+	HierarchyJournal getJournal() {
+		return journal;
+	}
+
+	void setJournal(HierarchyJournal journal) {
+		this.journal = journal;
+		registry.setJournal(journal);
+	}
+
+}
@@ -0,0 +1,167 @@
+package model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * AutosaveService saves an album hierarchy to a file on a background
+ * thread, so that saving never holds up the thread that asked for it.
+ *
+ * Each save copies the hierarchy under its read lock, which costs a copy
+ * of the clip ids of the albums read so far, and then writes the copy with
+ * the lock let go, see {@link HierarchyStore}. The file is written next to
+ * its old version and moved into its place at once, so it is never left
+ * half written.
+ *
+ * Once started, the service saves after every change to the hierarchy.
+ * Changes made while a save waits for its delay are all saved by it, and
+ * changes made while a save is being written lead to a single save after it.
+ */
+public class AutosaveService implements Closeable {
+
+	/** What a save did */
+	public static final class SaveReport {
+		private final File file;
+		private final long bytes;
+		private final long millis;
+		private final IOException failure;
+
+		SaveReport(File file, long bytes, long millis, IOException failure) {
+			this.file = file;
+			this.bytes = bytes;
+			this.millis = millis;
+			this.failure = failure;
+		}
+
+		/** @return the file saved to */
+		public File getFile() {
+			return file;
+		}
+
+		/** @return the number of bytes written */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/** @return how long the save took, copying the hierarchy included, in ms */
+		public long getMillis() {
+			return millis;
+		}
+
+		/** @return why the save failed, or null if it did not */
+		public IOException getFailure() {
+			return failure;
+		}
+
+		public String toString() {
+			if (failure != null) return "could not save to " + file.getName() + ": " + failure.getMessage();
+			return "saved " + bytes / 1024 + " KB to " + file.getName() + " in " + millis + " ms";
+		}
+	}
+
+	private final Album root;
+	private final File file;
+	private final long delayMillis;
+	private final Consumer<SaveReport> listener;
+	private final AtomicBoolean scheduled = new AtomicBoolean(); // True while a save waits for its delay
+	private final AlbumListener trigger = events -> requestSave();
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "AutosaveService");
+		t.setDaemon(true);
+		return t;
+	});
+	private volatile SaveReport lastReport;
+
+	/**
+	 * Make a service saving the hierarchy of root to file
+	 * @param delayMillis how long a save waits for more changes
+	 * @param listener called on the thread of the service after each save
+	 */
+	public AutosaveService(Album root, File file, long delayMillis, Consumer<SaveReport> listener) {
+		this.root = root;
+		this.file = file;
+		this.delayMillis = delayMillis;
+		this.listener = listener;
+	}
+
+	/** Saves the hierarchy after every change made to it from now on */
+	public void start() {
+		root.getEventBus().subscribe(trigger);
+	}
+
+	/** @return the file the hierarchy is saved to */
+	public File getFile() {
+		return file;
+	}
+
+	/** Saves the hierarchy once the delay has passed, unless a save is waiting already */
+	public void requestSave() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.schedule(() -> save(true), delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Saves the hierarchy right away, once the save being written, if any, is done */
+	public CompletableFuture<SaveReport> saveNow() {
+		return CompletableFuture.supplyAsync(() -> save(false), executor);
+	}
+
+	/** @return the report of the latest save, or null if there has been none */
+	public SaveReport getLastReport() {
+		return lastReport;
+	}
+
+	// Runs on the thread of the service
+	private SaveReport save(boolean requested) {
+		// Clear the flag first, so that changes made from now on ask for
+		// another save rather than being left out of this one
+		if (requested) {
+			scheduled.set(false);
+		}
+		long start = System.nanoTime();
+		SaveReport report;
+		try {
+			HierarchyStore.Snapshot snapshot;
+			Lock lock = root.getTree().getLock().readLock();
+			lock.lock();
+			try {
+				snapshot = HierarchyStore.snapshot(root);
+			} finally {
+				lock.unlock();
+			}
+			HierarchyStore.write(snapshot, file, HierarchyStore.newGeneration());
+			report = new SaveReport(file, file.length(), (System.nanoTime() - start) / 1_000_000, null);
+		} catch (IOException e) {
+			report = new SaveReport(file, 0, (System.nanoTime() - start) / 1_000_000, e);
+		} catch (UncheckedIOException e) {
+			report = new SaveReport(file, 0, (System.nanoTime() - start) / 1_000_000, e.getCause());
+		}
+		lastReport = report;
+		listener.accept(report);
+		return report;
+	}
+
+	/**
+	 * Stops saving after changes, and waits for the saves asked for so far
+	 * to be written
+	 */
+	@Override
+	public void close() {
+		root.getEventBus().unsubscribe(trigger);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package model;
+
+
+/**
+ * ClipFilter describes which sound clips a query on the
+ * {@link ClipMetadataStore} selects, for example
+ * <pre>
+ * new ClipFilter().channels(2).sampleRate(48000).shorterThan(2).in(album)
+ * </pre>
+ * Every condition given must hold. Clips whose metadata has not been read
+ * are only selected by a filter with no conditions on the metadata.
+ */
+public class ClipFilter {
+
+	// Inclusive ranges of the int columns, see ClipMetadataStore
+	final int[] intMin = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+	final int[] intMax = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+	// Inclusive ranges of the long columns
+	final long[] longMin = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+	final long[] longMax = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+	Album album;
+
+	/** Only clips with the given number of channels */
+	public ClipFilter channels(int channels) {
+		return intRange(ClipMetadataStore.CHANNELS, channels, channels);
+	}
+
+	/** Only clips with the given sample rate in Hz */
+	public ClipFilter sampleRate(int sampleRate) {
+		return intRange(ClipMetadataStore.SAMPLE_RATE, sampleRate, sampleRate);
+	}
+
+	/** Only clips with the given number of bits per sample */
+	public ClipFilter bitsPerSample(int bits) {
+		return intRange(ClipMetadataStore.BITS_PER_SAMPLE, bits, bits);
+	}
+
+	/** Only clips that play for less than the given number of seconds */
+	public ClipFilter shorterThan(double seconds) {
+		return longRange(ClipMetadataStore.DURATION, Long.MIN_VALUE, micros(seconds) - 1);
+	}
+
+	/** Only clips that play for more than the given number of seconds */
+	public ClipFilter longerThan(double seconds) {
+		return longRange(ClipMetadataStore.DURATION, micros(seconds) + 1, Long.MAX_VALUE);
+	}
+
+	/** Only clips whose file is between min and max bytes long, inclusive */
+	public ClipFilter sizeBetween(long min, long max) {
+		return longRange(ClipMetadataStore.FILE_SIZE, min, max);
+	}
+
+	/** Only clips whose file was last modified between from and to, in ms since the epoch, inclusive */
+	public ClipFilter modifiedBetween(long from, long to) {
+		return longRange(ClipMetadataStore.LAST_MODIFIED, from, to);
+	}
+
+	/** Only clips in album or one of its sub-albums */
+	public ClipFilter in(Album album) {
+		this.album = album;
+		return this;
+	}
+
+	// True if there is a condition on the metadata
+	boolean needsMetadata() {
+		for (int c = 0; c < intMin.length; c++) {
+			if (intMin[c] != Integer.MIN_VALUE || intMax[c] != Integer.MAX_VALUE) return true;
+		}
+		for (int c = 0; c < longMin.length; c++) {
+			if (longMin[c] != Long.MIN_VALUE || longMax[c] != Long.MAX_VALUE) return true;
+		}
+		return false;
+	}
+
+	// True if the metadata meets the conditions on the metadata, the album is not checked
+	boolean matches(WavMetadata m) {
+		if (m == null) return !needsMetadata();
+		return inRange(ClipMetadataStore.SAMPLE_RATE, m.getSampleRate())
+				&& inRange(ClipMetadataStore.CHANNELS, m.getChannels())
+				&& inRange(ClipMetadataStore.BITS_PER_SAMPLE, m.getBitsPerSample())
+				&& inRange(ClipMetadataStore.DURATION, micros(m.getDurationSeconds()))
+				&& inRange(ClipMetadataStore.FILE_SIZE, m.getFileSize())
+				&& inRange(ClipMetadataStore.LAST_MODIFIED, m.getLastModified());
+	}
+
+	private boolean inRange(int column, int value) {
+		return value >= intMin[column] && value <= intMax[column];
+	}
+
+	private boolean inRange(int column, long value) {
+		return value >= longMin[column] && value <= longMax[column];
+	}
+
+	// Narrows the range of a column, so that repeated conditions all hold
+	private ClipFilter intRange(int column, int min, int max) {
+		intMin[column] = Math.max(intMin[column], min);
+		intMax[column] = Math.min(intMax[column], max);
+		return this;
+	}
+
+	private ClipFilter longRange(int column, long min, long max) {
+		longMin[column] = Math.max(longMin[column], min);
+		longMax[column] = Math.min(longMax[column], max);
+		return this;
+	}
+
+	static long micros(double seconds) {
+		return Math.round(seconds * 1_000_000);
+	}
+}
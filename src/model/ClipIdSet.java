@@ -0,0 +1,426 @@
+package model;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * ClipIdSet is a set of clip ids (non-negative ints, see {@link ClipRegistry}).
+ *
+ * A set is stored in whichever of two forms is smaller: a sorted array of
+ * ids when the ids are sparse, or a bitmap with one bit per possible id when
+ * they are dense. Bulk operations between two bitmaps work on whole 64-bit
+ * words at a time, and bulk operations involving a sorted array merge the
+ * arrays in a single pass. The form is switched automatically as the set
+ * grows and shrinks.
+ */
+public final class ClipIdSet {
+
+	private static final int[] NO_IDS = new int[0];
+
+	// Exactly one of these is in use: bitmap when it is not null, ids otherwise
+	private int[] ids = NO_IDS; // sorted, the first size entries are in use
+	private long[] bitmap;
+	private int size;
+
+	/**
+	 * Make an empty set.
+	 */
+	public ClipIdSet() {
+	}
+
+	/**
+	 * Make a set holding the given ids, which may be in any order
+	 * and contain repeats.
+	 */
+	public static ClipIdSet of(int... ids) {
+		ClipIdSet set = new ClipIdSet();
+		int[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] < 0) throw new IllegalArgumentException("negative id " + sorted[i]);
+			if (n == 0 || sorted[n - 1] != sorted[i]) sorted[n++] = sorted[i];
+		}
+		set.ids = sorted;
+		set.size = n;
+		set.compact();
+		return set;
+	}
+
+	/** @return the number of ids in the set */
+	public int size() {
+		return size;
+	}
+
+	/** @return true if the set holds no ids */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return true if the set holds id */
+	public boolean contains(int id) {
+		if (id < 0) return false;
+		if (bitmap != null) {
+			int word = id >>> 6;
+			return word < bitmap.length && (bitmap[word] & (1L << id)) != 0;
+		}
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/**
+	 * Adds a single id. Prefer {@link #addAll(ClipIdSet)} for many ids.
+	 * @return true if the id was not in the set before
+	 */
+	public boolean add(int id) {
+		if (id < 0) throw new IllegalArgumentException("negative id " + id);
+		if (bitmap != null) {
+			int word = id >>> 6;
+			if (word >= bitmap.length) bitmap = Arrays.copyOf(bitmap, Math.max(word + 1, bitmap.length * 3 / 2));
+			if ((bitmap[word] & (1L << id)) != 0) return false;
+			bitmap[word] |= 1L << id;
+			size++;
+			return true;
+		}
+		int i = Arrays.binarySearch(ids, 0, size, id);
+		if (i >= 0) return false;
+		i = -i - 1;
+		if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(4, size * 3 / 2 + 1));
+		System.arraycopy(ids, i, ids, i + 1, size - i);
+		ids[i] = id;
+		size++;
+		compact();
+		return true;
+	}
+
+	/**
+	 * Removes a single id. Prefer {@link #removeAll(ClipIdSet)} for many ids.
+	 * @return true if the id was in the set
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) return false;
+		if (bitmap != null) {
+			bitmap[id >>> 6] &= ~(1L << id);
+		} else {
+			int i = Arrays.binarySearch(ids, 0, size, id);
+			System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		}
+		size--;
+		compact();
+		return true;
+	}
+
+	/**
+	 * Adds all the ids of other to this set.
+	 * @return the ids that were not in this set before
+	 */
+	public ClipIdSet addAll(ClipIdSet other) {
+		ClipIdSet added = other.andNot(this);
+		if (added.isEmpty()) return added;
+		if (bitmap != null && added.bitmap == null) {
+			// Set the few new bits one at a time
+			int words = (added.lastId() >>> 6) + 1;
+			if (words > bitmap.length) bitmap = Arrays.copyOf(bitmap, Math.max(words, bitmap.length * 3 / 2));
+			for (int i = 0; i < added.size; i++) {
+				int id = added.ids[i];
+				bitmap[id >>> 6] |= 1L << id;
+			}
+		} else if (bitmap != null || added.bitmap != null || added.size * 32L > Math.max(lastId(), added.lastId())) {
+			// Merge as bitmaps, a word at a time
+			long[] mine = toBitmap();
+			long[] theirs = added.toBitmap();
+			if (theirs.length > mine.length) mine = Arrays.copyOf(mine, theirs.length);
+			for (int w = 0; w < theirs.length; w++) {
+				mine[w] |= theirs[w];
+			}
+			bitmap = mine;
+			ids = NO_IDS;
+		} else {
+			ids = merge(ids, size, added.ids, added.size);
+		}
+		size += added.size;
+		compact();
+		return added;
+	}
+
+	/**
+	 * Removes all the ids of other from this set.
+	 * @return the ids that were in this set
+	 */
+	public ClipIdSet removeAll(ClipIdSet other) {
+		ClipIdSet removed = and(other);
+		if (removed.isEmpty()) return removed;
+		if (bitmap != null) {
+			if (removed.bitmap != null) {
+				long[] theirs = removed.bitmap;
+				for (int w = 0; w < theirs.length; w++) {
+					bitmap[w] &= ~theirs[w];
+				}
+			} else {
+				for (int i = 0; i < removed.size; i++) {
+					int id = removed.ids[i];
+					bitmap[id >>> 6] &= ~(1L << id);
+				}
+			}
+		} else {
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (!removed.contains(ids[i])) ids[n++] = ids[i];
+			}
+		}
+		size -= removed.size;
+		compact();
+		return removed;
+	}
+
+	/**
+	 * @return a new set with the ids that are in both this set and other
+	 */
+	public ClipIdSet and(ClipIdSet other) {
+		if (bitmap != null && other.bitmap != null) {
+			int words = Math.min(bitmap.length, other.bitmap.length);
+			long[] result = new long[words];
+			for (int w = 0; w < words; w++) {
+				result[w] = bitmap[w] & other.bitmap[w];
+			}
+			return fromBitmap(result);
+		}
+		// Walk the smaller set and look the ids up in the larger one
+		ClipIdSet small = size <= other.size ? this : other;
+		ClipIdSet large = small == this ? other : this;
+		int[] result = new int[small.size];
+		int n = 0;
+		for (PrimitiveIterator.OfInt it = small.iterator(); it.hasNext(); ) {
+			int id = it.nextInt();
+			if (large.contains(id)) result[n++] = id;
+		}
+		return fromSorted(result, n);
+	}
+
+	/**
+	 * @return a new set with the ids of this set that are not in other
+	 */
+	public ClipIdSet andNot(ClipIdSet other) {
+		if (bitmap != null && other.bitmap != null) {
+			long[] result = bitmap.clone();
+			int words = Math.min(bitmap.length, other.bitmap.length);
+			for (int w = 0; w < words; w++) {
+				result[w] &= ~other.bitmap[w];
+			}
+			return fromBitmap(result);
+		}
+		int[] result = new int[size];
+		int n = 0;
+		for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); ) {
+			int id = it.nextInt();
+			if (!other.contains(id)) result[n++] = id;
+		}
+		return fromSorted(result, n);
+	}
+
+	/**
+	 * @return true if this set and other have at least one id in common
+	 */
+	public boolean intersects(ClipIdSet other) {
+		if (bitmap != null && other.bitmap != null) {
+			int words = Math.min(bitmap.length, other.bitmap.length);
+			for (int w = 0; w < words; w++) {
+				if ((bitmap[w] & other.bitmap[w]) != 0) return true;
+			}
+			return false;
+		}
+		ClipIdSet small = size <= other.size ? this : other;
+		ClipIdSet large = small == this ? other : this;
+		for (PrimitiveIterator.OfInt it = small.iterator(); it.hasNext(); ) {
+			if (large.contains(it.nextInt())) return true;
+		}
+		return false;
+	}
+
+	/** @return a copy of this set */
+	public ClipIdSet copy() {
+		ClipIdSet copy = new ClipIdSet();
+		copy.size = size;
+		if (bitmap != null) {
+			copy.bitmap = bitmap.clone();
+		} else {
+			copy.ids = Arrays.copyOf(ids, size);
+		}
+		return copy;
+	}
+
+	/** Calls action with every id in the set, in increasing order */
+	public void forEach(IntConsumer action) {
+		if (bitmap != null) {
+			for (int w = 0; w < bitmap.length; w++) {
+				long word = bitmap[w];
+				while (word != 0) {
+					action.accept((w << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				action.accept(ids[i]);
+			}
+		}
+	}
+
+	/** @return an iterator over the ids in the set, in increasing order */
+	public PrimitiveIterator.OfInt iterator() {
+		if (bitmap == null) {
+			int[] a = ids;
+			int n = size;
+			return new PrimitiveIterator.OfInt() {
+				int i = 0;
+
+				public boolean hasNext() {
+					return i < n;
+				}
+
+				public int nextInt() {
+					if (i >= n) throw new NoSuchElementException();
+					return a[i++];
+				}
+			};
+		}
+		long[] b = bitmap;
+		return new PrimitiveIterator.OfInt() {
+			int w = -1;
+			long word = 0;
+
+			public boolean hasNext() {
+				while (word == 0) {
+					if (++w >= b.length) {
+						w = b.length;
+						return false;
+					}
+					word = b[w];
+				}
+				return true;
+			}
+
+			public int nextInt() {
+				if (!hasNext()) throw new NoSuchElementException();
+				int id = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				return id;
+			}
+		};
+	}
+
+	/** @return the ids in the set as a sorted array */
+	public int[] toArray() {
+		if (bitmap == null) return Arrays.copyOf(ids, size);
+		int[] result = new int[size];
+		int[] n = {0};
+		forEach(id -> result[n[0]++] = id);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ClipIdSet)) return false;
+		ClipIdSet other = (ClipIdSet) obj;
+		return size == other.size && andNot(other).isEmpty();
+	}
+
+	@Override
+	public int hashCode() {
+		int[] h = {0};
+		forEach(id -> h[0] += id);
+		return h[0];
+	}
+
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	// The largest id in the set, or -1 if it is empty
+	private int lastId() {
+		if (size == 0) return -1;
+		if (bitmap == null) return ids[size - 1];
+		for (int w = bitmap.length - 1; ; w--) {
+			if (bitmap[w] != 0) return (w << 6) + 63 - Long.numberOfLeadingZeros(bitmap[w]);
+		}
+	}
+
+	// Roughly the number of bytes the set takes up
+	long memoryBytes() {
+		return 32 + (bitmap != null ? bitmap.length * 8L : ids.length * 4L);
+	}
+
+	// Returns the set as a bitmap, which is the set's own bitmap if it has one,
+	// so the result must not be modified
+	long[] toBitmap() {
+		if (bitmap != null) return bitmap;
+		long[] result = new long[size == 0 ? 0 : (lastId() >>> 6) + 1];
+		for (int i = 0; i < size; i++) {
+			result[ids[i] >>> 6] |= 1L << ids[i];
+		}
+		return result;
+	}
+
+	// Switch to the smaller form if the set has become clearly larger than it
+	// would be in the other one. The margin keeps a set near the threshold
+	// from switching back and forth.
+	private void compact() {
+		if (size == 0) {
+			bitmap = null;
+			ids = NO_IDS;
+		} else if (bitmap == null) {
+			int last = lastId();
+			if (size > 64 && size * 32L > last + 64) {
+				bitmap = toBitmap();
+				ids = NO_IDS;
+			} else if (ids.length > 16 && ids.length > size * 2) {
+				ids = Arrays.copyOf(ids, size);
+			}
+		} else if (size * 4L < bitmap.length) {
+			int words = (lastId() >>> 6) + 1;
+			if (size * 4L < words) {
+				int[] sorted = toArray();
+				bitmap = null;
+				ids = sorted;
+			} else if (bitmap.length > words * 2) {
+				bitmap = Arrays.copyOf(bitmap, words);
+			}
+		}
+	}
+
+	// Makes a set from a bitmap, which the set takes over
+	static ClipIdSet fromBitmap(long[] words) {
+		ClipIdSet set = new ClipIdSet();
+		int n = 0;
+		for (long word : words) {
+			n += Long.bitCount(word);
+		}
+		set.bitmap = words;
+		set.size = n;
+		set.compact();
+		return set;
+	}
+
+	// Makes a set from the first n ids of an array, which must be sorted and
+	// without duplicates, and which the set takes over
+	static ClipIdSet fromSorted(int[] sorted, int n) {
+		ClipIdSet set = new ClipIdSet();
+		set.ids = sorted;
+		set.size = n;
+		set.compact();
+		return set;
+	}
+
+	// Merge two sorted arrays without common elements
+	private static int[] merge(int[] a, int an, int[] b, int bn) {
+		int[] result = new int[an + bn];
+		int i = 0, j = 0, k = 0;
+		while (i < an && j < bn) {
+			result[k++] = a[i] < b[j] ? a[i++] : b[j++];
+		}
+		while (i < an) result[k++] = a[i++];
+		while (j < bn) result[k++] = b[j++];
+		return result;
+	}
+}
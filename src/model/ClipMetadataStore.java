@@ -0,0 +1,234 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ClipMetadataStore keeps the {@link WavMetadata} of the clips of a
+ * hierarchy in columns: one primitive array per field, indexed by clip id.
+ *
+ * A {@link ClipFilter} is evaluated 64 clips at a time, one column after
+ * the other, with branch-free loops that build a bitmap word per 64 clips.
+ * Ranges of words are evaluated in parallel. Words where the album of the
+ * filter has no clips, or an earlier column has already ruled out every
+ * clip, are skipped. Nothing is boxed.
+ *
+ * The store follows the clips added to the root album, and picks up
+ * metadata read later from the {@link AlbumEvent.Type#CLIPS_UPDATED} events
+ * published by {@link Album#updateSoundClips(Collection)}.
+ */
+public class ClipMetadataStore implements AlbumListener {
+
+	// The int columns
+	static final int SAMPLE_RATE = 0, CHANNELS = 1, BITS_PER_SAMPLE = 2;
+	// The long columns
+	static final int DURATION = 0, FILE_SIZE = 1, LAST_MODIFIED = 2; // duration in microseconds
+
+	private static final int WORDS_PER_TASK = 1024; // 65536 clips
+
+	private final Album root;
+	private final ClipRegistry registry;
+	private int[][] intColumns = new int[3][1024];
+	private long[][] longColumns = new long[3][1024];
+	private long[] known = new long[16]; // Bitmap of the clips whose metadata is in the columns
+	private int size; // One past the largest id in the columns
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Stores the metadata of the clips of root, and keeps following the
+	 * clips added to it until {@link #close()} is called.
+	 */
+	public ClipMetadataStore(Album root) {
+		this.root = root;
+		this.registry = root.getClipRegistry();
+		root.getEventBus().subscribe(this);
+		update(root.clipIdSnapshot());
+	}
+
+	/** Stops following the changes to the hierarchy */
+	public void close() {
+		root.getEventBus().unsubscribe(this);
+	}
+
+	@Override
+	public void onAlbumEvents(List<AlbumEvent> events) {
+		for (AlbumEvent event : events) {
+			if (event.getType() == AlbumEvent.Type.CLIPS_UPDATED
+					|| (event.getAlbum() == root && event.getType() == AlbumEvent.Type.CLIPS_ADDED)) {
+				update(event.getClipIds());
+			}
+		}
+	}
+
+	// Copies the metadata of the clips with the given ids into the columns
+	private void update(ClipIdSet ids) {
+		lock.writeLock().lock();
+		try {
+			ids.forEach(id -> {
+				WavMetadata m = registry.get(id).getMetadata();
+				if (m == null) return;
+				ensureCapacity(id + 1);
+				intColumns[SAMPLE_RATE][id] = m.getSampleRate();
+				intColumns[CHANNELS][id] = m.getChannels();
+				intColumns[BITS_PER_SAMPLE][id] = m.getBitsPerSample();
+				longColumns[DURATION][id] = ClipFilter.micros(m.getDurationSeconds());
+				longColumns[FILE_SIZE][id] = m.getFileSize();
+				longColumns[LAST_MODIFIED][id] = m.getLastModified();
+				known[id >>> 6] |= 1L << id;
+				size = Math.max(size, id + 1);
+			});
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= intColumns[0].length) return;
+		int newCapacity = (Math.max(capacity, intColumns[0].length * 2) + 63) & ~63;
+		for (int c = 0; c < intColumns.length; c++) {
+			intColumns[c] = Arrays.copyOf(intColumns[c], newCapacity);
+		}
+		for (int c = 0; c < longColumns.length; c++) {
+			longColumns[c] = Arrays.copyOf(longColumns[c], newCapacity);
+		}
+		known = Arrays.copyOf(known, (newCapacity + 63) >>> 6);
+	}
+
+	/**
+	 * @return the ids of the clips that pass the filter, see {@link ClipRegistry#get(int)}
+	 */
+	public ClipIdSet select(ClipFilter filter) {
+		ClipIdSet scope = (filter.album != null ? filter.album : root).clipIdSnapshot();
+		if (!filter.needsMetadata()) return scope;
+		lock.readLock().lock();
+		try {
+			long[] scopeWords = scope.toBitmap();
+			long[] result = new long[Math.min(scopeWords.length, (size + 63) >>> 6)];
+			ForkJoinPool.commonPool().invoke(new FilterTask(filter, scopeWords, result, 0, result.length));
+			return ClipIdSet.fromBitmap(result);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the clips that pass the filter, in the order of their ids
+	 */
+	public List<SoundClip> find(ClipFilter filter) {
+		ClipIdSet ids = select(filter);
+		SoundClip[] clips = new SoundClip[ids.size()];
+		int[] n = {0};
+		ids.forEach(id -> clips[n[0]++] = registry.get(id));
+		return Arrays.asList(clips);
+	}
+
+	/**
+	 * @return the totals over the clips that pass the filter
+	 */
+	public ClipStats aggregate(ClipFilter filter) {
+		ClipIdSet ids = select(filter);
+		lock.readLock().lock();
+		try {
+			long[] words = ids.toBitmap();
+			long[] durations = longColumns[DURATION];
+			long[] sizes = longColumns[FILE_SIZE];
+			int knownCount = 0;
+			long totalDuration = 0, totalBytes = 0, longest = 0;
+			int knownWords = Math.min(words.length, (size + 63) >>> 6);
+			for (int w = 0; w < knownWords; w++) {
+				long word = words[w] & known[w];
+				while (word != 0) {
+					int id = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					knownCount++;
+					totalDuration += durations[id];
+					totalBytes += sizes[id];
+					longest = Math.max(longest, durations[id]);
+				}
+			}
+			return new ClipStats(ids.size(), knownCount, totalDuration, totalBytes, longest);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the totals over the clips of album and its sub-albums
+	 */
+	public ClipStats aggregate(Album album) {
+		return aggregate(new ClipFilter().in(album));
+	}
+
+	// Evaluates a filter over a range of bitmap words, splitting the range
+	// in half until it is small enough
+	private class FilterTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ClipFilter filter;
+		private final long[] scope, result;
+		private final int from, to;
+
+		FilterTask(ClipFilter filter, long[] scope, long[] result, int from, int to) {
+			this.filter = filter;
+			this.scope = scope;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > WORDS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new FilterTask(filter, scope, result, from, middle),
+						new FilterTask(filter, scope, result, middle, to));
+				return;
+			}
+			for (int w = from; w < to; w++) {
+				long mask = scope[w] & known[w];
+				int base = w << 6;
+				for (int c = 0; c < intColumns.length && mask != 0; c++) {
+					if (filter.intMin[c] != Integer.MIN_VALUE || filter.intMax[c] != Integer.MAX_VALUE) {
+						mask &= inRange(intColumns[c], base, filter.intMin[c], filter.intMax[c]);
+					}
+				}
+				for (int c = 0; c < longColumns.length && mask != 0; c++) {
+					if (filter.longMin[c] != Long.MIN_VALUE || filter.longMax[c] != Long.MAX_VALUE) {
+						mask &= inRange(longColumns[c], base, filter.longMin[c], filter.longMax[c]);
+					}
+				}
+				result[w] = mask;
+			}
+		}
+	}
+
+	// A bitmap word with a bit set for each of the 64 values from base on
+	// that lie in [min, max]. The columns are always a multiple of 64 long.
+	private static long inRange(int[] column, int base, int min, int max) {
+		// In range when neither v - min nor max - v is negative, which in
+		// long arithmetic cannot overflow
+		long bits = 0;
+		for (int j = 0; j < 64; j++) {
+			long v = column[base + j];
+			bits |= (~((v - min) | (max - v)) >>> 63) << j;
+		}
+		return bits;
+	}
+
+	private static long inRange(long[] column, int base, long min, long max) {
+		// The same test done unsigned, after shifting the range to start at 0:
+		// v is in range when v - min, wrapped around, is at most max - min
+		long span = (max - min) ^ Long.MIN_VALUE;
+		long bits = 0;
+		for (int j = 0; j < 64; j++) {
+			long d = (column[base + j] - min) ^ Long.MIN_VALUE;
+			bits |= (d <= span ? 1L : 0L) << j;
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,182 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClipRegistry gives every sound clip of an album hierarchy a small,
+ * dense int id, so that albums can store their clips as {@link ClipIdSet}s
+ * instead of sets of objects. Ids are handed out in order from 0 and are
+ * never reused, and all the albums of one hierarchy share one registry.
+ *
+ * Looking up clips and ids takes no lock and may be done from any thread.
+ * Only handing out new ids is serialized.
+ *
+ * The registry of a hierarchy opened from a file, see
+ * {@link HierarchyStore#openHierarchy(java.io.File)}, reads each clip from
+ * the file when it is first asked for by id. The id of a clip is looked up
+ * in the path index of the file, which only reads the clips that share its
+ * slots. Files saved before there was a path index have all their clips
+ * read the first time an id is looked up.
+ */
+public class ClipRegistry {
+
+	// A clip is stored in the array before size is raised past it, so a
+	// reader that sees an id below size also sees its clip
+	private volatile SoundClip[] clips = new SoundClip[64];
+	private volatile int size;
+	private final Map<SoundClip, Integer> ids = new ConcurrentHashMap<>();
+	// The file the clips not read yet come from, null once every clip has been read
+	private volatile MappedHierarchy source;
+	private volatile HierarchyJournal journal; // Where new clips are written, or null
+
+	/**
+	 * @return the id of clip, giving it a new id if it has none yet
+	 */
+	public int idOf(SoundClip clip) {
+		int id = lookup(clip);
+		return id >= 0 ? id : register(clip);
+	}
+
+	private synchronized int register(SoundClip clip) {
+		int id = lookup(clip);
+		if (id >= 0) return id;
+		int n = size;
+		SoundClip[] array = clips;
+		if (n == array.length) array = Arrays.copyOf(array, n * 2);
+		array[n] = clip;
+		clips = array;
+		ids.put(clip, n);
+		size = n + 1;
+		HierarchyJournal j = journal;
+		if (j != null) {
+			j.clipRegistered(n, clip);
+		}
+		return n;
+	}
+
+	// Gives clip the id it had when it was written to a HierarchyJournal. The
+	// journal may hold clips the hierarchy file already has, which are skipped.
+	synchronized void replay(int id, SoundClip clip) {
+		int n = size;
+		if (id < n) {
+			if (!peek(id).equals(clip)) throw MappedHierarchy.damaged();
+			return;
+		}
+		if (id > n) throw MappedHierarchy.damaged();
+		SoundClip[] array = clips;
+		if (n == array.length) array = Arrays.copyOf(array, n * 2);
+		array[n] = clip;
+		clips = array;
+		ids.put(clip, n);
+		size = n + 1;
+	}
+
+	void setJournal(HierarchyJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the id of clip, or -1 if it has none
+	 */
+	public int lookup(Object clip) {
+		if (!(clip instanceof SoundClip)) return -1;
+		// The clips given an id since the file was opened, or all once it has been read
+		Integer id = ids.get(clip);
+		if (id != null) return id;
+		MappedHierarchy s = source;
+		if (s == null) return -1;
+		if (!s.hasPathIndex()) {
+			readAll();
+			id = ids.get(clip);
+			return id != null ? id : -1;
+		}
+		return s.idOf((SoundClip) clip);
+	}
+
+	/**
+	 * @return the clip with the given id
+	 */
+	public SoundClip get(int id) {
+		if (id < 0 || id >= size) throw new IndexOutOfBoundsException("no clip with id " + id);
+		SoundClip clip = clips[id];
+		return clip != null ? clip : read(id);
+	}
+
+	// Reads a clip from the file. Under the lock, so that every reader gets
+	// the same SoundClip, and the metadata set on it is not lost.
+	private synchronized SoundClip read(int id) {
+		SoundClip clip = clips[id];
+		if (clip == null) {
+			clip = source.clip(id);
+			clips[id] = clip;
+		}
+		return clip;
+	}
+
+	// Reads the clips not read yet from the file, which is then let go of,
+	// and maps every clip to its id
+	synchronized void readAll() {
+		MappedHierarchy s = source;
+		if (s == null) return;
+		SoundClip[] array = clips;
+		for (int id = 0; id < size; id++) {
+			if (array[id] == null) array[id] = s.clip(id);
+			Integer old = ids.putIfAbsent(array[id], id);
+			if (old != null && old != id) throw MappedHierarchy.damaged(); // The same file twice
+		}
+		source = null;
+	}
+
+	// Makes the registry, which must be empty, read its clips from source as they are needed
+	void restore(MappedHierarchy source, int count) {
+		clips = new SoundClip[Math.max(count, 64)];
+		size = count;
+		this.source = source;
+	}
+
+	// The clip with the given id, without keeping it if it has to be read
+	// from the file, for saving the hierarchy
+	SoundClip peek(int id) {
+		MappedHierarchy s = source;
+		SoundClip clip = clips[id];
+		return clip != null ? clip : s.clip(id);
+	}
+
+	/**
+	 * @return the ids of the given clips, giving new ids to clips that have none
+	 */
+	public ClipIdSet idsOf(Iterable<SoundClip> clips) {
+		int[] result = new int[16];
+		int n = 0;
+		for (SoundClip clip : clips) {
+			if (n == result.length) result = Arrays.copyOf(result, n * 2);
+			result[n++] = idOf(clip);
+		}
+		return ClipIdSet.of(Arrays.copyOf(result, n));
+	}
+
+	/**
+	 * @return the ids of those of the given clips that have one
+	 */
+	public ClipIdSet lookupAll(Iterable<SoundClip> clips) {
+		int[] result = new int[16];
+		int n = 0;
+		for (SoundClip clip : clips) {
+			int id = lookup(clip);
+			if (id < 0) continue;
+			if (n == result.length) result = Arrays.copyOf(result, n * 2);
+			result[n++] = id;
+		}
+		return ClipIdSet.of(Arrays.copyOf(result, n));
+	}
+
+	/**
+	 * @return the number of clips that have an id
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,156 @@
+package model;
+
+import java.io.File;
+
+/**
+ * ClipRule decides which sound clips belong to a {@link SmartAlbum}, for example
+ * <pre>
+ * new ClipRule().nameMatches("*kick*").metadata(new ClipFilter().shorterThan(2))
+ * </pre>
+ * Every condition given must hold, and a rule with no conditions
+ * matches every clip. A rule only looks at the clip itself, so it can
+ * be checked for the clips that changed without looking at the others.
+ */
+public class ClipRule {
+
+	private String namePattern; // Wildcard pattern for the file name, null for any name
+	// Absolute path of the folder the file must be in, ending with a separator
+	// so that /music/rock/ does not take in /music/rockabilly. Null for any folder.
+	private String folder;
+	private ClipFilter metadata; // Conditions on the metadata, null for none
+	private String[] parts; // The name pattern split at its stars, see parts()
+	// The folder relative paths are resolved against, the way File.getAbsolutePath does
+	private static final String WORKING_FOLDER = withSeparator(System.getProperty("user.dir"));
+
+	/**
+	 * Only clips whose file name matches pattern, ignoring case. In the
+	 * pattern, * stands for any number of characters and ? for one.
+	 */
+	public ClipRule nameMatches(String pattern) {
+		namePattern = pattern;
+		parts = null;
+		return this;
+	}
+
+	/** Only clips in folder or one of its sub-folders */
+	public ClipRule inFolder(File folder) {
+		this.folder = withSeparator(folder.getAbsolutePath());
+		return this;
+	}
+
+	private static String withSeparator(String path) {
+		return path.endsWith(File.separator) ? path : path + File.separator;
+	}
+
+	/** Only clips whose metadata meets the conditions of filter. The album of the filter is not used. */
+	public ClipRule metadata(ClipFilter filter) {
+		metadata = filter;
+		return this;
+	}
+
+	/** @return true if clip meets every condition of the rule */
+	public boolean matches(SoundClip clip) {
+		File file = clip.getFile();
+		String path = file.getPath();
+		if (folder != null && !inFolder(file, path)) return false;
+		if (namePattern != null && !nameMatches(path, path.lastIndexOf(File.separatorChar) + 1)) return false;
+		return metadata == null || metadata.matches(clip.getMetadata());
+	}
+
+	// True if the file at path is in the folder. Relative paths are compared
+	// as if the working folder came before them, rather than made absolute.
+	private boolean inFolder(File file, String path) {
+		if (file.isAbsolute()) return path.startsWith(folder);
+		if (path.startsWith(File.separator) || path.indexOf(':') >= 0) {
+			return file.getAbsolutePath().startsWith(folder); // Relative to a drive, on Windows
+		}
+		int base = WORKING_FOLDER.length();
+		if (folder.length() <= base) return WORKING_FOLDER.startsWith(folder);
+		return folder.startsWith(WORKING_FOLDER)
+				&& path.regionMatches(0, folder, base, folder.length() - base);
+	}
+
+	// The conditions, for saving the rule. Null when there is none.
+	String namePattern() {
+		return namePattern;
+	}
+
+	String folder() {
+		return folder;
+	}
+
+	ClipFilter metadataFilter() {
+		return metadata;
+	}
+
+	/** @return true if the rule has conditions on the metadata */
+	public boolean needsMetadata() {
+		return metadata != null && metadata.needsMetadata();
+	}
+
+	// Matches the part of path from start on, the file name, against the
+	// pattern. The literal parts between the stars are looked for one after
+	// the other, each at the first place it fits, which is enough to find a
+	// match if there is one. Nothing is allocated, here or in matches.
+	private boolean nameMatches(String path, int start) {
+		String[] parts = parts();
+		int last = parts.length - 1;
+		int end = path.length();
+		if (last == 0) {
+			return end - start == parts[0].length() && partMatches(path, start, parts[0]);
+		}
+		// The first part must start the name and the last one end it
+		if (end - start < parts[0].length() + parts[last].length()
+				|| !partMatches(path, start, parts[0])
+				|| !partMatches(path, end - parts[last].length(), parts[last])) {
+			return false;
+		}
+		int at = start + parts[0].length();
+		int limit = end - parts[last].length();
+		for (int i = 1; i < last; i++) {
+			String part = parts[i];
+			while (at + part.length() <= limit && !partMatches(path, at, part)) {
+				at++;
+			}
+			if (at + part.length() > limit) return false;
+			at += part.length();
+		}
+		return true;
+	}
+
+	// True if part, where ? stands for any character, is found in s at offset, ignoring case
+	private static boolean partMatches(String s, int offset, String part) {
+		for (int i = 0; i < part.length(); i++) {
+			char p = part.charAt(i);
+			if (p == '?') continue;
+			char c = s.charAt(offset + i);
+			if (c != p && Character.toLowerCase(Character.toUpperCase(c)) != p) return false;
+		}
+		return true;
+	}
+
+	// The pattern split at its stars and lower cased the way partMatches compares
+	private String[] parts() {
+		String[] p = parts;
+		if (p == null) {
+			p = namePattern.split("\\*", -1);
+			for (int i = 0; i < p.length; i++) {
+				StringBuilder part = new StringBuilder(p[i].length());
+				for (int j = 0; j < p[i].length(); j++) {
+					part.append(Character.toLowerCase(Character.toUpperCase(p[i].charAt(j))));
+				}
+				p[i] = part.toString();
+			}
+			parts = p;
+		}
+		return p;
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		if (namePattern != null) s.append("name ").append(namePattern);
+		if (folder != null) s.append(s.length() > 0 ? ", " : "").append("in ").append(folder);
+		if (needsMetadata()) s.append(s.length() > 0 ? ", " : "").append("metadata filter");
+		return s.length() > 0 ? s.toString() : "all clips";
+	}
+}
@@ -0,0 +1,56 @@
+package model;
+
+/**
+ * ClipStats holds totals over a set of sound clips, computed by
+ * {@link ClipMetadataStore#aggregate(ClipFilter)}. Clips whose metadata has
+ * not been read count towards the number of clips only.
+ * Instances are immutable.
+ */
+public final class ClipStats {
+
+	private final int clipCount;
+	private final int knownCount;
+	private final long totalDurationMicros;
+	private final long totalBytes;
+	private final long longestMicros;
+
+	ClipStats(int clipCount, int knownCount, long totalDurationMicros, long totalBytes, long longestMicros) {
+		this.clipCount = clipCount;
+		this.knownCount = knownCount;
+		this.totalDurationMicros = totalDurationMicros;
+		this.totalBytes = totalBytes;
+		this.longestMicros = longestMicros;
+	}
+
+	/** @return the number of clips */
+	public int getClipCount() {
+		return clipCount;
+	}
+
+	/** @return the number of clips whose metadata has been read */
+	public int getKnownCount() {
+		return knownCount;
+	}
+
+	/** @return the total play time of the clips in seconds */
+	public double getTotalDurationSeconds() {
+		return totalDurationMicros / 1e6;
+	}
+
+	/** @return the total size of the clip files in bytes */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/** @return the play time of the longest clip in seconds */
+	public double getLongestSeconds() {
+		return longestMicros / 1e6;
+	}
+
+	/** @return a short description such as "12 clips, 0:03:25, 34.1 MB" */
+	public String toString() {
+		long seconds = totalDurationMicros / 1_000_000;
+		return String.format("%d clips, %d:%02d:%02d, %.1f MB", clipCount,
+				seconds / 3600, seconds / 60 % 60, seconds % 60, totalBytes / 1e6);
+	}
+}
@@ -0,0 +1,235 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * DuplicateFinder finds sound clips whose files have exactly the same
+ * content, even though their names and paths differ.
+ *
+ * The search is done in stages, so that files are only read in full when
+ * there is a good chance they are duplicates:
+ * <ol>
+ * <li>clips are grouped by file size, which only needs the file attributes;</li>
+ * <li>clips of the same size are grouped by a hash of their first block,
+ * which holds the WAV header and the start of the audio;</li>
+ * <li>clips that still match are grouped by a hash of their whole content,
+ * read through memory mapped regions.</li>
+ * </ol>
+ * Each stage runs in parallel over all the clips that reach it.
+ */
+public class DuplicateFinder {
+
+	private static final int FIRST_BLOCK_SIZE = 64 * 1024;
+	private static final long REGION_SIZE = 64L * 1024 * 1024; // largest region mapped at once
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final ThreadLocal<ByteBuffer> BLOCKS = ThreadLocal.withInitial(
+			() -> ByteBuffer.allocateDirect(FIRST_BLOCK_SIZE));
+
+	private final int parallelism;
+
+	/**
+	 * Make a finder that uses as many threads as there are processors.
+	 */
+	public DuplicateFinder() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Make a finder with a given level of parallelism.
+	 * Requires parallelism > 0.
+	 */
+	public DuplicateFinder(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Finds the groups of sound clips with identical content.
+	 * Clips whose files cannot be read are left out.
+	 * @param clips the clips to search
+	 * @return the groups of duplicates, each with at least two clips,
+	 * ordered by the path of their first clip
+	 */
+	public List<Set<SoundClip>> findDuplicates(Collection<SoundClip> clips) {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			// Stage 1: file size
+			List<List<SoundClip>> groups = refine(executor, List.of(new ArrayList<>(clips)), DuplicateFinder::sizeOf);
+
+			// Stage 2: hash of the first block. Files that fit in the first
+			// block are then fully compared already.
+			groups = refine(executor, groups, DuplicateFinder::firstBlockKey);
+			List<List<SoundClip>> small = new ArrayList<>();
+			List<List<SoundClip>> large = new ArrayList<>();
+			for (List<SoundClip> group : groups) {
+				(sizeOf(group.get(0)) <= FIRST_BLOCK_SIZE ? small : large).add(group);
+			}
+
+			// Stage 3: hash of the whole content
+			small.addAll(refine(executor, large, DuplicateFinder::contentKey));
+
+			List<Set<SoundClip>> result = new ArrayList<>();
+			for (List<SoundClip> group : small) {
+				group.sort(Comparator.comparing(SoundClip::getFile));
+				result.add(new LinkedHashSet<>(group));
+			}
+			result.sort(Comparator.comparing(group -> group.iterator().next().getFile()));
+			return result;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the key of a clip for one stage. A null key means the
+	 * clip could not be read and is dropped.
+	 */
+	private interface KeyFunction {
+		Object keyOf(SoundClip clip) throws IOException;
+	}
+
+	// Splits every group into smaller groups of clips with equal keys, computing
+	// the keys in parallel. Groups of a single clip are dropped.
+	private List<List<SoundClip>> refine(ExecutorService executor, List<List<SoundClip>> groups, KeyFunction key) {
+		List<SoundClip> clips = new ArrayList<>();
+		for (List<SoundClip> group : groups) {
+			clips.addAll(group);
+		}
+		Object[] keys = computeKeys(executor, clips, key);
+
+		List<List<SoundClip>> refined = new ArrayList<>();
+		int start = 0;
+		for (List<SoundClip> group : groups) {
+			Map<Object, List<SoundClip>> byKey = new HashMap<>();
+			for (int i = 0; i < group.size(); i++) {
+				Object k = keys[start + i];
+				if (k != null) {
+					byKey.computeIfAbsent(k, x -> new ArrayList<>()).add(group.get(i));
+				}
+			}
+			start += group.size();
+			for (List<SoundClip> g : byKey.values()) {
+				if (g.size() > 1) refined.add(g);
+			}
+		}
+		return refined;
+	}
+
+	private Object[] computeKeys(ExecutorService executor, List<SoundClip> clips, KeyFunction key) {
+		Object[] keys = new Object[clips.size()];
+		int chunk = Math.max(1, (clips.size() + parallelism * 4 - 1) / (parallelism * 4));
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int from = 0; from < clips.size(); from += chunk) {
+			int start = from, end = Math.min(clips.size(), from + chunk);
+			tasks.add(() -> {
+				for (int i = start; i < end; i++) {
+					try {
+						keys[i] = key.keyOf(clips.get(i));
+					} catch (IOException e) {
+						keys[i] = null;
+					}
+				}
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while looking for duplicates", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed looking for duplicates", e.getCause());
+		}
+		return keys;
+	}
+
+	// The size the file has now. The size in the metadata is not used, as the
+	// file may have changed since, which would put duplicates in different groups.
+	private static Long sizeOf(SoundClip clip) {
+		try {
+			return Files.size(clip.getFile().toPath());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static Object firstBlockKey(SoundClip clip) throws IOException {
+		MessageDigest digest = newDigest();
+		try (FileChannel channel = FileChannel.open(clip.getFile().toPath(), StandardOpenOption.READ)) {
+			ByteBuffer block = BLOCKS.get();
+			block.clear();
+			while (block.hasRemaining() && channel.read(block, block.position()) >= 0) {
+				// keep reading until the block is full or the file ends
+			}
+			block.flip();
+			digest.update(block);
+		}
+		return new Digest(digest.digest());
+	}
+
+	private static Object contentKey(SoundClip clip) throws IOException {
+		MessageDigest digest = newDigest();
+		try (FileChannel channel = FileChannel.open(clip.getFile().toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += REGION_SIZE) {
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(REGION_SIZE, size - position));
+				digest.update(region);
+			}
+		}
+		return new Digest(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+		}
+	}
+
+	// A hash value that can be used as a map key
+	private static final class Digest {
+		private final byte[] bytes;
+
+		Digest(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Digest && Arrays.equals(((Digest) obj).bytes, bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(bytes);
+		}
+	}
+}
@@ -0,0 +1,710 @@
+package model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32C;
+
+/**
+ * HierarchyJournal keeps an album hierarchy saved while it changes. The
+ * hierarchy is saved to a base file now and then, see {@link HierarchyStore},
+ * and every change made since is appended to a journal next to it as a
+ * small record, so saving a change costs as much as the change rather than
+ * the whole hierarchy. Opening the base file replays its journal on top of it.
+ *
+ * Records are written by a background thread. The records appended while
+ * it writes go out together in its next write, followed by a single force
+ * to disk if the {@link FsyncPolicy} asks for one. Each record is framed
+ * with its length and checksum, so that a record torn by a crash is found
+ * and cut off when the journal is replayed.
+ *
+ * Once the journal has grown to half the size of the base file, it is
+ * folded into a new base file in the background, see {@link #compact()}.
+ * Each base file and journal has a generation in its header, which tells
+ * the journals the base file already holds from those it does not, so the
+ * files may be left at any point of a compaction.
+ */
+public class HierarchyJournal implements Closeable {
+
+	/** When the journal is forced to disk, besides when {@link #sync()} asks for it */
+	public enum FsyncPolicy {
+		/** After every write, so a change is on disk once the write it went out in is done */
+		ALWAYS,
+		/** At most once every {@link HierarchyJournal#SYNC_INTERVAL_MILLIS} */
+		INTERVAL,
+		/** Never, leaving it to the operating system */
+		NEVER
+	}
+
+	/** How long a change may wait to be forced to disk under {@link FsyncPolicy#INTERVAL} */
+	public static final long SYNC_INTERVAL_MILLIS = 1000;
+	private static final long COMPACT_CHECK_SECONDS = 30; // How often the size of the journal is checked
+	private static final long MIN_COMPACT_BYTES = 4L << 20; // The journal is not folded before it is this large
+	static final int MAGIC = 0x4D4F484A; // "MOHJ"
+	static final int VERSION = 1;
+	// Magic, version, generation, and generation of the journal before, or the same for the first
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+	private static final int FRAME_SIZE = 4 + 4; // Length and checksum of the record that follows
+	// Kinds of record
+	private static final int CLIP = 1, ALBUM_ADDED = 2, ALBUM_REMOVED = 3, ALBUM_MOVED = 4, ALBUM_RENAMED = 5,
+			CLIPS_ADDED = 6, CLIPS_REMOVED = 7, CLIPS_UPDATED = 8;
+
+	private final File file; // The base file
+	private final Album root;
+	private final FsyncPolicy policy;
+	private final Object compacting = new Object(); // Held while compacting, so one compaction runs at a time
+	private final Thread writer;
+	private final ScheduledExecutorService compactor;
+	// The fields below are guarded by this
+	private HierarchyStore.Output pending = new HierarchyStore.Output(); // Records not being written yet
+	private HierarchyStore.Output writing = new HierarchyStore.Output(); // Records being written
+	private FileChannel channel; // The journal appended to
+	private long generation; // Of that journal
+	// Bytes of that journal appended, written, forced to disk, and waited on to be forced
+	private long appended, written, synced, syncWanted;
+	private long lastSync; // When the journal was last forced, in milliseconds
+	private long baseBytes; // The size of the base file
+	private IOException failure; // Why writing the journal failed, or null
+	private boolean closed;
+
+	private HierarchyJournal(File file, Album root, FsyncPolicy policy, FileChannel channel, long generation,
+			long length) {
+		this.file = file;
+		this.root = root;
+		this.policy = policy;
+		this.channel = channel;
+		this.generation = generation;
+		appended = written = synced = syncWanted = length;
+		lastSync = System.currentTimeMillis();
+		baseBytes = file.length();
+		writer = new Thread(this::writeRecords, "HierarchyJournal");
+		writer.setDaemon(true);
+		compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "HierarchyJournal compactor");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Opens the hierarchy saved in file, with the changes in its journal, and
+	 * starts writing the changes made to it from now on. If there is no such
+	 * file, an empty hierarchy is saved to it. The hierarchy is opened
+	 * without reading it all, see {@link HierarchyStore#openHierarchy(File)}.
+	 *
+	 * A file saved with Java serialization, by the first version of the
+	 * Music Organizer, is left as it is. Its hierarchy is imported into the
+	 * file {@link #baseFile(File)} gives, once, and kept there from then on.
+	 * @param file the base file
+	 * @param policy when the journal is forced to disk
+	 */
+	public static HierarchyJournal open(File file, FsyncPolicy policy) throws IOException {
+		Album root;
+		MappedHierarchy source = null;
+		long baseGeneration;
+		File base = baseFile(file);
+		if (!base.equals(file)) {
+			if (!base.exists()) LegacyHierarchy.convert(file, base);
+			file = base;
+		}
+		if (file.exists()) {
+			source = MappedHierarchy.open(file);
+			root = HierarchyStore.openHierarchy(source);
+			baseGeneration = source.generation();
+		} else {
+			root = new Album();
+			baseGeneration = HierarchyStore.newGeneration();
+			HierarchyStore.write(HierarchyStore.snapshot(root), file, baseGeneration);
+		}
+
+		// The journal of the base file, followed by those started by
+		// compactions that did not get to write their base file
+		List<Segment> segments = segments(file);
+		Map<Long, Segment> byGeneration = new HashMap<>();
+		Map<Long, Segment> byPrevious = new HashMap<>();
+		for (Segment s : segments) {
+			byGeneration.put(s.generation, s);
+			if (s.previous != s.generation) byPrevious.put(s.previous, s);
+		}
+		List<Segment> chain = new ArrayList<>();
+		for (Segment s = byGeneration.get(baseGeneration); s != null && !chain.contains(s);
+				s = byPrevious.get(s.generation)) {
+			chain.add(s);
+		}
+		for (Segment s : segments) {
+			if (!chain.contains(s)) s.file.delete(); // Already in the base file
+		}
+
+		Lock lock = root.getTree().getLock().writeLock();
+		lock.lock();
+		try {
+			for (int i = 0; i < chain.size() - 1; i++) {
+				Segment s = chain.get(i);
+				if (s.replay(root, source) != s.length) throw damaged(s.file);
+			}
+			FileChannel channel;
+			long generation;
+			long length;
+			if (chain.isEmpty()) {
+				generation = baseGeneration;
+				channel = create(journalFile(file, generation), generation, generation);
+				length = HEADER_SIZE;
+			} else {
+				// A record torn by a crash is cut off the last journal
+				Segment last = chain.get(chain.size() - 1);
+				generation = last.generation;
+				length = last.replay(root, source);
+				channel = FileChannel.open(last.file.toPath(), StandardOpenOption.WRITE);
+				if (length < last.length) {
+					channel.truncate(length);
+					channel.force(false);
+				}
+			}
+			HierarchyJournal journal = new HierarchyJournal(file, root, policy, channel, generation, length);
+			root.getTree().setJournal(journal);
+			journal.writer.start();
+			journal.compactor.scheduleWithFixedDelay(journal::compactIfDue,
+					COMPACT_CHECK_SECONDS, COMPACT_CHECK_SECONDS, TimeUnit.SECONDS);
+			return journal;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return the root album of the hierarchy */
+	public Album getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the base file {@link #open(File, FsyncPolicy)} keeps the
+	 * hierarchy of file in: file itself, unless it was saved with Java
+	 * serialization
+	 */
+	public static File baseFile(File file) throws IOException {
+		return file.exists() && LegacyHierarchy.isLegacy(file) ? LegacyHierarchy.convertedFile(file) : file;
+	}
+
+	/** @return the base file of the hierarchy */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Waits until every change made so far has been forced to disk
+	 * @throws IOException if the journal could not be written
+	 */
+	public void sync() throws IOException {
+		synchronized (this) {
+			awaitSynced();
+			if (failure != null) throw failure;
+		}
+	}
+
+	/**
+	 * Saves the whole hierarchy to the base file, and starts a new, empty
+	 * journal. The hierarchy is copied, and the new journal started, under
+	 * the write lock of the hierarchy, which is let go before the base file
+	 * is written. If writing the journal has failed, this saves the changes
+	 * it lost.
+	 */
+	public void compact() throws IOException {
+		synchronized (compacting) {
+			long newGeneration = HierarchyStore.newGeneration();
+			File newFile = journalFile(file, newGeneration);
+			FileChannel newChannel = create(newFile, newGeneration, generation());
+			HierarchyStore.Snapshot snapshot;
+			FileChannel old;
+			Lock lock = root.getTree().getLock().writeLock();
+			lock.lock();
+			try {
+				synchronized (this) {
+					if (closed) {
+						newChannel.close();
+						newFile.delete();
+						return;
+					}
+					// Everything appended so far must be in the old journal, as the
+					// new base file may never be written
+					awaitSynced();
+					old = channel;
+					pending.clear(); // Not empty only if writing failed
+					channel = newChannel;
+					generation = newGeneration;
+					appended = written = synced = syncWanted = HEADER_SIZE;
+					failure = null;
+				}
+				snapshot = HierarchyStore.snapshot(root);
+			} finally {
+				lock.unlock();
+			}
+			old.close();
+			HierarchyStore.write(snapshot, file, newGeneration);
+			synchronized (this) {
+				baseBytes = file.length();
+			}
+			// The base file now holds the journals before
+			for (Segment s : segments(file)) {
+				if (s.generation != newGeneration) s.file.delete();
+			}
+		}
+	}
+
+	// Folds the journal into the base file once it has grown large enough,
+	// or if writing it has failed
+	private void compactIfDue() {
+		synchronized (this) {
+			if (failure == null && appended - HEADER_SIZE < Math.max(MIN_COMPACT_BYTES, baseBytes / 2)) return;
+		}
+		try {
+			compact();
+		} catch (IOException | UncheckedIOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops writing changes, once every change made so far has been forced
+	 * to disk. The journal is kept, and replayed when the base file is
+	 * opened again.
+	 */
+	@Override
+	public void close() throws IOException {
+		compactor.shutdown();
+		synchronized (compacting) {
+			if (root.getTree().getJournal() == this) {
+				root.getTree().setJournal(null);
+			}
+			IOException failed;
+			synchronized (this) {
+				if (closed) return;
+				awaitSynced();
+				failed = failure;
+				closed = true;
+				notifyAll();
+			}
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			channel.close();
+			if (failed != null) throw failed;
+		}
+	}
+
+	private synchronized long generation() {
+		return generation;
+	}
+
+	// Waits until everything appended has been forced to disk, or writing has failed
+	private void awaitSynced() throws IOException {
+		assert Thread.holdsLock(this);
+		while (failure == null && synced < appended) {
+			syncWanted = appended;
+			notifyAll();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the journal");
+			}
+		}
+	}
+
+	// Runs on the writer thread. Takes everything appended since its last
+	// write, writes it in one go, and forces it to disk if it is time to.
+	private void writeRecords() {
+		while (true) {
+			FileChannel ch;
+			long start, end;
+			boolean force;
+			synchronized (this) {
+				while (true) {
+					long now = System.currentTimeMillis();
+					boolean due = syncWanted > synced || policy == FsyncPolicy.ALWAYS
+							|| (policy == FsyncPolicy.INTERVAL && now - lastSync >= SYNC_INTERVAL_MILLIS);
+					if (failure == null && (appended > written || (synced < written && due))) {
+						force = due;
+						break;
+					}
+					if (closed) return;
+					try {
+						if (failure == null && synced < written && policy == FsyncPolicy.INTERVAL) {
+							wait(Math.max(1, lastSync + SYNC_INTERVAL_MILLIS - now));
+						} else {
+							wait();
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				HierarchyStore.Output taken = pending;
+				pending = writing;
+				writing = taken;
+				ch = channel;
+				start = written;
+				end = appended;
+			}
+			try {
+				ByteBuffer bytes = writing.written();
+				for (long at = start; bytes.hasRemaining(); ) {
+					at += ch.write(bytes, at);
+				}
+				if (force) {
+					ch.force(false);
+				}
+				synchronized (this) {
+					written = end;
+					if (force) {
+						synced = end;
+						lastSync = System.currentTimeMillis();
+					}
+					writing.clear();
+					notifyAll();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				synchronized (this) {
+					writing.clear();
+					failure = e;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	// A record, written to the journal by append
+	private interface Record {
+		void write(HierarchyStore.Output out) throws IOException;
+	}
+
+	// Frames the record, and hands it to the writer. Once writing has failed,
+	// records are dropped until the next compaction saves what they lost.
+	private synchronized void append(int kind, Record record) {
+		if (closed || failure != null) return;
+		int start = 0;
+		try {
+			start = pending.position();
+			pending.skip(FRAME_SIZE);
+			pending.putByte(kind);
+			record.write(pending);
+			ByteBuffer bytes = pending.written();
+			int length = bytes.limit() - start - FRAME_SIZE;
+			CRC32C crc = new CRC32C();
+			crc.update(bytes.position(start + FRAME_SIZE));
+			pending.putIntAt(start, length);
+			pending.putIntAt(start + 4, (int) crc.getValue());
+			appended += FRAME_SIZE + length;
+			notifyAll();
+		} catch (IOException e) {
+			e.printStackTrace();
+			pending.truncate(start);
+			failure = e;
+		}
+	}
+
+	// The changes, called by the albums and the registry of the hierarchy as
+	// they are made, under the write lock or, for new clips, the lock of the registry
+
+	void clipRegistered(int id, SoundClip clip) {
+		append(CLIP, out -> {
+			out.putVarInt(id);
+			out.putString(clip.getFile().getPath());
+			HierarchyStore.writeMetadata(out, clip.getMetadata());
+		});
+	}
+
+	// Writes the album with everything below it, which must not change meanwhile
+	void albumAdded(Album parent, Album album, int index) {
+		album.readSubtree();
+		append(ALBUM_ADDED, out -> {
+			out.putVarLong(parent.getId());
+			out.putVarInt(index);
+			writeAlbum(out, album);
+		});
+	}
+
+	private static void writeAlbum(HierarchyStore.Output out, Album album) throws IOException {
+		out.putVarLong(album.getId());
+		out.putString(album.toString());
+		if (album instanceof SmartAlbum) {
+			out.putByte(HierarchyStore.SMART);
+			HierarchyStore.writeRule(out, ((SmartAlbum) album).getRule());
+		} else {
+			out.putByte(HierarchyStore.PLAIN);
+		}
+		HierarchyStore.writeIds(out, album.clipsToSave().get().own);
+		List<Album> subAlbums = album.getSubAlbums();
+		out.putVarInt(subAlbums.size());
+		for (Album a : subAlbums) {
+			writeAlbum(out, a);
+		}
+	}
+
+	void albumRemoved(Album album) {
+		append(ALBUM_REMOVED, out -> out.putVarLong(album.getId()));
+	}
+
+	void albumMoved(Album album, Album newParent, int index) {
+		append(ALBUM_MOVED, out -> {
+			out.putVarLong(album.getId());
+			out.putVarLong(newParent.getId());
+			out.putVarInt(index);
+		});
+	}
+
+	void albumRenamed(Album album) {
+		append(ALBUM_RENAMED, out -> {
+			out.putVarLong(album.getId());
+			out.putString(album.toString());
+		});
+	}
+
+	void clipsAdded(Album album, ClipIdSet ids) {
+		append(CLIPS_ADDED, out -> {
+			out.putVarLong(album.getId());
+			HierarchyStore.writeIds(out, ids);
+		});
+	}
+
+	void clipsRemoved(Album album, ClipIdSet ids) {
+		append(CLIPS_REMOVED, out -> {
+			out.putVarLong(album.getId());
+			HierarchyStore.writeIds(out, ids);
+		});
+	}
+
+	// The metadata of the clips changed, and is written with them
+	void clipsUpdated(ClipIdSet ids) {
+		ClipRegistry registry = root.getClipRegistry();
+		append(CLIPS_UPDATED, out -> {
+			HierarchyStore.writeIds(out, ids);
+			for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+				HierarchyStore.writeMetadata(out, registry.get(it.nextInt()).getMetadata());
+			}
+		});
+	}
+
+	// Makes one change again, on the hierarchy of root, opened from source
+	// if it was opened from a file. Changes to albums no longer in the
+	// hierarchy are skipped, as the album is written whole when it is added
+	// back. The write lock must be held.
+	private static void apply(Album root, MappedHierarchy source, MappedHierarchy.Reader in) {
+		ClipRegistry registry = root.getClipRegistry();
+		switch (in.getByte()) {
+		case CLIP: {
+			int id = in.getCount();
+			SoundClip clip = new SoundClip(new File(in.getString()));
+			clip.setMetadata(in.getMetadata());
+			registry.replay(id, clip);
+			break;
+		}
+		case ALBUM_ADDED: {
+			Album parent = find(root, source, in.getVarLong());
+			int index = in.getCount();
+			if (parent != null) {
+				addAlbum(in, parent, index);
+			}
+			break;
+		}
+		case ALBUM_REMOVED: {
+			Album album = find(root, source, in.getVarLong());
+			if (album != null && album.getParentAlbum() != null) {
+				album.removeAlbum(album);
+			}
+			break;
+		}
+		case ALBUM_MOVED: {
+			Album album = find(root, source, in.getVarLong());
+			Album parent = find(root, source, in.getVarLong());
+			int index = in.getCount();
+			if (album != null && parent == null) {
+				album.removeAlbum(album); // Moved into an album taken out of the hierarchy
+			} else if (album != null) {
+				album.moveTo(parent, index);
+			}
+			break;
+		}
+		case ALBUM_RENAMED: {
+			Album album = find(root, source, in.getVarLong());
+			String name = in.getString();
+			if (album != null) {
+				album.rename(name);
+			}
+			break;
+		}
+		case CLIPS_ADDED: {
+			Album album = find(root, source, in.getVarLong());
+			ClipIdSet ids = in.getIds();
+			if (album != null) {
+				album.addOwn(ids);
+			}
+			break;
+		}
+		case CLIPS_REMOVED: {
+			Album album = find(root, source, in.getVarLong());
+			ClipIdSet ids = in.getIds();
+			if (album != null) {
+				album.removeOwn(ids);
+			}
+			break;
+		}
+		case CLIPS_UPDATED: {
+			ClipIdSet ids = in.getIds();
+			for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+				registry.get(it.nextInt()).setMetadata(in.getMetadata());
+			}
+			root.getTree().clipsUpdated(ids);
+			break;
+		}
+		default:
+			throw MappedHierarchy.damaged();
+		}
+	}
+
+	// Makes the album written by writeAlbum, and adds it to parent
+	private static void addAlbum(MappedHierarchy.Reader in, Album parent, int index) {
+		AlbumTree tree = parent.getTree();
+		long id = in.getVarLong();
+		String name = in.getString();
+		int kind = in.getByte();
+		if (tree.getAlbum(id) != null) throw MappedHierarchy.damaged();
+		Album album;
+		if (kind == HierarchyStore.SMART) {
+			album = new SmartAlbum(name, parent, in.getRule(), id);
+		} else if (kind == HierarchyStore.PLAIN) {
+			album = new Album(name, parent, id);
+		} else {
+			throw MappedHierarchy.damaged();
+		}
+		tree.restoreNextAlbumId(Math.max(tree.peekNextAlbumId(), id + 1));
+		parent.addAlbum(album, index);
+		album.addOwn(in.getIds());
+		int subAlbums = in.getCount();
+		for (int i = 0; i < subAlbums; i++) {
+			addAlbum(in, album, -1);
+		}
+	}
+
+	private static Album find(Album root, MappedHierarchy source, long id) {
+		return source != null ? source.find(root, id) : root.getTree().getAlbum(id);
+	}
+
+	// One journal file
+	private static final class Segment {
+		final File file;
+		final long generation;
+		final long previous; // The generation of the journal it follows, or its own if it is the first
+		final long length;
+
+		Segment(File file, long generation, long previous, long length) {
+			this.file = file;
+			this.generation = generation;
+			this.previous = previous;
+			this.length = length;
+		}
+
+		// Replays the records on the hierarchy of root, up to the first one
+		// that is torn, and returns where that one starts
+		long replay(Album root, MappedHierarchy source) throws IOException {
+			if (length > Integer.MAX_VALUE) throw damaged(file);
+			ByteBuffer bytes = ByteBuffer.allocate((int) length);
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				}
+			}
+			bytes.flip();
+			int at = HEADER_SIZE;
+			CRC32C crc = new CRC32C();
+			while (bytes.limit() - at >= FRAME_SIZE) {
+				int recordLength = bytes.getInt(at);
+				if (recordLength <= 0 || recordLength > bytes.limit() - at - FRAME_SIZE) break;
+				crc.reset();
+				crc.update(bytes.duplicate().position(at + FRAME_SIZE).limit(at + FRAME_SIZE + recordLength));
+				if ((int) crc.getValue() != bytes.getInt(at + 4)) break;
+				MappedHierarchy.Reader in = new MappedHierarchy.Reader(bytes, at + FRAME_SIZE,
+						root.getClipRegistry().size());
+				try {
+					apply(root, source, in);
+				} catch (UncheckedIOException | IndexOutOfBoundsException | IllegalArgumentException e) {
+					throw damaged(file);
+				}
+				if (in.position() != at + FRAME_SIZE + recordLength) throw damaged(file);
+				at += FRAME_SIZE + recordLength;
+			}
+			return at;
+		}
+	}
+
+	// The journals of the base file, the headers of which can be read
+	private static List<Segment> segments(File file) {
+		List<Segment> segments = new ArrayList<>();
+		File folder = file.getAbsoluteFile().getParentFile();
+		String prefix = file.getName() + ".";
+		File[] files = folder != null ? folder.listFiles() : null;
+		if (files == null) return segments;
+		for (File f : files) {
+			String name = f.getName();
+			if (!name.startsWith(prefix) || !name.endsWith(".journal")) continue;
+			try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				while (header.hasRemaining() && channel.read(header) >= 0) {
+				}
+				header.flip();
+				if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					f.delete(); // Torn as it was started, before it got any records
+					continue;
+				}
+				long generation = header.getLong(8);
+				if (f.getName().equals(journalFile(file, generation).getName())) {
+					segments.add(new Segment(f, generation, header.getLong(16), channel.size()));
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return segments;
+	}
+
+	private static File journalFile(File file, long generation) {
+		return new File(file.getPath() + "." + Long.toHexString(generation) + ".journal");
+	}
+
+	// Starts a journal with the given generation, following the journal of generation previous
+	private static FileChannel create(File journal, long generation, long previous) throws IOException {
+		FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(generation).putLong(previous);
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			channel.force(true);
+			return channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static IOException damaged(File journal) {
+		return new IOException("The journal is damaged: " + journal);
+	}
+}
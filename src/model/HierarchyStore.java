@@ -0,0 +1,649 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * HierarchyStore saves album hierarchies to files and loads them back.
+ * It has no user interface, so it can also be used without JavaFX.
+ *
+ * The file is a versioned binary format, written through a buffered
+ * FileChannel:
+ * <ul>
+ * <li>the folder table: the distinct folders of the clips</li>
+ * <li>the clip table: every clip of the {@link ClipRegistry} in id order,
+ * as the index of its folder, its file name and its metadata, so that
+ * every clip keeps its id</li>
+ * <li>the albums in breadth-first order, so that the sub-albums of an
+ * album are next to each other, each with its name, the rule of a smart
+ * album, the ids of the clips added to the album itself and of all its
+ * clips, as varint gaps or as a bitmap, whichever is smaller, and the
+ * number of sub-albums holding each clip</li>
+ * <li>the path index: a hash table of the clips by file, each slot
+ * holding the hash code of a clip and its id, so that the id of a clip
+ * can be found without reading the clip table</li>
+ * </ul>
+ * Each table is followed by the position of each of its entries, and the
+ * header says where these indexes are, so that an album or clip can be read
+ * on its own, see {@link #openHierarchy(File)}. Numbers are stored as
+ * varints unless noted. The header also holds the generation of the file,
+ * which tells {@link HierarchyJournal} which journals the file holds.
+ */
+public class HierarchyStore {
+
+	static final int MAGIC = 0x4D4F4846; // "MOHF"
+	static final int VERSION = 4;
+	// Magic, version, clip, folder, album and smart album counts, next album id,
+	// the positions of the folder, clip, album and smart album indexes, the
+	// generation, which version 2 did not have, and the position and number
+	// of slots of the path index, which version 3 did not have
+	static final int HEADER_SIZE = 6 * 4 + 8 + 4 * 4 + 8 + 2 * 4;
+	static final int HEADER_SIZE_V3 = HEADER_SIZE - 2 * 4;
+	static final int HEADER_SIZE_V2 = HEADER_SIZE_V3 - 8;
+	static final int PATH_SLOT_SIZE = 4 + 4; // Hash code and id, -1 for an empty slot
+	// Id, parent, first sub-album, number of sub-albums and position of the record
+	static final int ALBUM_ENTRY_SIZE = 8 + 4 * 4;
+	static final int PLAIN = 0, SMART = 1; // Kinds of album
+	static final int GAPS = 0, BITMAP = 1; // Encodings of id sets
+	static final int NAME = 1, FOLDER = 2, METADATA = 4; // Conditions of a rule
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Saves the hierarchy below root to file. The hierarchy is copied
+	 * under its lock, which is let go before the file is written. The file
+	 * is written next to its old version and then put in its place, so a
+	 * hierarchy opened from the old version can still read it.
+	 * @param root the root album of the hierarchy
+	 * @param file the file to write
+	 */
+	public static void saveHierarchy(Album root, File file) throws IOException {
+		Snapshot snapshot;
+		Lock lock = root.getTree().getLock().readLock();
+		lock.lock();
+		try {
+			snapshot = snapshot(root);
+		} finally {
+			lock.unlock();
+		}
+		write(snapshot, file, newGeneration());
+	}
+
+	// A generation no journal has been written for, see HierarchyJournal
+	static long newGeneration() {
+		long generation;
+		do {
+			generation = ThreadLocalRandom.current().nextLong();
+		} while (generation == 0);
+		return generation;
+	}
+
+	// Copies what is saved of the hierarchy below root. The lock must be held.
+	static Snapshot snapshot(Album root) {
+		AlbumTree tree = root.getTree();
+		return new Snapshot(tree.getClipRegistry(), tree.getClipRegistry().size(), tree.peekNextAlbumId(),
+				collect(root));
+	}
+
+	// Writes snapshot to file, through a temporary file that is forced to disk
+	// and then put in its place in one step, so that the file is whole
+	// whatever happens. generation ties the file to the journal written after it.
+	static void write(Snapshot snapshot, File file, long generation) throws IOException {
+		List<AlbumRecord> albums = snapshot.albums;
+		int clipCount = snapshot.clipCount;
+		File temp = new File(file.getPath() + ".tmp");
+		try (Output out = new Output(temp)) {
+			out.skip(HEADER_SIZE);
+			int[] folderCount = new int[1];
+			int[] clipIndexAt = new int[1];
+			int[] hashes = new int[clipCount];
+			int folderIndexAt = writeClips(out, snapshot.registry, clipCount, folderCount, clipIndexAt, hashes);
+			int pathIndexAt = out.position();
+			int pathSlots = writePathIndex(out, hashes);
+			int albumIndexAt = writeAlbums(out, albums);
+			int smartIndexAt = out.position();
+			int smartCount = 0;
+			for (int i = 0; i < albums.size(); i++) {
+				if (albums.get(i).smart) {
+					out.putInt(i);
+					smartCount++;
+				}
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(clipCount).putInt(folderCount[0])
+					.putInt(albums.size()).putInt(smartCount).putLong(snapshot.nextAlbumId)
+					.putInt(folderIndexAt).putInt(clipIndexAt[0]).putInt(albumIndexAt).putInt(smartIndexAt)
+					.putLong(generation).putInt(pathIndexAt).putInt(pathSlots);
+			header.flip();
+			out.putAt(header, 0);
+			out.force();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// What is saved of a hierarchy, copied under its lock
+	static final class Snapshot {
+		final ClipRegistry registry; // Only added to, so the clips below clipCount can be read later
+		final int clipCount;
+		final long nextAlbumId;
+		final List<AlbumRecord> albums;
+
+		Snapshot(ClipRegistry registry, int clipCount, long nextAlbumId, List<AlbumRecord> albums) {
+			this.registry = registry;
+			this.clipCount = clipCount;
+			this.nextAlbumId = nextAlbumId;
+			this.albums = albums;
+		}
+	}
+
+	/**
+	 * Loads a hierarchy saved by {@link #saveHierarchy(Album, File)}, reading
+	 * the whole file
+	 * @param file the file to read
+	 * @return the root album of the hierarchy
+	 */
+	public static Album loadHierarchy(File file) throws IOException {
+		Album root = openHierarchy(file);
+		try {
+			root.readSubtree();
+			root.getClipRegistry().readAll();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return root;
+	}
+
+	/**
+	 * Opens a hierarchy saved by {@link #saveHierarchy(Album, File)} without
+	 * reading it all. Only the root album and the smart albums, with the
+	 * albums leading to them, are made now. Every other album reads its
+	 * sub-albums, and separately its clips, from the file when they are
+	 * first needed, and the clips themselves are read as they are looked up
+	 * by id, see {@link ClipRegistry}. So opening takes the same time
+	 * however many clips and albums there are, smart albums aside, and only
+	 * what is looked at is kept in memory.
+	 *
+	 * The file is memory-mapped, and must not be changed while the
+	 * hierarchy is in use. Damage found in the file after it has been
+	 * opened is thrown as an {@link UncheckedIOException}.
+	 * @param file the file to read
+	 * @return the root album of the hierarchy
+	 */
+	public static Album openHierarchy(File file) throws IOException {
+		if (LegacyHierarchy.isLegacy(file)) {
+			return LegacyHierarchy.read(file); // Saved with Java serialization, by the first version
+		}
+		return openHierarchy(MappedHierarchy.open(file));
+	}
+
+	static Album openHierarchy(MappedHierarchy source) throws IOException {
+		try {
+			Album root = source.readRoot();
+			// Smart albums must be in the index to be kept up to date
+			for (int index : source.smartAlbums()) {
+				source.find(root, index);
+			}
+			return root;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// The albums below root in breadth-first order, with what each holds.
+	// Sub-albums that have not been read from a file yet, nor have the albums
+	// below them, so they are copied from the file as they are.
+	private static List<AlbumRecord> collect(Album root) {
+		List<AlbumRecord> albums = new ArrayList<>();
+		albums.add(new AlbumRecord(root, -1));
+		for (int i = 0; i < albums.size(); i++) {
+			AlbumRecord record = albums.get(i);
+			record.firstSubAlbum = albums.size();
+			MappedHierarchy source = record.album != null ? record.album.subAlbumsSource() : record.source;
+			if (source != null) {
+				int index = record.album != null ? record.album.sourceIndex() : record.sourceIndex;
+				int first = source.firstSubAlbum(index);
+				for (int s = first; s < first + source.subAlbumCount(index); s++) {
+					albums.add(new AlbumRecord(source, s, i));
+				}
+			} else {
+				for (Album a : record.album.getSubAlbums()) {
+					albums.add(new AlbumRecord(a, i));
+				}
+			}
+			record.subAlbumCount = albums.size() - record.firstSubAlbum;
+		}
+		return albums;
+	}
+
+	static final class AlbumRecord {
+		final Album album; // null for an album copied from a file
+		final MappedHierarchy source; // The file an album is copied from, or null
+		final int sourceIndex; // The position of the album in source
+		final int parent; // Position of the parent in the list, -1 for the root
+		final long id;
+		final boolean smart;
+		final String name;
+		final Supplier<Album.Clips> clips;
+		int firstSubAlbum; // Position of the first sub-album in the list
+		int subAlbumCount;
+
+		AlbumRecord(Album album, int parent) {
+			this.album = album;
+			this.source = null;
+			this.sourceIndex = -1;
+			this.parent = parent;
+			this.id = album.getId();
+			this.smart = album instanceof SmartAlbum;
+			this.name = album.toString();
+			this.clips = album.clipsToSave();
+		}
+
+		AlbumRecord(MappedHierarchy source, int sourceIndex, int parent) {
+			this.album = null;
+			this.source = source;
+			this.sourceIndex = sourceIndex;
+			this.parent = parent;
+			this.id = source.albumId(sourceIndex);
+			this.smart = source.isSmart(sourceIndex);
+			this.name = null;
+			this.clips = null;
+		}
+	}
+
+	// Writes the folder table and the clip table, each followed by its index,
+	// and returns the position of the folder index. The hash codes of the
+	// clips are put in hashes, by id.
+	private static int writeClips(Output out, ClipRegistry registry, int count, int[] folderCount,
+			int[] clipIndexAt, int[] hashes) throws IOException {
+		// Clips of one folder tend to have ids next to each other, so the
+		// folder of the clip before is tried before looking the folder up
+		Map<String, Integer> folderIndex = new HashMap<>();
+		List<String> folders = new ArrayList<>();
+		int[] folderOf = new int[count];
+		int[] nameStart = new int[count]; // Where the file name starts in the path
+		String previous = null;
+		int previousIndex = 0;
+		for (int id = 0; id < count; id++) {
+			SoundClip clip = registry.peek(id);
+			hashes[id] = clip.hashCode();
+			File file = clip.getFile();
+			String path = file.getPath();
+			int slash = path.lastIndexOf(File.separatorChar);
+			if (previous != null && slash == previous.length() && path.startsWith(previous)) {
+				folderOf[id] = previousIndex;
+				nameStart[id] = slash + 1;
+				continue;
+			}
+			String folder = file.getParent();
+			if (folder == null) folder = "";
+			Integer index = folderIndex.get(folder);
+			if (index == null) {
+				index = folders.size();
+				folderIndex.put(folder, index);
+				folders.add(folder);
+			}
+			folderOf[id] = index;
+			int start = folder.length();
+			nameStart[id] = start < path.length() && path.charAt(start) == File.separatorChar ? start + 1 : start;
+			previous = folder;
+			previousIndex = index;
+		}
+
+		// The positions of the entries, which the index after each table holds
+		int[] at = new int[Math.max(folders.size(), count)];
+		for (int i = 0; i < folders.size(); i++) {
+			at[i] = out.position();
+			out.putString(folders.get(i));
+		}
+		int folderIndexAt = out.position();
+		for (int i = 0; i < folders.size(); i++) {
+			out.putInt(at[i]);
+		}
+		folderCount[0] = folders.size();
+
+		for (int id = 0; id < count; id++) {
+			at[id] = out.position();
+			SoundClip clip = registry.peek(id);
+			out.putVarInt(folderOf[id]);
+			out.putString(clip.getFile().getPath(), nameStart[id]);
+			writeMetadata(out, clip.getMetadata());
+		}
+		clipIndexAt[0] = out.position();
+		for (int id = 0; id < count; id++) {
+			out.putInt(at[id]);
+		}
+		return folderIndexAt;
+	}
+
+	// Writes the path index of the clips with the given hash codes, with
+	// linear probing and at most half the slots taken, and returns the
+	// number of slots
+	private static int writePathIndex(Output out, int[] hashes) throws IOException {
+		int slots = hashes.length == 0 ? 0 : Integer.highestOneBit(hashes.length) * 4;
+		int[] table = new int[slots * 2];
+		for (int slot = 0; slot < slots; slot++) {
+			table[slot * 2 + 1] = -1;
+		}
+		for (int id = 0; id < hashes.length; id++) {
+			int slot = firstSlot(hashes[id], slots);
+			while (table[slot * 2 + 1] >= 0) {
+				slot = (slot + 1) & (slots - 1);
+			}
+			table[slot * 2] = hashes[id];
+			table[slot * 2 + 1] = id;
+		}
+		for (int value : table) {
+			out.putInt(value);
+		}
+		return slots;
+	}
+
+	// The slot of the path index a clip with the given hash code is looked for from
+	static int firstSlot(int hash, int slots) {
+		return (hash ^ (hash >>> 16)) & (slots - 1);
+	}
+
+	// Writes the album records followed by the album index, and returns the
+	// position of the index
+	private static int writeAlbums(Output out, List<AlbumRecord> albums) throws IOException {
+		int[] at = new int[albums.size()];
+		for (int i = 0; i < albums.size(); i++) {
+			AlbumRecord record = albums.get(i);
+			at[i] = out.position();
+			if (record.album == null) {
+				out.put(record.source.record(record.sourceIndex));
+				continue;
+			}
+			out.putString(record.name);
+			if (record.album instanceof SmartAlbum) {
+				out.putByte(SMART);
+				writeRule(out, ((SmartAlbum) record.album).getRule());
+			} else {
+				out.putByte(PLAIN);
+			}
+			Album.Clips clips = record.clips.get();
+			writeIds(out, clips.own);
+			writeIds(out, clips.all);
+			int[] refs = new int[clips.extraRefs.size() * 2];
+			int[] n = {0};
+			clips.extraRefs.forEach((id, count) -> {
+				refs[n[0]++] = id;
+				refs[n[0]++] = count;
+			});
+			out.putVarInt(clips.extraRefs.size());
+			for (int r : refs) {
+				out.putVarInt(r);
+			}
+		}
+		int albumIndexAt = out.position();
+		for (int i = 0; i < albums.size(); i++) {
+			AlbumRecord record = albums.get(i);
+			out.putLong(record.id);
+			out.putInt(record.parent);
+			out.putInt(record.firstSubAlbum);
+			out.putInt(record.subAlbumCount);
+			out.putInt(at[i]);
+		}
+		return albumIndexAt;
+	}
+
+	// Writes whether there is any metadata, and the metadata if so
+	static void writeMetadata(Output out, WavMetadata m) throws IOException {
+		if (m == null) {
+			out.putByte(0);
+		} else {
+			out.putByte(1);
+			out.putVarInt(m.getAudioFormat());
+			out.putVarInt(m.getChannels());
+			out.putVarInt(m.getSampleRate());
+			out.putVarInt(m.getByteRate());
+			out.putVarInt(m.getBitsPerSample());
+			out.putVarLong(m.getDataOffset());
+			out.putVarLong(m.getDataLength());
+			out.putVarLong(m.getFileSize());
+			out.putVarLong(m.getLastModified());
+		}
+	}
+
+	static void writeRule(Output out, ClipRule rule) throws IOException {
+		ClipFilter filter = rule.metadataFilter();
+		int conditions = (rule.namePattern() != null ? NAME : 0) | (rule.folder() != null ? FOLDER : 0)
+				| (filter != null ? METADATA : 0);
+		out.putByte(conditions);
+		if (rule.namePattern() != null) out.putString(rule.namePattern());
+		if (rule.folder() != null) out.putString(rule.folder());
+		if (filter != null) {
+			for (int c = 0; c < filter.intMin.length; c++) {
+				out.putInt(filter.intMin[c]);
+				out.putInt(filter.intMax[c]);
+			}
+			for (int c = 0; c < filter.longMin.length; c++) {
+				out.putLong(filter.longMin[c]);
+				out.putLong(filter.longMax[c]);
+			}
+		}
+	}
+
+	// Writes the set as the gaps between its ids or as a bitmap, whichever is smaller
+	static void writeIds(Output out, ClipIdSet ids) throws IOException {
+		long gapBytes = 0;
+		int previous = -1;
+		for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+			int id = it.nextInt();
+			gapBytes += varIntSize(id - previous);
+			previous = id;
+		}
+		int words = previous < 0 ? 0 : (previous >>> 6) + 1;
+		if (gapBytes <= words * 8L) {
+			out.putByte(GAPS);
+			out.putVarInt(ids.size());
+			previous = -1;
+			for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+				int id = it.nextInt();
+				out.putVarInt(id - previous);
+				previous = id;
+			}
+		} else {
+			out.putByte(BITMAP);
+			long[] bitmap = ids.toBitmap();
+			out.putVarInt(words);
+			for (int w = 0; w < words; w++) {
+				out.putLong(bitmap[w]);
+			}
+		}
+	}
+
+	private static int varIntSize(int value) {
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	static IOException corrupt() {
+		return new IOException("The hierarchy file is damaged");
+	}
+
+	// Writes numbers and strings to a file through a buffer, or to memory
+	static final class Output implements AutoCloseable {
+		private final FileChannel channel; // null if writing to memory
+		private ByteBuffer buffer;
+		private long flushed; // Bytes written to the channel so far
+
+		Output(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+
+		// Writes to a buffer that grows as needed
+		Output() {
+			channel = null;
+			buffer = ByteBuffer.allocate(256);
+		}
+
+		// The position in the file of the next byte written. The file is
+		// read through a single mapping, so it must stay below 2 GB.
+		int position() throws IOException {
+			long position = flushed + buffer.position();
+			if (position > Integer.MAX_VALUE) throw new IOException("The hierarchy is too large to save");
+			return (int) position;
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) return;
+			if (channel != null) {
+				flush();
+			} else {
+				long capacity = Math.max(buffer.capacity() * 2L, buffer.position() + (long) bytes);
+				if (capacity > Integer.MAX_VALUE) throw new IOException("Too much to write at once");
+				ByteBuffer larger = ByteBuffer.allocate((int) capacity);
+				buffer.flip();
+				buffer = larger.put(buffer);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				flushed += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		// Forces what has been written to the file to disk
+		void force() throws IOException {
+			flush();
+			channel.force(false);
+		}
+
+		// What has been written to memory, to read until the next change
+		ByteBuffer written() {
+			return buffer.duplicate().flip();
+		}
+
+		// Forgets what has been written to memory
+		void clear() {
+			buffer.clear();
+		}
+
+		// Forgets what has been written to memory from position on
+		void truncate(int position) {
+			buffer.position(position);
+		}
+
+		// Writes value over what has been written to memory at position
+		void putIntAt(int position, int value) {
+			buffer.putInt(position, value);
+		}
+
+		void skip(int bytes) throws IOException {
+			ensure(bytes);
+			buffer.position(buffer.position() + bytes);
+		}
+
+		// Writes bytes over what has been written at position
+		void putAt(ByteBuffer bytes, long position) throws IOException {
+			flush();
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+		}
+
+		// Writes what remains of bytes
+		void put(ByteBuffer bytes) throws IOException {
+			while (bytes.hasRemaining()) {
+				ensure(Math.min(bytes.remaining(), BUFFER_SIZE));
+				ByteBuffer part = bytes.duplicate();
+				part.limit(part.position() + Math.min(bytes.remaining(), buffer.remaining()));
+				buffer.put(part);
+				bytes.position(part.position());
+			}
+		}
+
+		void putByte(int value) throws IOException {
+			ensure(1);
+			buffer.put((byte) value);
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buffer.putInt(value);
+		}
+
+		void putLong(long value) throws IOException {
+			ensure(8);
+			buffer.putLong(value);
+		}
+
+		void putVarInt(int value) throws IOException {
+			putVarLong(value & 0xFFFFFFFFL);
+		}
+
+		// Seven bits at a time, lowest first, with the top bit set on all but the last byte
+		void putVarLong(long value) throws IOException {
+			ensure(10);
+			byte[] bytes = buffer.array();
+			int at = buffer.position();
+			while ((value & ~0x7FL) != 0) {
+				bytes[at++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[at++] = (byte) value;
+			buffer.position(at);
+		}
+
+		void putString(String s) throws IOException {
+			putString(s, 0);
+		}
+
+		// Writes s from start on as UTF-8, straight into the buffer when it is all ASCII
+		void putString(String s, int start) throws IOException {
+			int length = s.length() - start;
+			if (length < 0x80 && length <= buffer.remaining() - 1) {
+				byte[] bytes = buffer.array();
+				int at = buffer.position();
+				bytes[at++] = (byte) length;
+				int i = start;
+				for (char c; i < s.length() && (c = s.charAt(i)) < 0x80; i++) {
+					bytes[at++] = (byte) c;
+				}
+				if (i == s.length()) {
+					buffer.position(at);
+					return;
+				}
+			}
+			byte[] bytes = s.substring(start).getBytes(StandardCharsets.UTF_8);
+			if (channel != null && bytes.length > BUFFER_SIZE - 10) throw new IOException("Name too long: " + s);
+			putVarInt(bytes.length);
+			ensure(bytes.length);
+			buffer.put(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (channel == null) return;
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
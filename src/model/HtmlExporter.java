@@ -0,0 +1,267 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * HtmlExporter writes album hierarchies as HTML pages, using a template
+ * with $title and $list placeholders. It has no user interface, so it can
+ * also be used without JavaFX.
+ *
+ * The page is streamed to the file as it is made. The sound clips of the
+ * albums are turned into HTML a run at a time on the common fork/join
+ * pool, a bounded number of runs ahead of the writer, which writes them
+ * in order. So exporting takes as much memory however large the hierarchy
+ * is. Templates are read once, and again only when they change. Names are
+ * escaped as they are written.
+ *
+ * Unless asked to, the exporter writes the clips by name only, as the
+ * first versions of the Music Organizer did.
+ */
+public class HtmlExporter implements AlbumExporter {
+
+	/** The template used unless another one is given */
+	public static final File DEFAULT_TEMPLATE = new File("HTMLTemplate/template.html");
+
+	private static final String TITLE = "$title", LIST = "$list";
+	private static final int RUN_SIZE = 4096; // The number of sound clips turned into HTML by one task
+	// The number of runs made ahead of the writer
+	private static final int RUNS_AHEAD = 4 * ForkJoinPool.getCommonPoolParallelism();
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Map<File, Template> templates = new ConcurrentHashMap<>(); // Read so far, by file
+
+	private final boolean withMetadata;
+
+	/** Make an exporter writing the clips by name only */
+	public HtmlExporter() {
+		this(false);
+	}
+
+	/** Make an exporter that writes the format of each clip after its name if withMetadata holds */
+	public HtmlExporter(boolean withMetadata) {
+		this.withMetadata = withMetadata;
+	}
+
+	@Override
+	public String getName() {
+		return "HTML";
+	}
+
+	@Override
+	public String getExtension() {
+		return "html";
+	}
+
+	/** Creates an HTML file from the album hierarchy, with the default template */
+	@Override
+	public void export(Album album, File file) throws IOException {
+		createHTML(album, DEFAULT_TEMPLATE, file, withMetadata);
+	}
+
+	/**
+	 * Creates an HTML file from the album hierarchy
+	 * @param album the album whose hierarchy is written
+	 * @param template the template file
+	 * @param file the file to write
+	 */
+	public static void createHTML(Album album, File template, File file) throws IOException {
+		createHTML(album, template, file, false);
+	}
+
+	/**
+	 * Creates an HTML file from the album hierarchy
+	 * @param album the album whose hierarchy is written
+	 * @param template the template file
+	 * @param file the file to write
+	 * @param withMetadata whether the format of each clip whose metadata is known follows its name
+	 */
+	public static void createHTML(Album album, File template, File file, boolean withMetadata) throws IOException {
+		Template t = template(template);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(),
+						BUFFER_SIZE), BUFFER_SIZE)) {
+			for (String part : t.parts) {
+				if (part == TITLE) {
+					writeEscaped(out, "Music Organizer");
+				} else if (part == LIST) {
+					writeAlbumHTML(album, out, withMetadata);
+				} else {
+					out.write(part);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an HTML representation of the album hierarchy
+	 * @param album
+	 * @return the HTML representation of the album hierarchy
+	 */
+	public static String createAlbumHTML(Album album){
+		StringWriter out = new StringWriter();
+		try {
+			writeAlbumHTML(album, out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Not thrown by a StringWriter
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes an HTML representation of the album hierarchy to out: a list
+	 * holding each sub-album, followed by its own list, and each SoundClip
+	 * @param album
+	 * @param out where the HTML is written
+	 */
+	public static void writeAlbumHTML(Album album, Writer out) throws IOException {
+		writeAlbumHTML(album, out, false);
+	}
+
+	/**
+	 * Same as {@link #writeAlbumHTML(Album, Writer)}, with the format of each
+	 * clip whose metadata is known after its name if withMetadata holds
+	 */
+	public static void writeAlbumHTML(Album album, Writer out, boolean withMetadata) throws IOException {
+		Deque<CompletableFuture<String>> ahead = new ArrayDeque<>();
+		try {
+			StringBuilder text = new StringBuilder();
+			addAlbum(album, text, ahead, out, withMetadata);
+			ahead.add(CompletableFuture.completedFuture(text.toString()));
+			while (!ahead.isEmpty()) {
+				out.write(take(ahead));
+			}
+		} finally {
+			for (CompletableFuture<String> run : ahead) {
+				run.cancel(false);
+			}
+		}
+	}
+
+	// Adds the HTML of album to text, handing the runs of clips to the pool.
+	// Whenever too many runs are ahead, the first is written to out.
+	private static void addAlbum(Album album, StringBuilder text, Deque<CompletableFuture<String>> ahead,
+			Writer out, boolean withMetadata) throws IOException {
+		text.append("<ul>"); // start of the list
+		for (Album subAlbum : album.getSubAlbums()) {
+			text.append("<li><b>"); // add a list item for every subAlbum
+			appendEscaped(text, subAlbum.toString());
+			text.append("</b></li>");
+			addAlbum(subAlbum, text, ahead, out, withMetadata); // add the subAlbum's subAlbums
+		}
+		List<SoundClip> clips = album.getSoundClipList();
+		for (int from = 0; from < clips.size(); from += RUN_SIZE) {
+			int start = from;
+			int end = Math.min(clips.size(), from + RUN_SIZE);
+			ahead.add(CompletableFuture.completedFuture(text.toString()));
+			text.setLength(0);
+			ahead.add(CompletableFuture.supplyAsync(() -> clipsHTML(clips, start, end, withMetadata)));
+			while (ahead.size() > 2 * RUNS_AHEAD) { // Each run comes after the text before it
+				out.write(take(ahead));
+			}
+		}
+		text.append("</ul>"); // end of the list
+	}
+
+	// The list items of the clips from start to end
+	private static String clipsHTML(List<SoundClip> clips, int start, int end, boolean withMetadata) {
+		StringBuilder html = new StringBuilder((end - start) * 64);
+		for (int i = start; i < end; i++) {
+			SoundClip clip = clips.get(i);
+			html.append("<li>"); // add a list item for every SoundClip
+			appendEscaped(html, clip.toString());
+			if (withMetadata && clip.getMetadata() != null) {
+				html.append(" (").append(clip.getMetadata()).append(')'); // with its format when it is known
+			}
+			html.append("</li>");
+		}
+		return html.toString();
+	}
+
+	private static String take(Deque<CompletableFuture<String>> ahead) throws IOException {
+		try {
+			return ahead.poll().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static void appendEscaped(StringBuilder html, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '<': html.append("&lt;"); break;
+			case '>': html.append("&gt;"); break;
+			case '&': html.append("&amp;"); break;
+			case '"': html.append("&quot;"); break;
+			case '\'': html.append("&#39;"); break;
+			default: html.append(c);
+			}
+		}
+	}
+
+	private static void writeEscaped(Writer out, String s) throws IOException {
+		StringBuilder html = new StringBuilder(s.length() + 16);
+		appendEscaped(html, s);
+		out.append(html);
+	}
+
+	// The template read from file, read again only if the file has changed
+	private static Template template(File file) throws IOException {
+		File key = file.getAbsoluteFile();
+		Template t = templates.get(key);
+		if (t == null || t.modified != file.lastModified() || t.length != file.length()) {
+			t = new Template(file);
+			templates.put(key, t);
+		}
+		return t;
+	}
+
+	// A template split at its placeholders
+	private static final class Template {
+		final long modified;
+		final long length;
+		// The text between the placeholders, and the placeholders, which are
+		// the TITLE and LIST strings themselves so that they are told apart by identity
+		final List<String> parts = new ArrayList<>();
+
+		Template(File file) throws IOException {
+			modified = file.lastModified();
+			length = file.length();
+			String html = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			int from = 0;
+			while (true) {
+				int title = html.indexOf(TITLE, from);
+				int list = html.indexOf(LIST, from);
+				int at = title < 0 ? list : list < 0 ? title : Math.min(title, list);
+				if (at < 0) break;
+				parts.add(html.substring(from, at));
+				String placeholder = at == title ? TITLE : LIST;
+				parts.add(placeholder);
+				from = at + placeholder.length();
+			}
+			parts.add(html.substring(from));
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * IntCountMap maps non-negative int keys to positive counts. Keys whose
+ * count drops to zero are removed. It is an open addressing hash table
+ * over two int arrays, so it needs no object per entry.
+ */
+final class IntCountMap {
+
+	private static final int FREE = -1;
+
+	private int[] keys = newKeys(8);
+	private int[] counts = new int[8];
+	private int size;
+
+	/** @return the count of key, 0 if it has none */
+	int get(int key) {
+		int slot = find(key);
+		return keys[slot] == key ? counts[slot] : 0;
+	}
+
+	/** Adds one to the count of key */
+	void increment(int key) {
+		int slot = find(key);
+		if (keys[slot] == key) {
+			counts[slot]++;
+			return;
+		}
+		keys[slot] = key;
+		counts[slot] = 1;
+		if (++size * 2 > keys.length) resize(keys.length * 2);
+	}
+
+	/** Adds count, which must be positive, to the count of key */
+	void add(int key, int count) {
+		int slot = find(key);
+		if (keys[slot] == key) {
+			counts[slot] += count;
+			return;
+		}
+		keys[slot] = key;
+		counts[slot] = count;
+		if (++size * 2 > keys.length) resize(keys.length * 2);
+	}
+
+	/**
+	 * Takes one from the count of key.
+	 * @return false if key had no count, in which case nothing changes
+	 */
+	boolean decrement(int key) {
+		int slot = find(key);
+		if (keys[slot] != key) return false;
+		if (--counts[slot] == 0) delete(slot);
+		return true;
+	}
+
+	/** @return the number of keys with a count */
+	int size() {
+		return size;
+	}
+
+	/** @return a copy of the map */
+	IntCountMap copy() {
+		IntCountMap copy = new IntCountMap();
+		copy.keys = keys.clone();
+		copy.counts = counts.clone();
+		copy.size = size;
+		return copy;
+	}
+
+	/** Calls action with every key and its count */
+	void forEach(EntryConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) action.accept(keys[i], counts[i]);
+		}
+	}
+
+	interface EntryConsumer {
+		void accept(int key, int count);
+	}
+
+	// The slot holding key, or the free slot where it would go
+	private int find(int key) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (keys[slot] != FREE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	// Empties a slot and moves later entries of the same run back into it,
+	// so that lookups never need to skip over deleted entries
+	private void delete(int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (keys[next] != FREE) {
+			int home = mix(keys[next]) & mask;
+			// Move the entry if its home is not cyclically in (hole, next]
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				counts[hole] = counts[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = FREE;
+		size--;
+		if (keys.length > 8 && size * 8 < keys.length) resize(keys.length / 2);
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = newKeys(capacity);
+		counts = new int[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int[] newKeys(int capacity) {
+		int[] keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		return keys;
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,103 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.PrimitiveIterator;
+
+/**
+ * JsonExporter writes an album and its sub-albums as a JSON document:
+ *
+ * <pre>
+ * {"format":"music-organizer","version":1,
+ *  "album":{"id":1,"name":"All Sound Clips","clips":[0,1,2],"albums":[...]},
+ *  "clips":[{"id":0,"name":"a.wav","file":"/music/a.wav","duration":2.5,...}]}
+ * </pre>
+ *
+ * Albums list the ids of their SoundClips, their sub-albums' included, and
+ * smart albums give their rule. Each SoundClip of the album is described
+ * once, in "clips", with its metadata when it has been read.
+ *
+ * The document is written with a {@link JsonWriter} as the hierarchy is
+ * walked, and the clips are read one at a time and not kept, so exporting
+ * takes as much memory however large the hierarchy is.
+ */
+public class JsonExporter implements AlbumExporter {
+
+	/** The version of the document written */
+	public static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	@Override
+	public String getName() {
+		return "JSON";
+	}
+
+	@Override
+	public String getExtension() {
+		return "json";
+	}
+
+	@Override
+	public void export(Album album, File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				JsonWriter json = new JsonWriter(new BufferedWriter(Channels.newWriter(channel,
+						StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE))) {
+			json.beginObject();
+			json.name("format").value("music-organizer");
+			json.name("version").value(VERSION);
+			json.name("album");
+			writeAlbum(album, json);
+			json.name("clips").beginArray();
+			ClipRegistry registry = album.getClipRegistry();
+			for (PrimitiveIterator.OfInt it = album.clipIdSnapshot().iterator(); it.hasNext(); ) {
+				int id = it.nextInt();
+				writeClip(id, registry.peek(id), json);
+			}
+			json.endArray();
+			json.endObject();
+		}
+	}
+
+	private static void writeAlbum(Album album, JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("id").value(album.getId());
+		json.name("name").value(album.toString());
+		if (album instanceof SmartAlbum) {
+			json.name("rule").value(((SmartAlbum) album).getRule().toString());
+		}
+		json.name("clips").beginArray();
+		for (PrimitiveIterator.OfInt it = album.clipIdSnapshot().iterator(); it.hasNext(); ) {
+			json.value(it.nextInt());
+		}
+		json.endArray();
+		json.name("albums").beginArray();
+		for (Album subAlbum : album.getSubAlbums()) {
+			writeAlbum(subAlbum, json);
+		}
+		json.endArray();
+		json.endObject();
+	}
+
+	private static void writeClip(int id, SoundClip clip, JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("id").value(id);
+		json.name("name").value(clip.toString());
+		json.name("file").value(clip.getFile().getAbsolutePath());
+		WavMetadata metadata = clip.getMetadata();
+		if (metadata != null) {
+			json.name("duration").value(metadata.getDurationSeconds());
+			json.name("sampleRate").value(metadata.getSampleRate());
+			json.name("channels").value(metadata.getChannels());
+			json.name("bitsPerSample").value(metadata.getBitsPerSample());
+			json.name("bytes").value(metadata.getFileSize());
+		}
+		json.endObject();
+	}
+}
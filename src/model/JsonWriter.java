@@ -0,0 +1,155 @@
+package model;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * JsonWriter writes JSON text to a Writer as it is made, a name or value at
+ * a time, so that documents of any size can be written without holding
+ * them. It keeps only whether each open object or array has a member yet,
+ * and puts in the commas and colons. It does not check that names and
+ * values are put where they belong.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	private boolean[] hasMembers = new boolean[16]; // For each object or array open
+	private int depth;
+	private boolean afterName; // True when a value follows a name
+
+	/** Make a writer writing to out, which it closes when it is closed */
+	public JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return begin('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return end('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return begin('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return end(']');
+	}
+
+	/** Writes the name of the next member of the object open */
+	public JsonWriter name(String name) throws IOException {
+		beforeValue();
+		writeString(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	/** Writes a string, or null if s is null */
+	public JsonWriter value(String s) throws IOException {
+		if (s == null) return nullValue();
+		beforeValue();
+		writeString(s);
+		return this;
+	}
+
+	public JsonWriter value(long n) throws IOException {
+		beforeValue();
+		out.write(Long.toString(n));
+		return this;
+	}
+
+	/** Writes a number, or null if d is not finite, which JSON cannot hold */
+	public JsonWriter value(double d) throws IOException {
+		if (Double.isNaN(d) || Double.isInfinite(d)) return nullValue();
+		beforeValue();
+		out.write(Double.toString(d));
+		return this;
+	}
+
+	public JsonWriter value(boolean b) throws IOException {
+		beforeValue();
+		out.write(b ? "true" : "false");
+		return this;
+	}
+
+	public JsonWriter nullValue() throws IOException {
+		beforeValue();
+		out.write("null");
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private JsonWriter begin(char c) throws IOException {
+		beforeValue();
+		if (depth == hasMembers.length) {
+			hasMembers = Arrays.copyOf(hasMembers, depth * 2);
+		}
+		hasMembers[depth++] = false;
+		out.write(c);
+		return this;
+	}
+
+	private JsonWriter end(char c) throws IOException {
+		if (depth == 0) throw new IllegalStateException("nothing to end");
+		depth--;
+		out.write(c);
+		return this;
+	}
+
+	// Writes the comma before every member but the first
+	private void beforeValue() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (depth > 0) {
+			if (hasMembers[depth - 1]) {
+				out.write(',');
+			}
+			hasMembers[depth - 1] = true;
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		out.write('"');
+		int from = 0; // The characters from here on need no escaping so far
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') continue;
+			out.write(s, from, i - from);
+			from = i + 1;
+			switch (c) {
+			case '"': out.write("\\\""); break;
+			case '\\': out.write("\\\\"); break;
+			case '\n': out.write("\\n"); break;
+			case '\r': out.write("\\r"); break;
+			case '\t': out.write("\\t"); break;
+			default: // Other control characters, and the line separators JavaScript does not allow in strings
+				out.write("\\u");
+				out.write(HEX[c >> 12 & 0xf]);
+				out.write(HEX[c >> 8 & 0xf]);
+				out.write(HEX[c >> 4 & 0xf]);
+				out.write(HEX[c & 0xf]);
+			}
+		}
+		out.write(s, from, s.length() - from);
+		out.write('"');
+	}
+}
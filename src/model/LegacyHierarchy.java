@@ -0,0 +1,181 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LegacyHierarchy imports the hierarchy files the Music Organizer wrote
+ * with Java serialization, before {@link HierarchyStore} had a format of
+ * its own. The model classes are no longer serializable, so the albums
+ * and clips of such a file are read into stand-ins with the fields the
+ * old classes had, and copied into a new hierarchy from there.
+ *
+ * Only files written by the first version of the Music Organizer, whose
+ * albums held sets of SoundClips, can be imported. The stream is read
+ * through a filter that only lets the classes such files hold be made, so
+ * that a file made to look like one cannot make objects of other classes.
+ */
+final class LegacyHierarchy {
+
+	private static final int STREAM_MAGIC = 0xACED; // The start of every Java serialization stream
+	// The classes of the objects of a hierarchy file. Arrays of them, and of
+	// primitives, are let through too. ArrayList and HashSet make arrays of
+	// Object and of entries when they are read.
+	private static final Set<Class<?>> CLASSES = Set.of(OldAlbum.class, OldSoundClip.class,
+			String.class, File.class, HashSet.class, ArrayList.class);
+	private static final Set<Class<?>> ARRAY_CLASSES = Set.of(Object.class, Map.Entry.class);
+	// Far more than any hierarchy made with the first version holds
+	private static final long MAX_DEPTH = 1000; // Each level of albums takes two, with its list
+	private static final long MAX_REFERENCES = 10_000_000;
+	private static final long MAX_ARRAY_LENGTH = 10_000_000;
+
+	private LegacyHierarchy() {
+	}
+
+	/** @return true if file starts like a Java serialization stream */
+	static boolean isLegacy(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return file.length() >= 2 && in.readUnsignedShort() == STREAM_MAGIC;
+		}
+	}
+
+	/** @return the hierarchy saved in file, read in full */
+	static Album read(File file) throws IOException {
+		try (ObjectInputStream in = new LegacyInput(new BufferedInputStream(new FileInputStream(file)))) {
+			Object saved = in.readObject();
+			if (!(saved instanceof OldAlbum)) throw new IOException("Not a hierarchy file: " + file);
+			OldAlbum old = (OldAlbum) saved;
+			Album root = new Album();
+			copy(old, root);
+			return root;
+		} catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+			throw new IOException("Not a hierarchy file of a version that can be imported: " + file, e);
+		}
+	}
+
+	/**
+	 * Saves the hierarchy of file to converted in the format of
+	 * HierarchyStore. file is left as it is.
+	 */
+	static void convert(File file, File converted) throws IOException {
+		HierarchyStore.saveHierarchy(read(file), converted);
+	}
+
+	/** @return the file next to file its hierarchy is converted to: its name with the extension .library */
+	static File convertedFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String converted = (dot > 0 ? name.substring(0, dot) : name) + ".library";
+		if (converted.equals(name)) converted = name + ".library";
+		return new File(file.getAbsoluteFile().getParentFile(), converted);
+	}
+
+	// Lets only the classes a hierarchy file holds be read, and only as much as one holds
+	private static ObjectInputFilter.Status check(ObjectInputFilter.FilterInfo info) {
+		if (info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES
+				|| info.arrayLength() > MAX_ARRAY_LENGTH) {
+			return ObjectInputFilter.Status.REJECTED;
+		}
+		Class<?> c = info.serialClass();
+		if (c == null) return ObjectInputFilter.Status.ALLOWED; // Only the limits are checked
+		boolean array = c.isArray();
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		return c.isPrimitive() || CLASSES.contains(c) || array && ARRAY_CLASSES.contains(c)
+				? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+	}
+
+	// Adds the clips and the sub-albums of old to album
+	private static void copy(OldAlbum old, Album album) {
+		if (old.SoundClips != null && !old.SoundClips.isEmpty()) {
+			Set<SoundClip> clips = new HashSet<>();
+			for (OldSoundClip clip : old.SoundClips) {
+				clips.add(new SoundClip(clip.file));
+			}
+			album.addSoundClips(clips);
+		}
+		if (old.subAlbums != null) {
+			for (OldAlbum oldSubAlbum : old.subAlbums) {
+				Album subAlbum = new Album(oldSubAlbum.albumName, album);
+				album.addAlbum(subAlbum);
+				copy(oldSubAlbum, subAlbum);
+			}
+		}
+	}
+
+	// Reads the old model classes into the stand-ins. The stand-ins have the
+	// fields of the classes they stand for, so the data in the stream fits them.
+	private static final class LegacyInput extends ObjectInputStream {
+		LegacyInput(InputStream in) throws IOException {
+			super(in);
+			setObjectInputFilter(LegacyHierarchy::check);
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			ObjectStreamClass saved = super.readClassDescriptor();
+			switch (saved.getName()) {
+			case "model.Album":
+				return standIn(saved, OldAlbum.class);
+			case "model.SoundClip":
+				return standIn(saved, OldSoundClip.class);
+			default:
+				return saved;
+			}
+		}
+
+		// The class of the stand-in, if its fields are those saved
+		private static ObjectStreamClass standIn(ObjectStreamClass saved, Class<?> standIn) throws IOException {
+			ObjectStreamClass local = ObjectStreamClass.lookup(standIn);
+			ObjectStreamField[] savedFields = saved.getFields();
+			ObjectStreamField[] localFields = local.getFields();
+			boolean same = savedFields.length == localFields.length;
+			for (int i = 0; same && i < savedFields.length; i++) {
+				same = savedFields[i].getName().equals(localFields[i].getName())
+						&& savedFields[i].getTypeCode() == localFields[i].getTypeCode();
+			}
+			if (!same) throw new InvalidClassException(saved.getName(), "saved by a version that cannot be imported");
+			return local;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (desc.getName().startsWith("model.")
+					&& !desc.getName().startsWith(LegacyHierarchy.class.getName() + "$")) {
+				throw new ClassNotFoundException(desc.getName()); // A later version of the classes
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+	// model.Album as it was saved. The names of the fields must stay as they are.
+	private static final class OldAlbum implements Serializable {
+		private static final long serialVersionUID = 1L;
+		OldAlbum parentAlbum;
+		String albumName;
+		Set<OldSoundClip> SoundClips;
+		List<OldAlbum> subAlbums;
+	}
+
+	// model.SoundClip as it was saved
+	private static final class OldSoundClip implements Serializable {
+		private static final long serialVersionUID = 1L;
+		File file;
+	}
+}
@@ -0,0 +1,163 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+/**
+ * M3uExporter writes an album and each of its sub-albums as extended M3U
+ * playlists: one line per SoundClip giving its length, when its metadata
+ * has been read, and its name, followed by a line with its file.
+ *
+ * The playlist of the album is written to the file given, and those of its
+ * sub-albums next to it, named after it and their path from the album.
+ * Sub-albums without SoundClips get no playlist. A playlist that would get
+ * the name of another one, as sub-albums of one album may share a name,
+ * has the id of its album added to its name.
+ *
+ * M3U8 playlists are written in UTF-8. M3U playlists are written in
+ * ISO-8859-1, which is what players expect of them. Files whose paths the
+ * charset cannot hold, or that hold line breaks, are written as file URIs.
+ *
+ * The clips are read one at a time and not kept, so exporting a hierarchy
+ * opened from a file does not read all of it into memory.
+ */
+public class M3uExporter implements AlbumExporter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final boolean utf8;
+	private final Charset charset;
+
+	/**
+	 * Make an exporter of M3U8 playlists if utf8 holds, or of M3U playlists if not
+	 */
+	public M3uExporter(boolean utf8) {
+		this.utf8 = utf8;
+		this.charset = utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+	}
+
+	@Override
+	public String getName() {
+		return utf8 ? "M3U8 playlists" : "M3U playlists";
+	}
+
+	@Override
+	public String getExtension() {
+		return utf8 ? "m3u8" : "m3u";
+	}
+
+	@Override
+	public void export(Album album, File file) throws IOException {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot < 0 ? name : name.substring(0, dot);
+		String extension = dot < 0 ? "." + getExtension() : name.substring(dot);
+		writePlaylist(album, file);
+		// The names of the playlists written, in lower case for file systems that ignore case
+		Set<String> written = new HashSet<>();
+		written.add(name.toLowerCase(Locale.ROOT));
+		for (Album subAlbum : album.getSubAlbums()) {
+			exportSubAlbums(subAlbum, file.getParentFile(), base, extension, written);
+		}
+	}
+
+	private void exportSubAlbums(Album album, File directory, String path, String extension, Set<String> written)
+			throws IOException {
+		path = path + " - " + fileName(album.toString());
+		if (!album.clipIdSnapshot().isEmpty()) {
+			String name = path + extension;
+			for (int n = 1; !written.add(name.toLowerCase(Locale.ROOT)); n++) {
+				name = path + " (" + album.getId() + (n > 1 ? "-" + n : "") + ")" + extension;
+			}
+			writePlaylist(album, new File(directory, name));
+		}
+		for (Album subAlbum : album.getSubAlbums()) {
+			exportSubAlbums(subAlbum, directory, path, extension, written);
+		}
+	}
+
+	/**
+	 * Writes the playlist of the SoundClips of album, its sub-albums' included
+	 * @param album the album written
+	 * @param file the file to write
+	 */
+	public void writePlaylist(Album album, File file) throws IOException {
+		CharsetEncoder encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ClipRegistry registry = album.getClipRegistry();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				Writer out = new BufferedWriter(Channels.newWriter(channel, encoder, BUFFER_SIZE), BUFFER_SIZE)) {
+			out.write("#EXTM3U\n");
+			out.write("#PLAYLIST:");
+			out.write(line(album.toString()));
+			out.write('\n');
+			for (PrimitiveIterator.OfInt it = album.clipIdSnapshot().iterator(); it.hasNext(); ) {
+				SoundClip clip = registry.peek(it.nextInt());
+				WavMetadata metadata = clip.getMetadata();
+				out.write("#EXTINF:");
+				out.write(metadata == null ? "-1" : Long.toString(Math.round(metadata.getDurationSeconds())));
+				out.write(',');
+				out.write(line(clip.toString()));
+				out.write('\n');
+				String path = clip.getFile().getAbsolutePath();
+				out.write(plain(path) ? path : uri(path));
+				out.write('\n');
+			}
+		}
+	}
+
+	// s on a single line
+	private static String line(String s) {
+		return s.replace('\r', ' ').replace('\n', ' ');
+	}
+
+	// Whether path can be written as it is: on one line, in the charset
+	private boolean plain(String path) {
+		boolean surrogates = false;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\n' || c == '\r' || !utf8 && c > 0xff) return false;
+			surrogates |= Character.isSurrogate(c);
+		}
+		// Paired surrogates can be written in UTF-8, which the encoder checks
+		return !surrogates || charset.newEncoder().canEncode(path);
+	}
+
+	// The file URI of an absolute path. Unlike File.toURI, it does not ask
+	// the file system whether the file is a directory.
+	private static String uri(String path) {
+		String p = path.replace(File.separatorChar, '/');
+		try {
+			return new URI("file", null, p.startsWith("/") ? p : "/" + p, null).toASCIIString();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e); // Not thrown for absolute paths
+		}
+	}
+
+	// name without the characters file systems do not allow in file names
+	private static String fileName(String name) {
+		StringBuilder s = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			s.append(c < ' ' || "<>:\"/\\|?*".indexOf(c) >= 0 ? '_' : c);
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,462 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MappedHierarchy reads a hierarchy file saved by {@link HierarchyStore}
+ * through a memory mapping, one album or clip at a time, so that only the
+ * parts of the file that are read are brought into memory.
+ *
+ * The header, the entry of the root album and the smart album index are
+ * checked when the file is opened, which takes the same time however large
+ * the file is. The entry of every other album is checked as the sub-albums
+ * of its parent are read. Damage found then, or in the other parts read as
+ * they are needed, is thrown as an {@link UncheckedIOException}. Reading only uses absolute positions in
+ * the mapping, so any number of threads may read at once.
+ */
+final class MappedHierarchy {
+
+	private final ByteBuffer map;
+	private final int clipCount, folderCount, albumCount, smartCount;
+	private final long nextAlbumId;
+	private final long generation; // 0 for files of version 2, saved before there were journals
+	private final int folderIndexAt, clipIndexAt, albumIndexAt, smartIndexAt;
+	private final int pathIndexAt, pathSlots; // pathSlots is -1 for files saved before there was a path index
+	private final File[] folders; // The folders read so far, by index
+	private Map<Long, Integer> indexes; // The positions of the albums by id, null until needed
+
+	private MappedHierarchy(ByteBuffer map) throws IOException {
+		this.map = map;
+		if (map.limit() < HierarchyStore.HEADER_SIZE_V2 || map.getInt(0) != HierarchyStore.MAGIC) {
+			throw new IOException("Not a hierarchy file");
+		}
+		int version = map.getInt(4);
+		if (version != HierarchyStore.VERSION && version != 3 && version != 2) {
+			throw new IOException("Hierarchy file of an unknown version " + version);
+		}
+		if (version == 3 && map.limit() < HierarchyStore.HEADER_SIZE_V3
+				|| version == HierarchyStore.VERSION && map.limit() < HierarchyStore.HEADER_SIZE) {
+			throw HierarchyStore.corrupt();
+		}
+		clipCount = map.getInt(8);
+		folderCount = map.getInt(12);
+		albumCount = map.getInt(16);
+		smartCount = map.getInt(20);
+		nextAlbumId = map.getLong(24);
+		folderIndexAt = map.getInt(32);
+		clipIndexAt = map.getInt(36);
+		albumIndexAt = map.getInt(40);
+		smartIndexAt = map.getInt(44);
+		generation = version != 2 ? map.getLong(48) : 0;
+		pathIndexAt = version == HierarchyStore.VERSION ? map.getInt(56) : 0;
+		pathSlots = version == HierarchyStore.VERSION ? map.getInt(60) : -1;
+		if (albumCount < 1 || clipCount < 0 || folderCount < 0 || smartCount < 0
+				|| !fits(folderIndexAt, folderCount * 4L) || !fits(clipIndexAt, clipCount * 4L)
+				|| !fits(albumIndexAt, albumCount * (long) HierarchyStore.ALBUM_ENTRY_SIZE)
+				|| !fits(smartIndexAt, smartCount * 4L)
+				|| pathSlots >= 0 && (pathSlots < clipCount || Integer.bitCount(pathSlots) > 1
+						|| !fits(pathIndexAt, pathSlots * (long) HierarchyStore.PATH_SLOT_SIZE))) {
+			throw HierarchyStore.corrupt();
+		}
+		folders = new File[folderCount];
+		try {
+			checkEntry(0, -1);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		for (int s = 0; s < smartCount; s++) {
+			int index = map.getInt(smartIndexAt + 4 * s);
+			if (index <= 0 || index >= albumCount) throw HierarchyStore.corrupt();
+		}
+	}
+
+	/** Maps file, and checks that it is a hierarchy file */
+	static MappedHierarchy open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Not a hierarchy file");
+			// The mapping stays valid once the channel is closed
+			return new MappedHierarchy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			throw new IOException(e.getMessage() + ": " + file, e);
+		}
+	}
+
+	// Checks the entry of the album at index, which the album at parent holds:
+	// its sub-albums come after it in the index, its id is one handed out
+	// before the file was saved, and its record is in the file
+	private void checkEntry(int index, int parent) {
+		int first = map.getInt(entryAt(index) + 12);
+		int count = subAlbumCount(index);
+		long id = albumId(index);
+		if (parentOf(index) != parent || id < 0 || id >= nextAlbumId || count < 0
+				|| count > 0 && (first <= index || first > albumCount - count) || !fits(recordAt(index), 1)) {
+			throw damaged();
+		}
+	}
+
+	private boolean fits(int position, long length) {
+		return position >= 0 && position + length <= map.limit();
+	}
+
+	static UncheckedIOException damaged() {
+		return new UncheckedIOException(HierarchyStore.corrupt());
+	}
+
+	/** Makes the root album, which reads the rest from this file as it is needed */
+	Album readRoot() {
+		Album root = readAlbum(0, null);
+		root.getTree().restoreNextAlbumId(nextAlbumId); // Above the id of every album, see checkEntry
+		root.getClipRegistry().restore(this, clipCount);
+		return root;
+	}
+
+	/** @return the generation of the file, see {@link HierarchyJournal} */
+	long generation() {
+		return generation;
+	}
+
+	/** @return the positions of the smart albums */
+	int[] smartAlbums() {
+		int[] result = new int[smartCount];
+		for (int s = 0; s < smartCount; s++) {
+			result[s] = map.getInt(smartIndexAt + 4 * s);
+		}
+		return result;
+	}
+
+	/** @return the album at index, reading the albums leading to it from root */
+	Album find(Album root, int index) {
+		if (index == 0) return root;
+		int parent = parentOf(index);
+		if (parent < 0 || parent >= index) throw damaged();
+		return find(root, parent).getSubAlbums().get(index - firstSubAlbum(parent));
+	}
+
+	/**
+	 * @return the album with the given id in the hierarchy of root, reading
+	 * the albums leading to it, or null if it is no longer in the hierarchy
+	 */
+	Album find(Album root, long id) {
+		AlbumTree tree = root.getTree();
+		Album album = tree.getAlbum(id);
+		if (album != null) return album;
+		// Not read yet, so still below the parent it was saved with, unless
+		// that parent has been read and it was taken out since
+		int index = indexOf(id);
+		if (index <= 0) return null;
+		int parentIndex = parentOf(index);
+		if (parentIndex < 0 || parentIndex >= index) throw damaged();
+		Album parent = find(root, albumId(parentIndex));
+		if (parent == null) return null;
+		parent.getSubAlbums();
+		return tree.getAlbum(id);
+	}
+
+	private synchronized int indexOf(long id) {
+		if (indexes == null) {
+			indexes = new HashMap<>(albumCount * 2);
+			for (int i = 0; i < albumCount; i++) {
+				if (indexes.put(albumId(i), i) != null) throw damaged();
+			}
+		}
+		Integer index = indexes.get(id);
+		return index != null ? index : -1;
+	}
+
+	/** @return the sub-albums of the album at index, not read yet themselves */
+	List<Album> readSubAlbums(int index, Album album) {
+		int first = firstSubAlbum(index);
+		int count = subAlbumCount(index);
+		List<Album> result = new ArrayList<>(count);
+		AlbumTree tree = album.getTree();
+		for (int i = first; i < first + count; i++) {
+			if (tree.getAlbum(albumId(i)) != null) throw damaged(); // Ids are unique
+			result.add(readAlbum(i, album));
+		}
+		return result;
+	}
+
+	/** @return the number of sub-albums of the album at index */
+	int subAlbumCount(int index) {
+		return map.getInt(entryAt(index) + 16);
+	}
+
+	/** @return whether the album at index is a smart album */
+	boolean isSmart(int index) {
+		try {
+			Reader in = reader(recordAt(index));
+			in.getString();
+			return in.getByte() == HierarchyStore.SMART;
+		} catch (IndexOutOfBoundsException e) {
+			throw damaged();
+		}
+	}
+
+	/**
+	 * @return the record of the album at index as it is in the file, for
+	 * copying it to another. The records are written one after the other,
+	 * so each ends where the next starts, and the last where the index does.
+	 */
+	ByteBuffer record(int index) {
+		int at = recordAt(index);
+		int end = index + 1 < albumCount ? recordAt(index + 1) : albumIndexAt;
+		if (end < at || !fits(at, end - at)) throw damaged();
+		ByteBuffer record = map.duplicate();
+		record.limit(end).position(at);
+		return record;
+	}
+
+	// Makes the album at index, with its name and rule
+	private Album readAlbum(int index, Album parent) {
+		try {
+			Reader in = reader(recordAt(index));
+			String name = in.getString();
+			int kind = in.getByte();
+			if (kind == HierarchyStore.SMART) {
+				return new SmartAlbum(name, parent, in.getRule(), albumId(index), this, index);
+			} else if (kind == HierarchyStore.PLAIN) {
+				return new Album(name, parent, albumId(index), this, index);
+			}
+			throw damaged();
+		} catch (IndexOutOfBoundsException e) {
+			throw damaged();
+		}
+	}
+
+	/** @return what the album at index holds */
+	Album.Clips readClips(int index) {
+		try {
+			Reader in = reader(recordAt(index));
+			in.getString();
+			if (in.getByte() == HierarchyStore.SMART) {
+				in.getRule();
+			}
+			ClipIdSet own = in.getIds();
+			ClipIdSet all = in.getIds();
+			IntCountMap extraRefs = new IntCountMap();
+			int refs = in.getCount();
+			for (int r = 0; r < refs; r++) {
+				int id = in.getCount();
+				int count = in.getCount();
+				if (id >= clipCount || count == 0) throw damaged();
+				extraRefs.add(id, count);
+			}
+			return new Album.Clips(own, all, extraRefs);
+		} catch (IndexOutOfBoundsException e) {
+			throw damaged();
+		}
+	}
+
+	/** @return the clip with the given id */
+	SoundClip clip(int id) {
+		try {
+			Reader in = reader(map.getInt(clipIndexAt + 4 * id));
+			int folder = in.getCount();
+			if (folder >= folderCount) throw damaged();
+			SoundClip clip = new SoundClip(new File(folder(folder), in.getString()));
+			clip.setMetadata(in.getMetadata());
+			return clip;
+		} catch (IndexOutOfBoundsException e) {
+			throw damaged();
+		}
+	}
+
+	/** @return whether the file has a path index, which {@link #idOf(SoundClip)} needs */
+	boolean hasPathIndex() {
+		return pathSlots >= 0;
+	}
+
+	/** @return the id of clip, looked up in the path index, or -1 if the file does not have it */
+	int idOf(SoundClip clip) {
+		int hash = clip.hashCode();
+		for (int slot = HierarchyStore.firstSlot(hash, pathSlots), n = 0; n < pathSlots;
+				slot = (slot + 1) & (pathSlots - 1), n++) {
+			int at = pathIndexAt + slot * HierarchyStore.PATH_SLOT_SIZE;
+			int id = map.getInt(at + 4);
+			if (id < 0) return -1;
+			if (id >= clipCount) throw damaged();
+			if (map.getInt(at) == hash && clip(id).equals(clip)) return id;
+		}
+		return -1;
+	}
+
+	// Folders are shared by their clips. Two threads may both read one, which does no harm.
+	private File folder(int index) {
+		File folder = folders[index];
+		if (folder == null) {
+			String path = reader(map.getInt(folderIndexAt + 4 * index)).getString();
+			folder = path.isEmpty() ? null : new File(path);
+			folders[index] = folder;
+		}
+		return folder;
+	}
+
+	// The fields of an entry of the album index
+	private int entryAt(int index) {
+		return albumIndexAt + index * HierarchyStore.ALBUM_ENTRY_SIZE;
+	}
+
+	long albumId(int index) {
+		return map.getLong(entryAt(index));
+	}
+
+	private int parentOf(int index) {
+		return map.getInt(entryAt(index) + 8);
+	}
+
+	// The position of the first sub-album of the album at index, once the
+	// entries of its sub-albums have been checked. The entry of the album
+	// itself must have been.
+	int firstSubAlbum(int index) {
+		int first = map.getInt(entryAt(index) + 12);
+		for (int c = first; c < first + subAlbumCount(index); c++) {
+			checkEntry(c, index);
+		}
+		return first;
+	}
+
+	private int recordAt(int index) {
+		return map.getInt(entryAt(index) + 20);
+	}
+
+	private Reader reader(int at) {
+		return new Reader(map, at, clipCount);
+	}
+
+	// Reads numbers and strings from a position in a buffer on, without
+	// moving the position of the buffer, so that any number of readers may
+	// share it. Reading past the end throws an IndexOutOfBoundsException.
+	static final class Reader {
+		private final ByteBuffer map;
+		private final int clipCount; // Every clip id read must be below it
+		private int at;
+
+		Reader(ByteBuffer map, int at, int clipCount) {
+			this.map = map;
+			this.at = at;
+			this.clipCount = clipCount;
+		}
+
+		// The position of the next byte read
+		int position() {
+			return at;
+		}
+
+		int getByte() {
+			return map.get(at++) & 0xFF;
+		}
+
+		int getInt() {
+			int value = map.getInt(at);
+			at += 4;
+			return value;
+		}
+
+		long getLong() {
+			long value = map.getLong(at);
+			at += 8;
+			return value;
+		}
+
+		int getVarInt() {
+			long value = getVarLong();
+			if (value >>> 32 != 0) throw damaged();
+			return (int) value;
+		}
+
+		// A varint that counts or indexes something, so cannot be negative
+		int getCount() {
+			int value = getVarInt();
+			if (value < 0) throw damaged();
+			return value;
+		}
+
+		long getVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = getByte();
+				value |= (long) (b & 0x7F) << shift;
+				if (b < 0x80) return value;
+			}
+			throw damaged();
+		}
+
+		String getString() {
+			int length = getCount();
+			if (length > map.limit() - at) throw damaged();
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = map.get(at + i);
+			}
+			at += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		// Whether there is any metadata, and the metadata if so, see HierarchyStore.writeMetadata
+		WavMetadata getMetadata() {
+			if (getByte() == 0) return null;
+			return new WavMetadata(getVarInt(), getVarInt(), getVarInt(), getVarInt(), getVarInt(),
+					getVarLong(), getVarLong(), getVarLong(), getVarLong());
+		}
+
+		ClipRule getRule() {
+			int conditions = getByte();
+			ClipRule rule = new ClipRule();
+			if ((conditions & HierarchyStore.NAME) != 0) rule.nameMatches(getString());
+			if ((conditions & HierarchyStore.FOLDER) != 0) rule.inFolder(new File(getString()));
+			if ((conditions & HierarchyStore.METADATA) != 0) {
+				ClipFilter filter = new ClipFilter();
+				for (int c = 0; c < filter.intMin.length; c++) {
+					filter.intMin[c] = getInt();
+					filter.intMax[c] = getInt();
+				}
+				for (int c = 0; c < filter.longMin.length; c++) {
+					filter.longMin[c] = getLong();
+					filter.longMax[c] = getLong();
+				}
+				rule.metadata(filter);
+			}
+			return rule;
+		}
+
+		// A set written by HierarchyStore.writeIds
+		ClipIdSet getIds() {
+			int encoding = getByte();
+			if (encoding == HierarchyStore.GAPS) {
+				int size = getCount();
+				if (size > clipCount) throw damaged();
+				int[] ids = new int[size];
+				int id = -1;
+				for (int i = 0; i < size; i++) {
+					int gap = getCount();
+					if (gap <= 0 || gap > clipCount - 1 - id) throw damaged();
+					id += gap;
+					ids[i] = id;
+				}
+				return ClipIdSet.fromSorted(ids, size);
+			} else if (encoding == HierarchyStore.BITMAP) {
+				int words = getCount();
+				if (words > (clipCount + 63) >>> 6) throw damaged();
+				long[] bitmap = new long[words];
+				for (int w = 0; w < words; w++) {
+					bitmap[w] = getLong();
+				}
+				if (words > 0 && clipCount < words * 64 && bitmap[words - 1] >>> (clipCount & 63) != 0) {
+					throw damaged();
+				}
+				return ClipIdSet.fromBitmap(bitmap);
+			}
+			throw damaged();
+		}
+	}
+}
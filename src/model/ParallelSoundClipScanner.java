@@ -0,0 +1,340 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * ParallelSoundClipScanner finds sound clip files on disk using a
+ * fork/join pool. Every folder is read exactly once, and each sub folder
+ * found is scanned as a separate task, so that wide and deep folder trees
+ * are spread over all the worker threads.
+ */
+public class ParallelSoundClipScanner {
+
+	private final int parallelism;
+	private final ScanMetrics metrics;
+
+	/**
+	 * Make a scanner that uses as many threads as there are processors.
+	 */
+	public ParallelSoundClipScanner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Make a scanner with a given level of parallelism.
+	 * Requires parallelism > 0.
+	 */
+	public ParallelSoundClipScanner(int parallelism) {
+		this(parallelism, ScanMetrics.GLOBAL);
+	}
+
+	/**
+	 * Make a scanner with a given level of parallelism that records what
+	 * it does in metrics.
+	 * Requires parallelism > 0.
+	 */
+	public ParallelSoundClipScanner(int parallelism, ScanMetrics metrics) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the number of threads used by the scanner.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns a set of sound clips representing all .WAV files under a given
+	 * folder (including subfolders as well). The result is the same as
+	 * {@link SoundClipLoader#loadSoundClips(String)}.
+	 * @param folder the folder to scan. If it is not an actual folder in
+	 * the filesystem, returns an empty set.
+	 */
+	public Set<SoundClip> scan(File folder) {
+		Set<SoundClip> set = new HashSet<>();
+		if (folder == null || !folder.isDirectory()) return set;
+
+		run(new FolderTask(folder, clips -> {
+			synchronized (set) {
+				set.addAll(clips);
+			}
+		}, null, null, false, metrics));
+		return set;
+	}
+
+	/**
+	 * Scans a folder like {@link #scan(File)}, but instead of collecting all
+	 * the sound clips, hands them to sink in batches of at most batchSize clips
+	 * while the scan is still running. The sink is called by one thread at a
+	 * time, and the scanner threads wait while a batch is being delivered, so
+	 * no more than about batchSize clips are ever held back by the scanner.
+	 * @param folder the folder to scan
+	 * @param batchSize the largest number of clips in one batch, must be > 0
+	 * @param sink receives each batch of clips
+	 * @return the number of sound clips found
+	 */
+	public int scan(File folder, int batchSize, Consumer<Set<SoundClip>> sink) {
+		return scan(folder, batchSize, sink, null);
+	}
+
+	/**
+	 * Same as {@link #scan(File, int, Consumer)}, but uses index to skip
+	 * listing the folders that have not been modified since the index was
+	 * last updated. The index is updated with what this scan found.
+	 * @param index the scan index to consult and update, or null to list every folder
+	 */
+	public int scan(File folder, int batchSize, Consumer<Set<SoundClip>> sink, ScanIndex index) {
+		return scan(folder, batchSize, sink, null, index, false);
+	}
+
+	/**
+	 * Same as {@link #scan(File, int, Consumer, ScanIndex)}, but only hands
+	 * sink the clips of the folders that are listed: those the index does
+	 * not know, or that were modified since it was last updated. The clips
+	 * of the other folders are taken to be where the last scan put them.
+	 *
+	 * The clips the index has for a listed folder that it no longer holds,
+	 * and those it has for the folders below it that are gone, are handed
+	 * to gone in batches the same way.
+	 * @param gone receives each batch of clips that are no longer on disk
+	 * @return the number of sound clips handed to sink
+	 */
+	public int scanChanged(File folder, int batchSize, Consumer<Set<SoundClip>> sink,
+			Consumer<Set<SoundClip>> gone, ScanIndex index) {
+		return scan(folder, batchSize, sink, gone, index, true);
+	}
+
+	private int scan(File folder, int batchSize, Consumer<Set<SoundClip>> sink, Consumer<Set<SoundClip>> gone,
+			ScanIndex index, boolean changedOnly) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		if (folder == null || !folder.isDirectory()) return 0;
+
+		ClipBatcher batcher = new ClipBatcher(batchSize, sink);
+		ClipBatcher goneBatcher = gone != null && index != null ? new ClipBatcher(batchSize, gone) : null;
+		if (index != null) {
+			index.beginScan();
+		}
+		run(new FolderTask(folder, batcher, goneBatcher, index, changedOnly, metrics));
+		if (index != null) {
+			index.endScan();
+		}
+		if (goneBatcher != null) {
+			goneBatcher.finish();
+		}
+		return batcher.finish();
+	}
+
+	// Run the task on a pool of its own, and tear the pool down afterwards
+	private void run(FolderTask task) {
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(task);
+		} finally {
+			pool.shutdown();
+			metrics.recordScan(System.nanoTime() - start);
+		}
+	}
+
+	// Scans a single folder and forks a new task for each of its sub folders.
+	// The clips found directly in the folder are handed to the collector in one go.
+	private static class FolderTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File folder;
+		private final Consumer<List<SoundClip>> collector;
+		private final Consumer<List<SoundClip>> gone; // Receives the clips no longer on disk, or null
+		private final ScanIndex index;
+		private final boolean changedOnly; // Whether the clips of unchanged folders are left out
+		private final ScanMetrics metrics;
+
+		FolderTask(File folder, Consumer<List<SoundClip>> collector, Consumer<List<SoundClip>> gone,
+				ScanIndex index, boolean changedOnly, ScanMetrics metrics) {
+			this.folder = folder;
+			this.collector = collector;
+			this.gone = gone;
+			this.index = index;
+			this.changedOnly = changedOnly;
+			this.metrics = metrics;
+		}
+
+		@Override
+		protected void compute() {
+			List<SoundClip> clips = new ArrayList<>();
+			List<FolderTask> subTasks = new ArrayList<>();
+			metrics.recordDirectory();
+
+			ScanIndex.FolderEntry entry = null;
+			long lastModified = 0;
+			if (index != null) {
+				lastModified = folder.lastModified();
+				entry = index.lookup(folder.getPath(), lastModified);
+			}
+
+			if (entry != null) {
+				// The folder is unchanged, so what it held last time is still there
+				if (!changedOnly) {
+					for (String name : entry.wavNames) {
+						clips.add(new SoundClip(new File(folder, name)));
+					}
+				}
+				for (String name : entry.subFolderNames) {
+					subTasks.add(fork(new File(folder, name)));
+				}
+			} else {
+				List<String> subFolderNames = new ArrayList<>();
+				long listStart = System.nanoTime();
+				try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder.toPath())) {
+					for (Path p : entries) {
+						// Build the File the same way File.listFiles does, so the
+						// resulting clips are equal to the ones SoundClipLoader makes
+						File f = new File(folder, p.getFileName().toString());
+						if (SoundClipLoader.isWAVFileName(f.getName())) {
+							clips.add(new SoundClip(f));
+						}
+						if (isDirectory(p)) {
+							subTasks.add(fork(f));
+							subFolderNames.add(f.getName());
+						}
+					}
+					if (index != null) {
+						String[] wavNames = namesOf(clips);
+						ScanIndex.FolderEntry previous = index.previous(folder.getPath());
+						if (gone != null && previous != null) {
+							findGone(previous, wavNames, subFolderNames);
+						}
+						index.record(folder.getPath(), lastModified, wavNames, subFolderNames.toArray(new String[0]));
+					}
+				} catch (IOException | DirectoryIteratorException e) {
+					// An unreadable folder is skipped rather than failing the whole scan
+				}
+				metrics.recordList(System.nanoTime() - listStart);
+			}
+
+			metrics.recordFiles(clips.size());
+			if (!clips.isEmpty()) {
+				collector.accept(clips);
+			}
+			for (FolderTask task : subTasks) {
+				task.join();
+			}
+		}
+
+		// Read the attributes of an entry once, which gives both its type
+		// and its size. Like Files.isDirectory, follows symbolic links.
+		private boolean isDirectory(Path p) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(p, BasicFileAttributes.class);
+				metrics.recordBytesStatted(attributes.size());
+				return attributes.isDirectory();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		private FolderTask fork(File subFolder) {
+			FolderTask task = new FolderTask(subFolder, collector, gone, index, changedOnly, metrics);
+			task.fork();
+			return task;
+		}
+
+		// Hands gone the clips the folder held at the last scan that it does
+		// not hold now, with those of the sub folders it no longer has
+		private void findGone(ScanIndex.FolderEntry previous, String[] wavNames, List<String> subFolderNames) {
+			List<SoundClip> lost = new ArrayList<>();
+			Set<String> names = new HashSet<>(Arrays.asList(wavNames));
+			for (String name : previous.wavNames) {
+				if (!names.contains(name)) lost.add(new SoundClip(new File(folder, name)));
+			}
+			Set<String> subFolders = new HashSet<>(subFolderNames);
+			for (String name : previous.subFolderNames) {
+				if (!subFolders.contains(name)) addPrevious(new File(folder, name), lost);
+			}
+			if (!lost.isEmpty()) {
+				gone.accept(lost);
+			}
+		}
+
+		// Adds the clips the index has for dir and the folders below it to clips
+		private void addPrevious(File dir, List<SoundClip> clips) {
+			ScanIndex.FolderEntry entry = index.previous(dir.getPath());
+			if (entry == null) return;
+			for (String name : entry.wavNames) {
+				clips.add(new SoundClip(new File(dir, name)));
+			}
+			for (String name : entry.subFolderNames) {
+				addPrevious(new File(dir, name), clips);
+			}
+		}
+
+		private static String[] namesOf(List<SoundClip> clips) {
+			String[] names = new String[clips.size()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = clips.get(i).getFile().getName();
+			}
+			return names;
+		}
+	}
+
+	// Gathers the clips from all folder tasks into batches, and delivers
+	// every full batch to the sink while holding the lock.
+	private static class ClipBatcher implements Consumer<List<SoundClip>> {
+
+		private final int batchSize;
+		private final Consumer<Set<SoundClip>> sink;
+		private Set<SoundClip> batch = new HashSet<>();
+		private int count = 0;
+
+		ClipBatcher(int batchSize, Consumer<Set<SoundClip>> sink) {
+			this.batchSize = batchSize;
+			this.sink = sink;
+		}
+
+		@Override
+		public synchronized void accept(List<SoundClip> clips) {
+			for (SoundClip clip : clips) {
+				batch.add(clip);
+				count++;
+				if (batch.size() == batchSize) {
+					deliver();
+				}
+			}
+		}
+
+		// Deliver what is left and return the total number of clips
+		synchronized int finish() {
+			if (!batch.isEmpty()) {
+				deliver();
+			}
+			return count;
+		}
+
+		private void deliver() {
+			Set<SoundClip> full = batch;
+			batch = new HashSet<>();
+			sink.accept(full);
+		}
+	}
+}
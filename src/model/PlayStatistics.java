@@ -0,0 +1,261 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PlayStatistics counts how often each sound clip has been played and
+ * remembers when it was last played, along with the clips marked as
+ * favourites or flagged. Clips are known by the path of their file, so
+ * the statistics outlive the albums and survive reloading the library.
+ *
+ * Recording a play takes no lock: the count is a {@link LongAdder} and
+ * the list of the most played clips is an immutable array that is only
+ * replaced, with a compare-and-set, when the clip played makes it into
+ * the list. Any thread may read the statistics at any time.
+ *
+ * The statistics can be saved to and loaded from a compact binary file.
+ */
+public class PlayStatistics {
+
+	private static final int MAGIC = 0x4D4F5053; // "MOPS"
+	private static final int VERSION = 1;
+	private static final int FAVOURITE = 1, FLAGGED = 2;
+
+	private final int topSize;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// The most played entries, most played first as of when they were put in
+	private final AtomicReference<Entry[]> top = new AtomicReference<>(new Entry[0]);
+	private final AtomicBoolean changed = new AtomicBoolean();
+
+	/**
+	 * Make empty statistics
+	 * @param topSize the number of most played clips kept track of
+	 */
+	public PlayStatistics(int topSize) {
+		this.topSize = topSize;
+	}
+
+	/**
+	 * Loads the statistics from file. If the file does not exist or cannot
+	 * be read, returns empty statistics instead.
+	 * @param topSize the number of most played clips kept track of
+	 */
+	public static PlayStatistics load(File file, int topSize) {
+		PlayStatistics stats = new PlayStatistics(topSize);
+		if (file == null || !file.isFile()) return stats;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return stats;
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Entry entry = new Entry(new SoundClip(new File(in.readUTF())));
+				entry.plays.add(in.readLong());
+				entry.lastPlayed = in.readLong();
+				entry.marks.set(in.readByte());
+				stats.entries.put(entry.clip.getFile().getPath(), entry);
+			}
+		} catch (IOException e) {
+			return new PlayStatistics(topSize);
+		}
+		for (Entry entry : stats.entries.values()) {
+			stats.updateTop(entry);
+		}
+		return stats;
+	}
+
+	/**
+	 * Saves the statistics to file, unless nothing has changed since they
+	 * were loaded or last saved. The file is written next to its old version
+	 * and then put in its place, so a crash never leaves half a file behind.
+	 * @return true if the file was written
+	 */
+	public boolean save(File file) throws IOException {
+		if (!changed.getAndSet(false)) return false;
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			List<Entry> list = new ArrayList<>(entries.values());
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(list.size());
+			for (Entry entry : list) {
+				out.writeUTF(entry.clip.getFile().getPath());
+				out.writeLong(entry.plays.sum());
+				out.writeLong(entry.lastPlayed);
+				out.writeByte(entry.marks.get());
+			}
+		} catch (IOException e) {
+			changed.set(true);
+			throw e;
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return true;
+	}
+
+	/**
+	 * Counts one play of clip, played now. Never blocks.
+	 */
+	public void recordPlay(SoundClip clip) {
+		Entry entry = entry(clip);
+		entry.plays.increment();
+		entry.lastPlayed = System.currentTimeMillis();
+		changed.set(true);
+		updateTop(entry);
+	}
+
+	/** @return the number of times clip has been played */
+	public long getPlayCount(SoundClip clip) {
+		Entry entry = entries.get(clip.getFile().getPath());
+		return entry == null ? 0 : entry.plays.sum();
+	}
+
+	/** @return the time clip was last played, in ms since the epoch, or 0 if it never was */
+	public long getLastPlayed(SoundClip clip) {
+		Entry entry = entries.get(clip.getFile().getPath());
+		return entry == null ? 0 : entry.lastPlayed;
+	}
+
+	/** @return true if clip is marked as a favourite */
+	public boolean isFavourite(SoundClip clip) {
+		return hasMark(clip, FAVOURITE);
+	}
+
+	/** Marks clip as a favourite, or takes the mark away */
+	public void setFavourite(SoundClip clip, boolean favourite) {
+		setMark(clip, FAVOURITE, favourite);
+	}
+
+	/** @return true if clip is flagged */
+	public boolean isFlagged(SoundClip clip) {
+		return hasMark(clip, FLAGGED);
+	}
+
+	/** Flags clip, or takes the flag away */
+	public void setFlagged(SoundClip clip, boolean flagged) {
+		setMark(clip, FLAGGED, flagged);
+	}
+
+	/** @return the clips marked as favourites, in no particular order */
+	public List<SoundClip> getFavourites() {
+		return withMark(FAVOURITE);
+	}
+
+	/** @return the flagged clips, in no particular order */
+	public List<SoundClip> getFlagged() {
+		return withMark(FLAGGED);
+	}
+
+	/**
+	 * @return up to limit of the most played clips, most played first.
+	 * At most as many clips as the statistics keep track of are returned.
+	 */
+	public List<SoundClip> getMostPlayed(int limit) {
+		Entry[] entries = top.get().clone();
+		// Counts may have grown since the entries were put in order
+		long[] plays = new long[entries.length];
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			plays[i] = entries[i].plays.sum();
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> plays[i]).reversed());
+		List<SoundClip> result = new ArrayList<>(Math.min(limit, entries.length));
+		for (int i = 0; i < order.length && result.size() < limit; i++) {
+			result.add(entries[order[i]].clip);
+		}
+		return result;
+	}
+
+	private Entry entry(SoundClip clip) {
+		String path = clip.getFile().getPath();
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			Entry created = new Entry(clip);
+			entry = entries.putIfAbsent(path, created);
+			if (entry == null) entry = created;
+		}
+		return entry;
+	}
+
+	private boolean hasMark(SoundClip clip, int mark) {
+		Entry entry = entries.get(clip.getFile().getPath());
+		return entry != null && (entry.marks.get() & mark) != 0;
+	}
+
+	private void setMark(SoundClip clip, int mark, boolean set) {
+		Entry entry = entry(clip);
+		int old = set ? entry.marks.getAndUpdate(m -> m | mark) : entry.marks.getAndUpdate(m -> m & ~mark);
+		if (((old & mark) != 0) != set) changed.set(true);
+	}
+
+	private List<SoundClip> withMark(int mark) {
+		List<SoundClip> result = new ArrayList<>();
+		for (Entry entry : entries.values()) {
+			if ((entry.marks.get() & mark) != 0) result.add(entry.clip);
+		}
+		return result;
+	}
+
+	// Puts entry in its place in the most played list, if it belongs there.
+	// Counts only grow, so a clip can only join the list when it is played.
+	private void updateTop(Entry entry) {
+		long plays = entry.plays.sum();
+		while (true) {
+			Entry[] current = top.get();
+			int at = indexOf(current, entry);
+			if (at < 0 && current.length == topSize
+					&& (topSize == 0 || plays <= current[topSize - 1].plays.sum())) {
+				return;
+			}
+			Entry[] next = new Entry[at < 0 ? Math.min(current.length + 1, topSize) : current.length];
+			int n = 0;
+			boolean placed = false;
+			for (Entry e : current) {
+				if (e == entry) continue;
+				if (!placed && plays > e.plays.sum()) {
+					next[n++] = entry;
+					placed = true;
+				}
+				if (n < next.length) next[n++] = e;
+			}
+			if (!placed && n < next.length) next[n++] = entry;
+			if (top.compareAndSet(current, next)) return;
+		}
+	}
+
+	private static int indexOf(Entry[] entries, Entry entry) {
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] == entry) return i;
+		}
+		return -1;
+	}
+
+	private static final class Entry {
+		final SoundClip clip;
+		final LongAdder plays = new LongAdder();
+		volatile long lastPlayed;
+		final AtomicInteger marks = new AtomicInteger();
+
+		Entry(SoundClip clip) {
+			this.clip = clip;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ScanIndex remembers, for every folder seen by a scan, its modification
+ * time together with the WAV files and sub folders found in it. A later
+ * scan can then skip listing any folder whose modification time has not
+ * changed, and only needs to look at the modification time of each folder.
+ *
+ * The index can be saved to and loaded from a compact binary file, so that
+ * the cost of a full scan is paid only once across application launches.
+ */
+public class ScanIndex {
+
+	private static final int MAGIC = 0x4D4F5349; // "MOSI"
+	private static final int VERSION = 1;
+
+	// Folders changed this close to the start of a scan are never trusted,
+	// since a file added later in the same clock tick would not change the time
+	private static final long MODIFICATION_GRACE_MS = 2000;
+
+	private final String rootPath;
+	private Map<String, FolderEntry> cached;
+	private Map<String, FolderEntry> fresh = new ConcurrentHashMap<>();
+	private long scanStart;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Make an empty index for the folder at rootPath.
+	 */
+	public ScanIndex(String rootPath) {
+		this(rootPath, new ConcurrentHashMap<>());
+	}
+
+	private ScanIndex(String rootPath, Map<String, FolderEntry> cached) {
+		this.rootPath = rootPath;
+		this.cached = cached;
+	}
+
+	/**
+	 * Loads the index for the folder at rootPath from file. If the file does
+	 * not exist, cannot be read, or belongs to another folder, returns an
+	 * empty index instead.
+	 */
+	public static ScanIndex load(File file, String rootPath) {
+		if (file == null || !file.isFile()) return new ScanIndex(rootPath);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(rootPath)) {
+				return new ScanIndex(rootPath);
+			}
+			int count = in.readInt();
+			Map<String, FolderEntry> folders = new ConcurrentHashMap<>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long lastModified = in.readLong();
+				String[] wavNames = readNames(in);
+				String[] subFolderNames = readNames(in);
+				folders.put(path, new FolderEntry(lastModified, wavNames, subFolderNames));
+			}
+			return new ScanIndex(rootPath, folders);
+		} catch (IOException e) {
+			return new ScanIndex(rootPath);
+		}
+	}
+
+	/**
+	 * Saves the folders seen by the latest scan to file.
+	 */
+	public void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(rootPath);
+			out.writeInt(cached.size());
+			for (Map.Entry<String, FolderEntry> e : cached.entrySet()) {
+				FolderEntry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.lastModified);
+				writeNames(out, entry.wavNames);
+				writeNames(out, entry.subFolderNames);
+			}
+		}
+	}
+
+	/** @return the folder path this index belongs to */
+	public String getRootPath() {
+		return rootPath;
+	}
+
+	/** @return the number of folders that could be skipped thanks to the index */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** @return the number of folders that had to be listed again */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return the number of folders in the index */
+	public int size() {
+		return cached.size();
+	}
+
+	// Called by the scanner before it starts
+	void beginScan() {
+		scanStart = System.currentTimeMillis();
+		fresh = new ConcurrentHashMap<>();
+	}
+
+	// Called by the scanner when it is done. Folders that were not seen
+	// by the scan are dropped from the index.
+	void endScan() {
+		cached = fresh;
+		fresh = new ConcurrentHashMap<>();
+	}
+
+	// Returns the remembered contents of folder if it has not been modified
+	// since, or null if the folder has to be listed again
+	FolderEntry lookup(String folder, long lastModified) {
+		FolderEntry entry = cached.get(folder);
+		if (entry != null && entry.lastModified == lastModified && isTrusted(lastModified)) {
+			hits.increment();
+			fresh.put(folder, entry);
+			return entry;
+		}
+		misses.increment();
+		return null;
+	}
+
+	// Returns what folder held at the last scan, whether it has changed or not,
+	// or null if the last scan did not see it
+	FolderEntry previous(String folder) {
+		return cached.get(folder);
+	}
+
+	// Remembers what was found when listing folder
+	void record(String folder, long lastModified, String[] wavNames, String[] subFolderNames) {
+		fresh.put(folder, new FolderEntry(lastModified, wavNames, subFolderNames));
+	}
+
+	private boolean isTrusted(long lastModified) {
+		return lastModified < scanStart - MODIFICATION_GRACE_MS;
+	}
+
+	private static String[] readNames(DataInputStream in) throws IOException {
+		String[] names = new String[in.readInt()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = in.readUTF();
+		}
+		return names;
+	}
+
+	private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+		out.writeInt(names.length);
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+	}
+
+	/**
+	 * The remembered contents of a single folder.
+	 */
+	static final class FolderEntry {
+		final long lastModified;
+		final String[] wavNames;
+		final String[] subFolderNames;
+
+		FolderEntry(long lastModified, String[] wavNames, String[] subFolderNames) {
+			this.lastModified = lastModified;
+			this.wavNames = wavNames;
+			this.subFolderNames = subFolderNames;
+		}
+	}
+}
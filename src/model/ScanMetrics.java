@@ -0,0 +1,207 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ScanMetrics counts what the sound clip scanners do. The counters are
+ * {@link LongAdder}s, which spread concurrent updates over several cells,
+ * so the scanner threads can record every file without contending on a
+ * shared counter. The counters can be read through the getters, over JMX
+ * once {@link #register()} has been called, or as a summary line.
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+
+	/** The metrics used by the scanners unless they are given others */
+	public static final ScanMetrics GLOBAL = new ScanMetrics();
+
+	private static final String OBJECT_NAME = "model:type=ScanMetrics";
+
+	private final LongAdder filesFound = new LongAdder();
+	private final LongAdder directoriesVisited = new LongAdder();
+	private final LongAdder bytesStatted = new LongAdder();
+	private final LongAdder listNanos = new LongAdder();
+	private final LongAdder scanNanos = new LongAdder();
+	private final LatencyHistogram batchInserts = new LatencyHistogram();
+
+	/**
+	 * Registers the global metrics with the platform MBean server, so they
+	 * can be read with tools such as JConsole. Has no effect if they are
+	 * registered already.
+	 */
+	public static synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(GLOBAL, name);
+			}
+		} catch (JMException e) {
+			System.out.println("Could not register the scan metrics with JMX");
+			e.printStackTrace();
+		}
+	}
+
+	/** Records sound clip files found by a scanner */
+	public void recordFiles(long count) {
+		filesFound.add(count);
+	}
+
+	/** Records a folder visited by a scanner */
+	public void recordDirectory() {
+		directoriesVisited.increment();
+	}
+
+	/** Records the size of an entry whose attributes were read */
+	public void recordBytesStatted(long bytes) {
+		bytesStatted.add(bytes);
+	}
+
+	/** Records the time spent listing a folder */
+	public void recordList(long nanos) {
+		listNanos.add(nanos);
+	}
+
+	/** Records the time a whole scan took */
+	public void recordScan(long nanos) {
+		scanNanos.add(nanos);
+	}
+
+	/** Records the time it took to insert a batch of clips into an album */
+	public void recordBatchInsert(long nanos) {
+		batchInserts.record(nanos);
+	}
+
+	@Override
+	public long getFilesFound() {
+		return filesFound.sum();
+	}
+
+	@Override
+	public long getDirectoriesVisited() {
+		return directoriesVisited.sum();
+	}
+
+	@Override
+	public long getBytesStatted() {
+		return bytesStatted.sum();
+	}
+
+	@Override
+	public long getListMillis() {
+		return listNanos.sum() / 1_000_000;
+	}
+
+	@Override
+	public long getScanMillis() {
+		return scanNanos.sum() / 1_000_000;
+	}
+
+	@Override
+	public double getFilesPerSecond() {
+		long nanos = scanNanos.sum();
+		return nanos == 0 ? 0 : filesFound.sum() * 1e9 / nanos;
+	}
+
+	@Override
+	public long getBatchInsertCount() {
+		return batchInserts.count();
+	}
+
+	@Override
+	public double getBatchInsertMeanMicros() {
+		return batchInserts.mean() / 1000;
+	}
+
+	@Override
+	public double getBatchInsertP99Micros() {
+		return batchInserts.percentile(0.99) / 1000.0;
+	}
+
+	@Override
+	public String getSummary() {
+		return String.format("Scanned %d files in %d folders (%d MB) in %d ms, %.0f files/s, %d ms listing folders; "
+				+ "%d batches inserted, mean %.0f us, p99 %.0f us",
+				getFilesFound(), getDirectoriesVisited(), getBytesStatted() / (1024 * 1024), getScanMillis(),
+				getFilesPerSecond(), getListMillis(),
+				getBatchInsertCount(), getBatchInsertMeanMicros(), getBatchInsertP99Micros());
+	}
+
+	@Override
+	public void reset() {
+		filesFound.reset();
+		directoriesVisited.reset();
+		bytesStatted.reset();
+		listNanos.reset();
+		scanNanos.reset();
+		batchInserts.reset();
+	}
+
+	public String toString() {
+		return getSummary();
+	}
+
+	/**
+	 * A histogram of durations with one bucket per power of two nanoseconds.
+	 * Recording is a couple of LongAdder updates; percentiles are accurate
+	 * to within a factor of two, which is plenty for spotting slow batches.
+	 */
+	static final class LatencyHistogram {
+		private final LongAdder[] buckets = new LongAdder[64];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+
+		LatencyHistogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long value = Math.max(0, nanos);
+			buckets[64 - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1)].increment();
+			count.increment();
+			total.add(value);
+		}
+
+		long count() {
+			return count.sum();
+		}
+
+		double mean() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) total.sum() / n;
+		}
+
+		// Returns the upper bound of the bucket holding the given fraction of the values
+		long percentile(double fraction) {
+			long[] counts = new long[buckets.length];
+			long n = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].sum();
+				n += counts[i];
+			}
+			long wanted = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= wanted && seen > 0) {
+					return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+				}
+			}
+			return 0;
+		}
+
+		void reset() {
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+			count.reset();
+			total.reset();
+		}
+	}
+}
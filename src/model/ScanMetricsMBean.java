@@ -0,0 +1,41 @@
+package model;
+
+/**
+ * The management interface of {@link ScanMetrics}, through which the
+ * scan counters can be read over JMX.
+ */
+public interface ScanMetricsMBean {
+
+	/** @return the number of sound clip files found */
+	long getFilesFound();
+
+	/** @return the number of folders visited */
+	long getDirectoriesVisited();
+
+	/** @return the total size in bytes of all the entries looked at */
+	long getBytesStatted();
+
+	/** @return the time spent listing folders, in ms summed over all threads */
+	long getListMillis();
+
+	/** @return the wall-clock time spent scanning, in ms */
+	long getScanMillis();
+
+	/** @return the number of sound clip files found per second of scanning */
+	double getFilesPerSecond();
+
+	/** @return the number of batches inserted into an album */
+	long getBatchInsertCount();
+
+	/** @return the average time to insert a batch into an album, in microseconds */
+	double getBatchInsertMeanMicros();
+
+	/** @return the time within which 99% of the batches were inserted, in microseconds */
+	double getBatchInsertP99Micros();
+
+	/** @return a one-line summary of all the counters */
+	String getSummary();
+
+	/** Sets all the counters back to zero */
+	void reset();
+}
@@ -0,0 +1,390 @@
+package model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * SearchIndex finds the sound clips of a hierarchy by name.
+ *
+ * Every clip is indexed by the trigrams (runs of three characters) of its
+ * file name, without the extension, and of the names of the folders it is
+ * in. Each trigram maps to the {@link ClipIdSet} of the clips containing
+ * it, so a query is answered by intersecting the sets of its trigrams and
+ * then checking the few clips left. Queries shorter than a trigram are
+ * answered by checking the clips in order instead, which stops as soon as
+ * enough clips are found. The index follows the clips of the
+ * root album through the event bus. It is updated on a thread of its own,
+ * so that adding clips is not slowed down, and may lag a moment behind.
+ *
+ * The names of the albums are kept as well, from the ALBUM events. They
+ * are few enough to be checked one by one, without an index of their own.
+ */
+public class SearchIndex implements AlbumListener {
+
+	private static final int PATH_DEPTH = 3; // Number of enclosing folder names indexed
+	private static final int GROUPS = 4;
+	private static final char START = '\u0002', END = '\u0003', SEPARATOR = '\u0001';
+
+	private final Album root;
+	private final ClipRegistry registry;
+	private final Map<Long, ClipIdSet> postings = new HashMap<>();
+	private String[] texts = new String[1024]; // Indexed text of each clip by id, null if not indexed
+	private final Map<Album, String> albumNames = new LinkedHashMap<>(); // Lower case, every album but the root
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "SearchIndex");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Indexes the clips of root, and keeps following its changes
+	 * until {@link #close()} is called.
+	 */
+	public SearchIndex(Album root) {
+		this.root = root;
+		this.registry = root.getClipRegistry();
+		root.getEventBus().subscribe(this, updater);
+		// Events published before the snapshot is taken are already in it,
+		// and adding or removing clips twice does no harm
+		updater.execute(() -> {
+			add(root.clipIdSnapshot());
+			for (Album a : root.getSubAlbums()) {
+				addAlbums(a);
+			}
+		});
+	}
+
+	/** Stops following the changes to the hierarchy */
+	public void close() {
+		root.getEventBus().unsubscribe(this);
+		updater.shutdown();
+	}
+
+	@Override
+	public void onAlbumEvents(List<AlbumEvent> events) {
+		for (AlbumEvent event : events) {
+			switch (event.getType()) {
+			case ALBUM_ADDED:
+				addAlbums(event.getAlbum());
+				break;
+			case ALBUM_REMOVED:
+				removeAlbums(event.getAlbum());
+				break;
+			case ALBUM_RENAMED:
+				addAlbums(event.getAlbum());
+				break;
+			default:
+				// Every clip of the hierarchy is in the root album
+				if (event.getAlbum() != root) break;
+				if (event.getType() == AlbumEvent.Type.CLIPS_ADDED) {
+					add(event.getClipIds());
+				} else if (event.getType() == AlbumEvent.Type.CLIPS_REMOVED) {
+					remove(event.getClipIds());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches all clips, see {@link #search(String, Album, int)}
+	 */
+	public List<SoundClip> search(String query, int limit) {
+		return search(query, null, limit);
+	}
+
+	/**
+	 * Finds the clips whose name, or the name of a folder they are in,
+	 * contains query, ignoring case. Clips whose name starts with query
+	 * come first, then those where it starts a word of the name, then
+	 * other name matches and finally folder matches. Within each group,
+	 * clips come in the order they were added. Only as many clips are
+	 * checked as it takes to fill the best groups, so common queries are
+	 * as fast as rare ones.
+	 * @param within the album to search in, including its sub-albums, or null to search all clips
+	 * @param limit the largest number of clips to return
+	 * @return the best matches, best first
+	 */
+	public List<SoundClip> search(String query, Album within, int limit) {
+		String q = query.toLowerCase(Locale.ROOT).trim();
+		if (q.isEmpty() || limit <= 0) return Collections.emptyList();
+
+		ClipIdSet scope = within != null && within != root ? within.clipIdSnapshot() : null;
+		int[][] groups = new int[GROUPS][limit];
+		int[] counts = new int[GROUPS];
+		lock.readLock().lock();
+		try {
+			if (q.length() < 3) {
+				// Nearly every clip has a trigram holding one or two given
+				// characters, so the texts are checked rather than the postings
+				collect(scope != null ? scope.iterator() : IntStream.range(0, texts.length).iterator(),
+						q, groups, counts, limit, 0);
+			} else {
+				// Names starting with the query have the start mark in front of it
+				ClipIdSet prefixed = candidates(START + q);
+				if (scope != null) prefixed = prefixed.and(scope);
+				collect(prefixed.iterator(), q, groups, counts, limit, 0);
+				if (counts[0] < limit) {
+					// No name in the rest starts with the query
+					ClipIdSet others = candidates(q).andNot(prefixed);
+					if (scope != null) others = others.and(scope);
+					collect(others.iterator(), q, groups, counts, limit, 1);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		List<SoundClip> result = new ArrayList<>(limit);
+		for (int g = 0; g < GROUPS; g++) {
+			for (int i = 0; i < counts[g] && result.size() < limit; i++) {
+				result.add(registry.get(groups[g][i]));
+			}
+		}
+		return result;
+	}
+
+	// Sorts the clips among ids that contain q into their groups, keeping
+	// only those that can still make it into the first limit results. Stops
+	// once the groups up to best, the best group ids can have, hold limit clips.
+	private void collect(PrimitiveIterator.OfInt ids, String q, int[][] groups, int[] counts, int limit, int best) {
+		while (ids.hasNext()) {
+			int id = ids.nextInt();
+			String text = id < texts.length ? texts[id] : null;
+			int g = text == null ? -1 : group(text, q);
+			if (g < 0 || countUpTo(counts, g) >= limit) continue;
+			groups[g][counts[g]++] = id;
+			if (countUpTo(counts, best) >= limit) return;
+		}
+	}
+
+	private static int countUpTo(int[] counts, int group) {
+		int n = 0;
+		for (int g = 0; g <= group; g++) {
+			n += counts[g];
+		}
+		return n;
+	}
+
+	/**
+	 * Finds the albums whose name contains query, ignoring case. Albums
+	 * whose name starts with query come first, then those where it starts
+	 * a word of the name, then the others, each in the order they were added.
+	 * @param within the album to search in, including its sub-albums, or null to search all albums
+	 * @param limit the largest number of albums to return
+	 * @return the best matches, best first
+	 */
+	public List<Album> searchAlbums(String query, Album within, int limit) {
+		String q = query.toLowerCase(Locale.ROOT).trim();
+		if (q.isEmpty() || limit <= 0) return Collections.emptyList();
+
+		List<List<Album>> groups = new ArrayList<>();
+		for (int g = 0; g < 3; g++) {
+			groups.add(new ArrayList<>());
+		}
+		lock.readLock().lock();
+		try {
+			for (Map.Entry<Album, String> entry : albumNames.entrySet()) {
+				int g = albumGroup(entry.getValue(), q);
+				if (g < 0 || groups.get(g).size() >= limit) continue;
+				if (within != null && !entry.getKey().isInside(within)) continue;
+				groups.get(g).add(entry.getKey());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		List<Album> result = new ArrayList<>(limit);
+		for (List<Album> group : groups) {
+			for (int i = 0; i < group.size() && result.size() < limit; i++) {
+				result.add(group.get(i));
+			}
+		}
+		return result;
+	}
+
+	// 0 when name starts with q, 1 when a word of it does, 2 when it contains q otherwise, -1 if not
+	private static int albumGroup(String name, String q) {
+		int at = name.indexOf(q);
+		if (at < 0) return -1;
+		if (at == 0) return 0;
+		for (; at >= 0; at = name.indexOf(q, at + 1)) {
+			if (!Character.isLetterOrDigit(name.charAt(at - 1))) return 1;
+		}
+		return 2;
+	}
+
+	// Keeps the name of album and of its sub-albums, or the new name of an album renamed
+	private void addAlbums(Album album) {
+		List<Album> subAlbums = album.getSubAlbums(); // Read before the lock is taken
+		lock.writeLock().lock();
+		try {
+			albumNames.put(album, album.toString().toLowerCase(Locale.ROOT));
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (Album a : subAlbums) {
+			if (!albumNames.containsKey(a)) addAlbums(a);
+		}
+	}
+
+	// Forgets album and its sub-albums. Those are found among the albums
+	// kept, rather than by reading the sub-albums of album.
+	private void removeAlbums(Album album) {
+		lock.writeLock().lock();
+		try {
+			for (Iterator<Album> it = albumNames.keySet().iterator(); it.hasNext(); ) {
+				if (it.next().isInside(album)) it.remove();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** @return the number of distinct trigrams in the index */
+	public int getTrigramCount() {
+		lock.readLock().lock();
+		try {
+			return postings.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// The clips that may contain q, at least three characters long: those
+	// with all its trigrams
+	private ClipIdSet candidates(String q) {
+		ClipIdSet[] sets = new ClipIdSet[q.length() - 2];
+		for (int i = 0; i < sets.length; i++) {
+			sets[i] = postings.get(trigram(q, i));
+			if (sets[i] == null) return new ClipIdSet();
+		}
+		// Start with the smallest set, so the others are only probed
+		Arrays.sort(sets, (a, b) -> Integer.compare(a.size(), b.size()));
+		ClipIdSet result = sets[0];
+		for (int i = 1; i < sets.length && !result.isEmpty(); i++) {
+			result = result.and(sets[i]);
+		}
+		return result;
+	}
+
+	// The group of a match: 0 when the name starts with q, 1 when a word of the
+	// name does, 2 for other name matches and 3 for folder matches. -1 if
+	// text does not contain q.
+	private static int group(String text, String q) {
+		int nameEnd = text.indexOf(SEPARATOR);
+		if (nameEnd < 0) nameEnd = text.length() - 1;
+		int at = text.indexOf(q, 1);
+		if (at < 0) return -1;
+		if (at >= nameEnd) return 3;
+		if (at == 1) return 0;
+		if (!Character.isLetterOrDigit(text.charAt(at - 1))) return 1;
+		// A later match may still start a word
+		for (int i = text.indexOf(q, at + 1); i >= 0 && i < nameEnd; i = text.indexOf(q, i + 1)) {
+			if (!Character.isLetterOrDigit(text.charAt(i - 1))) return 1;
+		}
+		return 2;
+	}
+
+	private void add(ClipIdSet ids) {
+		lock.writeLock().lock();
+		try {
+			Map<Long, int[]> grams = new HashMap<>();
+			ids.forEach(id -> {
+				String text = textOf(registry.get(id));
+				if (id >= texts.length) texts = Arrays.copyOf(texts, Math.max(id + 1, texts.length * 2));
+				texts[id] = text;
+				forEachTrigram(text, gram -> append(grams, gram, id));
+			});
+			for (Map.Entry<Long, int[]> entry : grams.entrySet()) {
+				int[] list = entry.getValue();
+				ClipIdSet add = ClipIdSet.of(Arrays.copyOfRange(list, 1, list[0] + 1));
+				postings.computeIfAbsent(entry.getKey(), k -> new ClipIdSet()).addAll(add);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void remove(ClipIdSet ids) {
+		lock.writeLock().lock();
+		try {
+			Map<Long, int[]> grams = new HashMap<>();
+			ids.forEach(id -> {
+				String text = id < texts.length ? texts[id] : null;
+				if (text == null) return;
+				texts[id] = null;
+				forEachTrigram(text, gram -> append(grams, gram, id));
+			});
+			for (Map.Entry<Long, int[]> entry : grams.entrySet()) {
+				int[] list = entry.getValue();
+				ClipIdSet set = postings.get(entry.getKey());
+				set.removeAll(ClipIdSet.of(Arrays.copyOfRange(list, 1, list[0] + 1)));
+				if (set.isEmpty()) postings.remove(entry.getKey());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Appends id to the list of gram, stored as {length, ids...}. Ids are
+	// visited in increasing order, so an id repeated in one text is skipped
+	// by checking the last one.
+	private static void append(Map<Long, int[]> grams, long gram, int id) {
+		int[] list = grams.get(gram);
+		if (list == null) {
+			list = new int[4];
+			grams.put(gram, list);
+		} else if (list[0] > 0 && list[list[0]] == id) {
+			return;
+		}
+		if (list[0] + 1 == list.length) {
+			list = Arrays.copyOf(list, list.length * 2);
+			grams.put(gram, list);
+		}
+		list[++list[0]] = id;
+	}
+
+	// The lower case name of the clip without its extension, followed by the
+	// names of the folders it is in, nearest first. Marks the start and end
+	// so that short names still have trigrams.
+	static String textOf(SoundClip clip) {
+		File file = clip.getFile();
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) name = name.substring(0, dot);
+		StringBuilder text = new StringBuilder().append(START).append(name);
+		File folder = file.getParentFile();
+		for (int i = 0; i < PATH_DEPTH && folder != null && !folder.getName().isEmpty(); i++) {
+			text.append(SEPARATOR).append(folder.getName());
+			folder = folder.getParentFile();
+		}
+		return text.append(END).toString().toLowerCase(Locale.ROOT);
+	}
+
+	private interface GramConsumer {
+		void accept(long gram);
+	}
+
+	private static void forEachTrigram(String text, GramConsumer action) {
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			action.accept(trigram(text, i));
+		}
+	}
+
+	private static long trigram(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+	}
+}
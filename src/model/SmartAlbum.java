@@ -0,0 +1,86 @@
+package model;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+/**
+ * SmartAlbum is an album whose SoundClips are chosen by a {@link ClipRule}:
+ * it holds every SoundClip of the hierarchy that matches the rule. Its
+ * clips cannot be added or removed by hand, but it may have sub-albums
+ * like any other album.
+ *
+ * The AlbumTree keeps the album up to date. Only the clips that join the
+ * hierarchy, or whose metadata changes, are checked against the rule, and
+ * clips leaving the hierarchy leave the album with it.
+ */
+public class SmartAlbum extends Album {
+    private final ClipRule rule;
+
+    /** Constructor that creates a new smart album. It is filled once it is added to its parent.
+     * @param albumName The name of the new album
+     * @param parent The parent album
+     * @param rule The rule the SoundClips of the album match */
+    public SmartAlbum(String albumName, Album parent, ClipRule rule) {
+        super(albumName, parent);
+        this.rule = rule;
+    }
+
+    // Creates a smart album with the given id, see Album
+    SmartAlbum(String albumName, Album parent, ClipRule rule, long id) {
+        super(albumName, parent, id);
+        this.rule = rule;
+    }
+
+    // Creates a smart album of a hierarchy file, see Album
+    SmartAlbum(String albumName, Album parent, ClipRule rule, long id, MappedHierarchy source, int sourceIndex) {
+        super(albumName, parent, id, source, sourceIndex);
+        this.rule = rule;
+    }
+
+    /** @return - The rule the SoundClips of the album match */
+    public ClipRule getRule() {
+        return rule;
+    }
+
+    /** Not supported, the clips of a smart album follow its rule */
+    @Override
+    public void addSoundClips(Set<SoundClip> clips) {
+        throw new UnsupportedOperationException("the clips of " + this + " follow its rule");
+    }
+
+    /** Not supported, the clips of a smart album follow its rule */
+    @Override
+    public void removeSoundClips(Set<SoundClip> clips) {
+        throw new UnsupportedOperationException("the clips of " + this + " follow its rule");
+    }
+
+    // Adds the clips with the given ids that match the rule. For clips new
+    // to the album, which none of them can hold yet. The write lock must be held.
+    void addMatching(ClipIdSet ids) {
+        addOwn(matching(ids));
+    }
+
+    // Checks the clips with the given ids against the rule again, adding those
+    // that match and removing those that no longer do. The write lock must be held.
+    void refresh(ClipIdSet ids) {
+        ClipIdSet matching = matching(ids);
+        removeOwn(ids.andNot(matching));
+        addOwn(matching);
+    }
+
+    private ClipIdSet matching(ClipIdSet ids) {
+        ClipRegistry registry = getClipRegistry();
+        int[] matching = new int[16];
+        int n = 0;
+        for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+            int id = it.nextInt();
+            if (rule.matches(registry.get(id))) {
+                if (n == matching.length) {
+                    matching = Arrays.copyOf(matching, n * 2);
+                }
+                matching[n++] = id;
+            }
+        }
+        return ClipIdSet.of(Arrays.copyOf(matching, n));
+    }
+}
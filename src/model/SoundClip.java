@@ -1,14 +1,14 @@
 package model;
 import java.io.File;
-import java.io.Serializable;
 
 /**
  * SoundClip is a class representing a digital
  * sound clip file on disk.
  */
-public class SoundClip implements Serializable {
+public class SoundClip {
 
 	private final File file;
+	private volatile WavMetadata metadata; // null until the header has been read
 	
 	/**
 	 * Make a SoundClip from a file.
@@ -25,6 +25,21 @@ public class SoundClip implements Serializable {
 	public File getFile() {
 		return file;
 	}
+
+	/**
+	 * @return the format information of this sound clip, or null
+	 * if it has not been read (yet).
+	 */
+	public WavMetadata getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Attach the format information read from the file.
+	 */
+	public void setMetadata(WavMetadata metadata) {
+		this.metadata = metadata;
+	}
 	
 	public String toString(){
 		return file.getName();
@@ -5,6 +5,7 @@ import java.io.FileFilter;
 import java.io.FilenameFilter;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * SoundClipLoader finds sound clip files on disk.
@@ -27,19 +28,68 @@ public class SoundClipLoader {
 		File f = new File(path);
 		if (!f.isDirectory()) return set;
 
+		long start = System.nanoTime();
 		addSoundClipsToSet(f, set);
+		ScanMetrics.GLOBAL.recordScan(System.nanoTime() - start);
 		return set;
 	}
 
+	/**
+	 * Same as {@link #loadSoundClips(String)}, but scans the folders in
+	 * parallel using the given number of threads.
+	 * @param path the string representing the path to the folder.
+	 * @param parallelism the number of threads to scan with, must be > 0.
+	 */
+	public static Set<SoundClip> loadSoundClips(String path, int parallelism) {
+		assert path!=null && path!="";
+		if (path == null) return new HashSet<SoundClip>();
+
+		return new ParallelSoundClipScanner(parallelism).scan(new File(path));
+	}
+
+	/**
+	 * Scans the folder at path in parallel, handing the sound clips found to
+	 * sink in batches of at most batchSize clips as the scan goes along.
+	 * The sink is never called by two threads at once.
+	 * @param path the string representing the path to the folder.
+	 * @param parallelism the number of threads to scan with, must be > 0.
+	 * @param batchSize the largest number of clips in one batch, must be > 0.
+	 * @param sink receives each batch of sound clips.
+	 * @return the number of sound clips found
+	 */
+	public static int loadSoundClips(String path, int parallelism, int batchSize, Consumer<Set<SoundClip>> sink) {
+		assert path!=null && path!="";
+		if (path == null) return 0;
+
+		return new ParallelSoundClipScanner(parallelism).scan(new File(path), batchSize, sink);
+	}
+
+	/**
+	 * @return true if name is the name of a WAV file, i.e. has the
+	 * extension .wav (in any case).
+	 */
+	static boolean isWAVFileName(String name) {
+		int i = name.lastIndexOf ('.');
+		return "wav".equals(name.substring(i+1).toLowerCase());
+	}
+
 	// Find all WAV files in folder and its sub folders and add them to set.
 	// Requires folder to be an actual folder on disk and set != null.
 	private static void addSoundClipsToSet(File folder, Set<SoundClip> set) {
-		for (File f : findWAVFiles(folder)) {
-			System.out.println("Loading... " + f.getAbsolutePath());
+		ScanMetrics metrics = ScanMetrics.GLOBAL;
+		metrics.recordDirectory();
+
+		long listStart = System.nanoTime();
+		File[] wavFiles = findWAVFiles(folder);
+		File[] subFolders = findSubFolders(folder);
+		metrics.recordList(System.nanoTime() - listStart);
+
+		for (File f : wavFiles) {
 			set.add(new SoundClip(f));
 		}
+		metrics.recordFiles(wavFiles.length);
 
-		for (File g: findSubFolders(folder)) {
+		for (File g: subFolders) {
 			addSoundClipsToSet(g, set);
 		}
 	}
@@ -49,8 +99,7 @@ public class SoundClipLoader {
 	private static File[] findWAVFiles(File folder) {
 		return folder.listFiles(new FilenameFilter() {
 			public boolean accept(File dir, String name) {
-				int i = name.lastIndexOf ('.');
-				return "wav".equals(name.substring(i+1).toLowerCase());
+				return isWAVFileName(name);
 			}
 		});
 	}
@@ -15,9 +15,18 @@ public class SoundClipPlayer implements Runnable {
 	private List<SoundClip> clips; // The list of SoundClips to play with the media player
 	private static final int SLEEP_DELAY = 500; // Sleep time in ms between sound clips when playing several in a row
 	private boolean playing = false; // True when playing SoundClips, false otherwise
+	private final PlayStatistics statistics; // Counts the plays, null if they are not counted
 	
 	public SoundClipPlayer(SoundClipBlockingQueue queue){
+		this(queue, null);
+	}
+
+	/**
+	 * Make a player that records every SoundClip it starts playing in statistics
+	 */
+	public SoundClipPlayer(SoundClipBlockingQueue queue, PlayStatistics statistics){
 		this.queue = queue;
+		this.statistics = statistics;
 		clips = new ArrayList<>();
 	}
 	
@@ -95,6 +104,9 @@ public class SoundClipPlayer implements Runnable {
 			
 			// Play the SoundClip
 			player.play();
+			if (statistics != null) {
+				statistics.recordPlay(sc);
+			}
 			
 			// Put the current thread to sleep for a short while, in order to introduce a short
 			// pause in between the play back of consecutive SoundClips
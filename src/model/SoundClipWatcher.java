@@ -0,0 +1,303 @@
+package model;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * SoundClipWatcher keeps the root album in step with a folder on disk after
+ * it has been loaded. It watches the folder and all its sub folders, and
+ * gathers the filesystem events until things have been quiet for a while.
+ * The resulting changes are then applied to the root album as a single
+ * removal and a single addition, so that copying thousands of files only
+ * causes a handful of updates. A renamed file shows up as the removal of
+ * the old clip and the addition of the new one.
+ */
+public class SoundClipWatcher {
+
+	/** Time without events after which the gathered changes are applied */
+	public static final long DEFAULT_QUIET_PERIOD_MS = 300;
+	/** Longest time changes are held back while events keep coming */
+	public static final long DEFAULT_MAX_DELAY_MS = 2000;
+
+	private final File folder;
+	private final Album root;
+	private final Executor applier;
+	private final Runnable onApplied;
+	private final Consumer<List<SoundClip>> onAdded; // Reads the metadata of the clips added, or null
+	private final long quietPeriod;
+	private final long maxDelay;
+
+	private WatchService watchService;
+	private final Map<WatchKey, Path> watchKeys = new HashMap<>();
+	private final Set<Path> watchedFolders = new HashSet<>();
+	private Thread thread;
+
+	// Changes gathered since the last flush, only touched by the watcher thread
+	private final Set<Path> changedFiles = new LinkedHashSet<>();
+	private final Set<Path> createdFolders = new LinkedHashSet<>();
+	private final Set<Path> deletedFolders = new LinkedHashSet<>();
+	private boolean overflowed = false;
+	// What the rescans after lost events do, kept apart from the scans of the folder as a whole
+	private final ScanMetrics metrics = new ScanMetrics();
+
+	/**
+	 * Make a watcher for a folder whose clips are in the root album.
+	 * @param folder the folder the root album was loaded from
+	 * @param root the root album to keep up to date
+	 * @param applier runs the updates of the root album, e.g. on the UI thread
+	 * @param onApplied run by the applier after each update, may be null
+	 */
+	public SoundClipWatcher(File folder, Album root, Executor applier, Runnable onApplied) {
+		this(folder, root, applier, onApplied, null);
+	}
+
+	/**
+	 * Make a watcher that hands the clips it adds to onAdded, as the root
+	 * album holds them, instead of reading their metadata itself.
+	 * @param onAdded run by the applier with the clips added by each update
+	 */
+	public SoundClipWatcher(File folder, Album root, Executor applier, Runnable onApplied,
+			Consumer<List<SoundClip>> onAdded) {
+		this(folder, root, applier, onApplied, onAdded, DEFAULT_QUIET_PERIOD_MS, DEFAULT_MAX_DELAY_MS);
+	}
+
+	/**
+	 * Make a watcher with custom timing.
+	 * @param quietPeriod time in ms without events before changes are applied
+	 * @param maxDelay longest time in ms changes are held back
+	 */
+	public SoundClipWatcher(File folder, Album root, Executor applier, Runnable onApplied,
+			long quietPeriod, long maxDelay) {
+		this(folder, root, applier, onApplied, null, quietPeriod, maxDelay);
+	}
+
+	private SoundClipWatcher(File folder, Album root, Executor applier, Runnable onApplied,
+			Consumer<List<SoundClip>> onAdded, long quietPeriod, long maxDelay) {
+		this.folder = folder;
+		this.root = root;
+		this.applier = applier;
+		this.onApplied = onApplied;
+		this.onAdded = onAdded;
+		this.quietPeriod = quietPeriod;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Registers the folder tree and starts watching it on a daemon thread.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) return;
+		watchService = FileSystems.getDefault().newWatchService();
+		registerTree(folder.toPath());
+
+		thread = new Thread(this::run, "SoundClipWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching. Changes not yet applied are dropped.
+	 */
+	public synchronized void stop() {
+		if (thread == null) return;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		thread.interrupt();
+		thread = null;
+	}
+
+	// Main loop for the watcher thread
+	private void run() {
+		try {
+			while (true) {
+				// Wait for the first event of a burst
+				WatchKey key = watchService.take();
+				long burstStart = System.currentTimeMillis();
+				gather(key);
+
+				// Keep gathering until it has been quiet for a while, but
+				// do not hold the changes back forever
+				while (true) {
+					long waited = System.currentTimeMillis() - burstStart;
+					long timeout = Math.min(quietPeriod, maxDelay - waited);
+					if (timeout <= 0) break;
+					key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+					if (key == null) break;
+					gather(key);
+				}
+				flush();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// The watcher has been stopped
+		}
+	}
+
+	// Record the events of a watch key
+	private void gather(WatchKey key) {
+		Path dir = watchKeys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflowed = true;
+				continue;
+			}
+			if (dir == null) continue;
+			Path path = dir.resolve((Path) event.context());
+
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+				createdFolders.add(path);
+			} else if (event.kind() == ENTRY_DELETE && watchedFolders.contains(path)) {
+				deletedFolders.add(path);
+				createdFolders.remove(path);
+			} else if (SoundClipLoader.isWAVFileName(path.getFileName().toString())) {
+				changedFiles.add(path);
+			}
+		}
+		if (!key.reset()) {
+			watchKeys.remove(key);
+		}
+	}
+
+	// Work out the net change since the last flush and apply it to the root album
+	private void flush() {
+		Set<SoundClip> added = new HashSet<>();
+		Set<SoundClip> removed = new HashSet<>();
+		Set<Path> removedFolders = new HashSet<>(deletedFolders);
+		boolean rescan = overflowed;
+
+		for (Path path : changedFiles) {
+			SoundClip clip = new SoundClip(path.toFile());
+			if (Files.exists(path)) {
+				added.add(clip);
+			} else {
+				removed.add(clip);
+			}
+		}
+		for (Path dir : createdFolders) {
+			try {
+				registerTree(dir);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			added.addAll(SoundClipLoader.loadSoundClips(dir.toString()));
+		}
+		watchedFolders.removeIf(p -> removedFolders.contains(p) || isInside(p, removedFolders));
+
+		Set<SoundClip> all = null;
+		if (rescan) {
+			// Events were lost, so compare against a full scan instead
+			try {
+				registerTree(folder.toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			all = new ParallelSoundClipScanner(Runtime.getRuntime().availableProcessors(), metrics).scan(folder);
+		}
+
+		if (onAdded == null) {
+			WavMetadataExtractor.extract(all != null ? all : added);
+		}
+
+		changedFiles.clear();
+		createdFolders.clear();
+		deletedFolders.clear();
+		overflowed = false;
+
+		Set<SoundClip> allClips = all;
+		applier.execute(() -> apply(added, removed, removedFolders, allClips));
+	}
+
+	// Runs on the applier
+	private void apply(Set<SoundClip> added, Set<SoundClip> removed, Set<Path> removedFolders, Set<SoundClip> all) {
+		Set<SoundClip> current = root.getSoundClips();
+		if (all != null) {
+			for (SoundClip clip : current) {
+				if (!all.contains(clip)) removed.add(clip);
+			}
+			added.addAll(all);
+		}
+		if (!removedFolders.isEmpty()) {
+			for (SoundClip clip : current) {
+				if (isInside(clip.getFile().toPath(), removedFolders)) removed.add(clip);
+			}
+		}
+		// A clip that is both removed and added, e.g. because its folder was
+		// replaced, is left alone so it stays in the albums it belongs to
+		removed.removeAll(added);
+		added.removeAll(current);
+		removed.retainAll(current);
+
+		// Listeners get both changes at once
+		root.getEventBus().batch(() -> {
+			if (!removed.isEmpty()) {
+				root.removeSoundClips(removed);
+			}
+			if (!added.isEmpty()) {
+				root.addSoundClips(added);
+			}
+		});
+		if (onApplied != null && (!added.isEmpty() || !removed.isEmpty())) {
+			onApplied.run();
+		}
+		if (onAdded != null && !added.isEmpty()) {
+			ClipRegistry registry = root.getClipRegistry();
+			List<SoundClip> held = new ArrayList<>(added.size());
+			for (SoundClip clip : added) {
+				int id = registry.lookup(clip);
+				if (id >= 0) held.add(registry.get(id));
+			}
+			onAdded.accept(held);
+		}
+	}
+
+	private static boolean isInside(Path path, Set<Path> folders) {
+		for (Path p = path.getParent(); p != null; p = p.getParent()) {
+			if (folders.contains(p)) return true;
+		}
+		return false;
+	}
+
+	// Register dir and all the folders below it with the watch service
+	private void registerTree(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				if (watchedFolders.add(d)) {
+					watchKeys.put(d.register(watchService, ENTRY_CREATE, ENTRY_DELETE), d);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,383 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * UndoJournal makes changes to an album hierarchy and remembers them so
+ * that they can be undone and redone.
+ *
+ * Only what changed is kept: the ids of the clips that were added or
+ * removed, and the album that was added or removed, which is kept
+ * detached rather than copied. Undoing the removal of an album just
+ * attaches it again. Changes to the clips of the same album made within
+ * {@link #MERGE_MILLIS} of each other are merged into one.
+ *
+ * The journal keeps no more than its memory cap, forgetting the oldest
+ * changes first, except that the latest change can always be undone.
+ * Changes made to the hierarchy without the journal are not undone, and
+ * may make the ones in the journal undo only partly.
+ */
+public class UndoJournal {
+
+	/** Changes to the clips of one album closer together than this are undone together */
+	public static final long MERGE_MILLIS = 1000;
+
+	private final AlbumTree tree;
+	private final long maxBytes;
+	private final Deque<Change> undo = new ArrayDeque<>();
+	private final Deque<Change> redo = new ArrayDeque<>();
+	private long bytes; // Memory taken by the changes in both stacks
+
+	/**
+	 * Make an empty journal for the hierarchy of root
+	 * @param maxBytes roughly the largest number of bytes the changes may take up
+	 */
+	public UndoJournal(Album root, long maxBytes) {
+		this.tree = root.getTree();
+		this.maxBytes = maxBytes;
+	}
+
+	/** Adds album to parent, see {@link Album#addAlbum(Album)} */
+	public synchronized void addAlbum(Album parent, Album album) {
+		parent.addAlbum(album);
+		record(new AlbumAdded(parent, album, parent.getSubAlbums().size() - 1));
+	}
+
+	/** Removes album, with its sub-albums, from its parent */
+	public synchronized void removeAlbum(Album album) {
+		Album parent = album.getParentAlbum();
+		if (parent == null) {
+			throw new IllegalArgumentException("cannot remove the root album");
+		}
+		int index = parent.getSubAlbums().indexOf(album);
+		album.removeAlbum(album);
+		record(new AlbumRemoved(parent, album, index));
+	}
+
+	/** Moves album to newParent, see {@link Album#moveTo(Album)} */
+	public synchronized void moveAlbum(Album album, Album newParent) {
+		Album oldParent = album.getParentAlbum();
+		int index = oldParent != null ? oldParent.getSubAlbums().indexOf(album) : -1;
+		album.moveTo(newParent);
+		if (oldParent != newParent) {
+			record(new AlbumMoved(album, oldParent, index, newParent));
+		}
+	}
+
+	/** Adds clips to album, see {@link Album#addSoundClips(Set)} */
+	public synchronized void addSoundClips(Album album, Set<SoundClip> clips) {
+		if (album instanceof SmartAlbum) {
+			album.addSoundClips(clips); // Refuses
+		}
+		ClipIdSet ids = tree.getClipRegistry().idsOf(clips);
+		ClipIdSet added;
+		Lock lock = lock();
+		try {
+			added = album.addOwn(ids);
+		} finally {
+			lock.unlock();
+		}
+		if (!added.isEmpty()) {
+			record(new ClipsAdded(album, added));
+		}
+	}
+
+	/** Removes clips from album and its sub-albums, see {@link Album#removeSoundClips(Set)} */
+	public synchronized void removeSoundClips(Album album, Set<SoundClip> clips) {
+		if (album instanceof SmartAlbum) {
+			album.removeSoundClips(clips); // Refuses
+		}
+		ClipIdSet ids = tree.getClipRegistry().lookupAll(clips);
+		Map<Album, ClipIdSet> removed = new LinkedHashMap<>();
+		Lock lock = lock();
+		try {
+			album.removeFromSubtree(ids, removed);
+		} finally {
+			lock.unlock();
+		}
+		if (!removed.isEmpty()) {
+			record(new ClipsRemoved(album, removed));
+		}
+	}
+
+	/** @return true if there is a change to undo */
+	public synchronized boolean canUndo() {
+		return !undo.isEmpty();
+	}
+
+	/** @return true if there is an undone change to redo */
+	public synchronized boolean canRedo() {
+		return !redo.isEmpty();
+	}
+
+	/**
+	 * Undoes the latest change not undone yet
+	 * @return a description of the change, or null if there was none
+	 */
+	public synchronized String undo() {
+		Change change = undo.pollLast();
+		if (change == null) return null;
+		apply(change::undo);
+		redo.addLast(change);
+		return change.toString();
+	}
+
+	/**
+	 * Makes the latest undone change again
+	 * @return a description of the change, or null if there was none
+	 */
+	public synchronized String redo() {
+		Change change = redo.pollLast();
+		if (change == null) return null;
+		apply(change::redo);
+		undo.addLast(change);
+		return change.toString();
+	}
+
+	/** @return roughly the number of bytes the changes in the journal take up */
+	public synchronized long getMemoryBytes() {
+		return bytes;
+	}
+
+	/** Forgets every change */
+	public synchronized void clear() {
+		undo.clear();
+		redo.clear();
+		bytes = 0;
+	}
+
+	// Under the write lock and in one batch, so that listeners see the
+	// change undone or redone as a whole
+	private void apply(Runnable change) {
+		Lock lock = lock();
+		try {
+			tree.getEventBus().batch(change);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Lock lock() {
+		Lock lock = tree.getLock().writeLock();
+		lock.lock();
+		return lock;
+	}
+
+	private void record(Change change) {
+		for (Change c : redo) {
+			bytes -= c.bytes;
+		}
+		redo.clear();
+		Change last = undo.peekLast();
+		if (last != null && change.time - last.time < MERGE_MILLIS && last.merge(change)) {
+			bytes -= last.bytes;
+			last.bytes = last.measure();
+			last.time = change.time;
+			bytes += last.bytes;
+		} else {
+			change.bytes = change.measure();
+			bytes += change.bytes;
+			undo.addLast(change);
+		}
+		// Forget the oldest changes, but keep the latest
+		while (bytes > maxBytes && undo.size() > 1) {
+			bytes -= undo.pollFirst().bytes;
+		}
+	}
+
+	private abstract static class Change {
+		long time = System.currentTimeMillis();
+		long bytes;
+
+		abstract void undo();
+
+		abstract void redo();
+
+		// Roughly the number of bytes kept alive by the change
+		abstract long measure();
+
+		// Takes next, made right after this change, into this change if it can
+		boolean merge(Change next) {
+			return false;
+		}
+	}
+
+	private static final class AlbumAdded extends Change {
+		final Album parent;
+		final Album album;
+		final int index;
+
+		AlbumAdded(Album parent, Album album, int index) {
+			this.parent = parent;
+			this.album = album;
+			this.index = index;
+		}
+
+		void undo() {
+			album.removeAlbum(album);
+		}
+
+		void redo() {
+			parent.addAlbum(album, index);
+		}
+
+		long measure() {
+			return 64;
+		}
+
+		public String toString() {
+			return "new album " + album;
+		}
+	}
+
+	private static final class AlbumRemoved extends Change {
+		final Album parent;
+		final Album album; // Detached while the removal is not undone
+		final int index;
+
+		AlbumRemoved(Album parent, Album album, int index) {
+			this.parent = parent;
+			this.album = album;
+			this.index = index;
+		}
+
+		void undo() {
+			parent.addAlbum(album, index);
+		}
+
+		void redo() {
+			album.removeAlbum(album);
+		}
+
+		long measure() {
+			return 64 + album.memoryBytes();
+		}
+
+		public String toString() {
+			return "removal of album " + album;
+		}
+	}
+
+	private static final class AlbumMoved extends Change {
+		final Album album;
+		final Album oldParent;
+		final int oldIndex; // The position of the album among the sub-albums of oldParent
+		final Album newParent;
+
+		AlbumMoved(Album album, Album oldParent, int oldIndex, Album newParent) {
+			this.album = album;
+			this.oldParent = oldParent;
+			this.oldIndex = oldIndex;
+			this.newParent = newParent;
+		}
+
+		void undo() {
+			album.moveTo(oldParent, oldIndex);
+		}
+
+		void redo() {
+			album.moveTo(newParent);
+		}
+
+		long measure() {
+			return 64;
+		}
+
+		public String toString() {
+			return "move of album " + album;
+		}
+	}
+
+	private static final class ClipsAdded extends Change {
+		final Album album;
+		ClipIdSet ids; // The clips that were not in the album itself before
+
+		ClipsAdded(Album album, ClipIdSet ids) {
+			this.album = album;
+			this.ids = ids;
+		}
+
+		void undo() {
+			album.removeOwn(ids);
+		}
+
+		void redo() {
+			album.addOwn(ids);
+		}
+
+		long measure() {
+			return 64 + ids.memoryBytes();
+		}
+
+		boolean merge(Change next) {
+			if (!(next instanceof ClipsAdded) || ((ClipsAdded) next).album != album) return false;
+			ids = ids.copy();
+			ids.addAll(((ClipsAdded) next).ids);
+			return true;
+		}
+
+		public String toString() {
+			return "adding " + ids.size() + " sound clips to " + album;
+		}
+	}
+
+	private static final class ClipsRemoved extends Change {
+		final Album album;
+		// The clips each album of the subtree lost from its own clips
+		final Map<Album, ClipIdSet> removed;
+
+		ClipsRemoved(Album album, Map<Album, ClipIdSet> removed) {
+			this.album = album;
+			this.removed = removed;
+		}
+
+		// The references add up to the same counts in any order
+		void undo() {
+			for (Map.Entry<Album, ClipIdSet> entry : removed.entrySet()) {
+				entry.getKey().addOwn(entry.getValue());
+			}
+		}
+
+		void redo() {
+			for (Map.Entry<Album, ClipIdSet> entry : removed.entrySet()) {
+				entry.getKey().removeOwn(entry.getValue());
+			}
+		}
+
+		long measure() {
+			long bytes = 64;
+			for (ClipIdSet ids : removed.values()) {
+				bytes += 48 + ids.memoryBytes();
+			}
+			return bytes;
+		}
+
+		boolean merge(Change next) {
+			if (!(next instanceof ClipsRemoved) || ((ClipsRemoved) next).album != album) return false;
+			for (Map.Entry<Album, ClipIdSet> entry : ((ClipsRemoved) next).removed.entrySet()) {
+				ClipIdSet ids = removed.get(entry.getKey());
+				if (ids == null) {
+					removed.put(entry.getKey(), entry.getValue());
+				} else {
+					ids = ids.copy();
+					ids.addAll(entry.getValue());
+					removed.put(entry.getKey(), ids);
+				}
+			}
+			return true;
+		}
+
+		public String toString() {
+			int count = 0;
+			for (ClipIdSet ids : removed.values()) {
+				count = Math.max(count, ids.size());
+			}
+			return "removing " + count + " sound clips from " + album;
+		}
+	}
+}
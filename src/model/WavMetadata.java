@@ -0,0 +1,101 @@
+package model;
+
+
+/**
+ * WavMetadata holds the format information read from the header of a
+ * WAV file. Instances are immutable.
+ */
+public final class WavMetadata {
+
+	private final int audioFormat;
+	private final int channels;
+	private final int sampleRate;
+	private final int byteRate;
+	private final int bitsPerSample;
+	private final long dataOffset;
+	private final long dataLength;
+	private final long fileSize;
+	private final long lastModified;
+
+	/**
+	 * Make the metadata of a WAV file.
+	 * @param audioFormat the format tag of the fmt chunk, 1 for PCM
+	 * @param channels the number of channels
+	 * @param sampleRate the number of samples per second and channel
+	 * @param byteRate the number of bytes per second of audio
+	 * @param bitsPerSample the size of a single sample in bits
+	 * @param dataOffset the position of the audio data in the file
+	 * @param dataLength the size of the audio data in bytes
+	 * @param fileSize the size of the whole file in bytes
+	 * @param lastModified the time the file was last modified, in ms since the epoch
+	 */
+	public WavMetadata(int audioFormat, int channels, int sampleRate, int byteRate, int bitsPerSample,
+			long dataOffset, long dataLength, long fileSize, long lastModified) {
+		this.audioFormat = audioFormat;
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		this.byteRate = byteRate;
+		this.bitsPerSample = bitsPerSample;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+	}
+
+	/** @return the format tag of the fmt chunk, 1 for PCM */
+	public int getAudioFormat() {
+		return audioFormat;
+	}
+
+	/** @return the number of channels */
+	public int getChannels() {
+		return channels;
+	}
+
+	/** @return the number of samples per second and channel */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/** @return the number of bytes per second of audio */
+	public int getByteRate() {
+		return byteRate;
+	}
+
+	/** @return the size of a single sample in bits */
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	/** @return the position of the audio data in the file */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/** @return the size of the audio data in bytes */
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	/** @return the size of the whole file in bytes */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/** @return the time the file was last modified, in ms since the epoch */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/** @return the play time of the clip in seconds */
+	public double getDurationSeconds() {
+		return byteRate == 0 ? 0 : (double) dataLength / byteRate;
+	}
+
+	/** @return a short description such as "2.5 s, 44.1 kHz, stereo, 16 bit" */
+	public String toString() {
+		String channelText = channels == 1 ? "mono" : channels == 2 ? "stereo" : channels + " channels";
+		return String.format("%.1f s, %.1f kHz, %s, %d bit",
+				getDurationSeconds(), sampleRate / 1000.0, channelText, bitsPerSample);
+	}
+}
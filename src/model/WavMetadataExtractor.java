@@ -0,0 +1,194 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WavMetadataExtractor reads the RIFF/WAVE headers of sound clips and
+ * attaches the resulting {@link WavMetadata} to them.
+ *
+ * Headers are read with positional reads into a small direct buffer that
+ * every thread reuses, so reading a header costs a few system calls and no
+ * garbage besides the metadata itself. Only the first block of a file is
+ * normally needed; further blocks are read only when a file has large
+ * chunks before its fmt or data chunk.
+ */
+public class WavMetadataExtractor {
+
+	private static final int BLOCK_SIZE = 4096;
+	private static final int CLIPS_PER_TASK = 256;
+
+	private static final int RIFF = 0x46464952; // "RIFF" read little-endian
+	private static final int WAVE = 0x45564157; // "WAVE"
+	private static final int FMT = 0x20746D66;  // "fmt "
+	private static final int DATA = 0x61746164; // "data"
+
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(
+			() -> ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+	/**
+	 * Reads the metadata of every clip in clips, using as many threads as
+	 * there are processors. Clips whose metadata is current are skipped,
+	 * see {@link #isCurrent(SoundClip)}.
+	 * @return the number of clips that got metadata
+	 */
+	public static int extract(Collection<SoundClip> clips) {
+		return extract(clips, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reads the metadata of every clip in clips in parallel.
+	 * Clips whose metadata is current are skipped.
+	 * @param parallelism the number of threads to use, must be > 0
+	 * @return the number of clips that got metadata
+	 */
+	public static int extract(Collection<SoundClip> clips, int parallelism) {
+		SoundClip[] array = clips.toArray(new SoundClip[0]);
+		AtomicInteger count = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ExtractTask(array, 0, array.length, count));
+		} finally {
+			pool.shutdown();
+		}
+		return count.get();
+	}
+
+	/**
+	 * @return true if the metadata of clip has been read, and the size and
+	 * modification time of its file are still those it was read from
+	 */
+	public static boolean isCurrent(SoundClip clip) {
+		WavMetadata metadata = clip.getMetadata();
+		if (metadata == null) return false;
+		File file = clip.getFile();
+		return file.length() == metadata.getFileSize() && file.lastModified() == metadata.getLastModified();
+	}
+
+	/**
+	 * Finds the clips of registry with ids below count whose metadata is not
+	 * current, and whose files are there. The clips are looked at without
+	 * being kept in the registry, unless they are found.
+	 * @return the clips found, as the registry holds them
+	 */
+	public static List<SoundClip> findOutdated(ClipRegistry registry, int count) {
+		List<SoundClip> outdated = new ArrayList<>();
+		for (int id = 0; id < count; id++) {
+			SoundClip clip = registry.peek(id);
+			if (!isCurrent(clip) && clip.getFile().isFile()) {
+				outdated.add(registry.get(id));
+			}
+		}
+		return outdated;
+	}
+
+	/**
+	 * Reads the header of a WAV file.
+	 * @return the metadata of the file, or null if it is not a readable WAV file
+	 */
+	public static WavMetadata read(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			ByteBuffer buffer = BUFFERS.get();
+			long bufferStart = load(channel, buffer, 0);
+
+			if (buffer.limit() < 12 || buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) {
+				return null;
+			}
+
+			int audioFormat = -1, channels = 0, sampleRate = 0, byteRate = 0, bitsPerSample = 0;
+			long dataOffset = -1, dataLength = -1;
+			long position = 12;
+
+			// Walk the chunks until both the fmt and data chunks have been seen
+			while ((audioFormat < 0 || dataLength < 0) && position + 8 <= fileSize) {
+				if (position + 24 > bufferStart + buffer.limit()) {
+					bufferStart = load(channel, buffer, position);
+				}
+				int offset = (int) (position - bufferStart);
+				int id = buffer.getInt(offset);
+				long size = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+
+				if (id == FMT && size >= 16 && offset + 24 <= buffer.limit()) {
+					audioFormat = buffer.getShort(offset + 8) & 0xFFFF;
+					channels = buffer.getShort(offset + 10) & 0xFFFF;
+					sampleRate = buffer.getInt(offset + 12);
+					byteRate = buffer.getInt(offset + 16);
+					bitsPerSample = buffer.getShort(offset + 22) & 0xFFFF;
+				} else if (id == DATA) {
+					// Writers that stream audio often leave the size unset
+					dataOffset = position + 8;
+					dataLength = Math.min(size, fileSize - dataOffset);
+				}
+				position += 8 + size + (size & 1); // chunks are padded to an even size
+			}
+
+			if (audioFormat < 0 || dataLength < 0) return null;
+			return new WavMetadata(audioFormat, channels, sampleRate, byteRate, bitsPerSample,
+					dataOffset, dataLength, fileSize, Files.getLastModifiedTime(path).toMillis());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Fill the buffer with the block of the file starting at position,
+	// and return that position
+	private static long load(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) break;
+		}
+		buffer.flip();
+		return position;
+	}
+
+	// Reads the headers of a slice of the clips, splitting it in half
+	// until the slices are small enough
+	private static class ExtractTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SoundClip[] clips;
+		private final int from, to;
+		private final AtomicInteger count;
+
+		ExtractTask(SoundClip[] clips, int from, int to, AtomicInteger count) {
+			this.clips = clips;
+			this.from = from;
+			this.to = to;
+			this.count = count;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CLIPS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ExtractTask(clips, from, middle, count), new ExtractTask(clips, middle, to, count));
+				return;
+			}
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				SoundClip clip = clips[i];
+				if (isCurrent(clip)) continue;
+				WavMetadata metadata = read(clip.getFile().toPath());
+				if (metadata != null) {
+					clip.setMetadata(metadata);
+					n++;
+				}
+			}
+			count.addAndGet(n);
+		}
+	}
+}
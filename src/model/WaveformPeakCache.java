@@ -0,0 +1,373 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * WaveformPeakCache keeps min/max peak summaries of sound clips in a single
+ * memory mapped file, so that waveform thumbnails can be drawn without
+ * decoding any audio.
+ *
+ * Every clip has its peaks stored at {@link #LEVEL_COUNT} zoom levels, with
+ * {@link #getBucketCount(int)} buckets each. A bucket holds the lowest and the
+ * highest sample in its stretch of audio, scaled to a signed byte. Entries are
+ * keyed by the path of the file together with its size and modification time.
+ * As every entry takes the same room for its peaks, an entry whose file has
+ * changed is computed again and written over the old one, so the file only
+ * grows with new clips. Once it cannot grow any more, {@link #isFull()} tells
+ * so and no more clips are added.
+ *
+ * Reading peaks does not copy or allocate anything: {@link #locate} returns
+ * the position of a level in the mapped file, and {@link #getMin} and
+ * {@link #getMax} read single buckets straight from it.
+ */
+public class WaveformPeakCache implements AutoCloseable {
+
+	/** The number of zoom levels stored for every clip */
+	public static final int LEVEL_COUNT = 3;
+	private static final int[] BUCKET_COUNTS = {64, 256, 1024};
+	private static final int FINEST_LEVEL = LEVEL_COUNT - 1;
+
+	private static final int MAGIC = 0x4D4F5750; // "MOWP"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16; // magic, version, used length
+	private static final int PEAKS_SIZE;
+	private static final int[] LEVEL_OFFSETS = new int[LEVEL_COUNT];
+
+	static {
+		int offset = 0;
+		for (int level = 0; level < LEVEL_COUNT; level++) {
+			LEVEL_OFFSETS[level] = offset;
+			offset += 2 * BUCKET_COUNTS[level];
+		}
+		PEAKS_SIZE = offset;
+	}
+
+	private final FileChannel channel;
+	private volatile MappedByteBuffer buffer;
+	private int used; // bytes in use, guarded by this
+	private volatile boolean full; // True once an entry did not fit in the file
+	private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens the cache stored in file, or creates a new one if the file does
+	 * not exist or has an unknown format.
+	 */
+	public WaveformPeakCache(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(file + " is too large for a waveform cache");
+		}
+		map(Math.max(size, 1 << 20));
+
+		if (size >= HEADER_SIZE && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+			used = (int) buffer.getLong(8);
+			readIndex();
+		} else {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			used = HEADER_SIZE;
+			buffer.putLong(8, used);
+		}
+	}
+
+	/**
+	 * @return the number of buckets stored at a zoom level
+	 */
+	public static int getBucketCount(int level) {
+		return BUCKET_COUNTS[level];
+	}
+
+	/**
+	 * Finds the peaks of a clip at a zoom level. The size and modification
+	 * time of the file are taken from the metadata of the clip, so no file
+	 * is touched; clips without metadata match any entry for their path.
+	 * @return the position to pass to {@link #getMin} and {@link #getMax},
+	 * or -1 if there are no up-to-date peaks for the clip
+	 */
+	public int locate(SoundClip clip, int level) {
+		Entry entry = index.get(clip.getFile().getPath());
+		if (entry == null) return -1;
+		WavMetadata metadata = clip.getMetadata();
+		if (metadata != null && !entry.matches(metadata.getFileSize(), metadata.getLastModified())) {
+			return -1;
+		}
+		return entry.peaks + LEVEL_OFFSETS[level];
+	}
+
+	/**
+	 * @return the lowest sample in a bucket, between -128 and 127
+	 */
+	public byte getMin(int position, int bucket) {
+		return buffer.get(position + 2 * bucket);
+	}
+
+	/**
+	 * @return the highest sample in a bucket, between -128 and 127
+	 */
+	public byte getMax(int position, int bucket) {
+		return buffer.get(position + 2 * bucket + 1);
+	}
+
+	/**
+	 * @return the number of clips that have peaks in the cache
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return true if the file of the cache has reached its largest size,
+	 * so that the peaks of new clips can no longer be kept
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Computes the peaks of every clip that is missing from the cache or
+	 * whose file has changed since, using as many threads as there are
+	 * processors. Clips that are not PCM WAV files are skipped, and so are
+	 * new clips once the cache is full, see {@link #isFull()}.
+	 * @return the number of clips whose peaks were computed
+	 */
+	public int update(Collection<SoundClip> clips) {
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for (SoundClip clip : clips) {
+				tasks.add(() -> {
+					try {
+						return update(clip);
+					} catch (IOException e) {
+						return false; // the file has gone or cannot be read
+					}
+				});
+			}
+			int count = 0;
+			for (Future<Boolean> f : executor.invokeAll(tasks)) {
+				if (f.get()) count++;
+			}
+			return count;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed computing waveform peaks", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// Compute and store the peaks of a single clip if they are stale
+	private boolean update(SoundClip clip) throws IOException {
+		WavMetadata metadata = clip.getMetadata();
+		if (metadata == null) {
+			metadata = WavMetadataExtractor.read(clip.getFile().toPath());
+			if (metadata == null) return false;
+			clip.setMetadata(metadata);
+		}
+		// Check the file itself, since the metadata may be older than the file
+		long size = Files.size(clip.getFile().toPath());
+		long lastModified = clip.getFile().lastModified();
+		Entry entry = index.get(clip.getFile().getPath());
+		if (entry != null && entry.matches(size, lastModified)) return false;
+		if (entry == null && full) return false;
+		if (size != metadata.getFileSize() || lastModified != metadata.getLastModified()) {
+			metadata = WavMetadataExtractor.read(clip.getFile().toPath());
+			if (metadata == null) return false;
+			clip.setMetadata(metadata);
+		}
+
+		byte[] peaks = computePeaks(clip.getFile(), metadata);
+		if (peaks == null) return false;
+		store(clip.getFile().getPath(), metadata.getFileSize(), metadata.getLastModified(), peaks);
+		return true;
+	}
+
+	/**
+	 * Writes everything to disk and closes the cache file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+
+	// Decode the audio data and compute the peaks at every level.
+	// Returns null if the sample format is not supported.
+	private static byte[] computePeaks(File file, WavMetadata metadata) throws IOException {
+		int bytesPerSample = metadata.getBitsPerSample() / 8;
+		int channels = metadata.getChannels();
+		boolean pcm = metadata.getAudioFormat() == 1 && bytesPerSample >= 1 && bytesPerSample <= 4;
+		boolean floats = metadata.getAudioFormat() == 3 && bytesPerSample == 4;
+		if ((!pcm && !floats) || channels <= 0) return null;
+
+		int frameSize = bytesPerSample * channels;
+		long frames = metadata.getDataLength() / frameSize;
+		int buckets = BUCKET_COUNTS[FINEST_LEVEL];
+		float[] min = new float[buckets];
+		float[] max = new float[buckets];
+
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = Math.min(frames * frameSize, in.size() - metadata.getDataOffset());
+			if (length <= 0 || length > Integer.MAX_VALUE) return null;
+			MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, metadata.getDataOffset(), length);
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			frames = length / frameSize;
+
+			int position = 0;
+			for (int bucket = 0; bucket < buckets; bucket++) {
+				long end = (bucket + 1) * frames / buckets;
+				float lo = 0, hi = 0;
+				for (long frame = bucket * frames / buckets; frame < end; frame++) {
+					for (int c = 0; c < channels; c++) {
+						float sample = readSample(data, position, bytesPerSample, floats);
+						position += bytesPerSample;
+						if (sample < lo) lo = sample;
+						if (sample > hi) hi = sample;
+					}
+				}
+				min[bucket] = lo;
+				max[bucket] = hi;
+			}
+		}
+
+		// The coarser levels merge neighbouring buckets of the finest one
+		byte[] peaks = new byte[PEAKS_SIZE];
+		for (int level = 0; level < LEVEL_COUNT; level++) {
+			int count = BUCKET_COUNTS[level];
+			int factor = buckets / count;
+			for (int bucket = 0; bucket < count; bucket++) {
+				float lo = 0, hi = 0;
+				for (int i = bucket * factor; i < (bucket + 1) * factor; i++) {
+					lo = Math.min(lo, min[i]);
+					hi = Math.max(hi, max[i]);
+				}
+				peaks[LEVEL_OFFSETS[level] + 2 * bucket] = toByte(lo);
+				peaks[LEVEL_OFFSETS[level] + 2 * bucket + 1] = toByte(hi);
+			}
+		}
+		return peaks;
+	}
+
+	// Read a single sample as a value between -1 and 1
+	private static float readSample(MappedByteBuffer data, int position, int bytesPerSample, boolean floats) {
+		switch (bytesPerSample) {
+			case 1:
+				return ((data.get(position) & 0xFF) - 128) / 128f; // 8 bit samples are unsigned
+			case 2:
+				return data.getShort(position) / 32768f;
+			case 3:
+				int value = (data.get(position) & 0xFF) | (data.get(position + 1) & 0xFF) << 8 | data.get(position + 2) << 16;
+				return value / 8388608f;
+			default:
+				return floats ? data.getFloat(position) : data.getInt(position) / 2147483648f;
+		}
+	}
+
+	private static byte toByte(float sample) {
+		return (byte) Math.max(-128, Math.min(127, Math.round(sample * 127)));
+	}
+
+	// Store the peaks of a file, over its old entry if it has one, or else in
+	// a new entry appended to the file that the index then points at
+	private synchronized void store(String path, long size, long lastModified, byte[] peaks) throws IOException {
+		Entry old = index.get(path);
+		if (old != null) {
+			// The old version of the file is forgotten before its peaks are
+			// overwritten, so an entry is never left with the peaks of another
+			MappedByteBuffer b = buffer;
+			b.putLong(old.peaks - 16, -1);
+			b.putLong(old.peaks - 8, -1);
+			b.put(old.peaks, peaks);
+			b.putLong(old.peaks - 16, size);
+			b.putLong(old.peaks - 8, lastModified);
+			index.put(path, new Entry(size, lastModified, old.peaks));
+			return;
+		}
+		byte[] key = path.getBytes(StandardCharsets.UTF_8);
+		int length = 4 + key.length + 16 + PEAKS_SIZE;
+		if ((long) used + length > Integer.MAX_VALUE) {
+			full = true;
+			throw new IOException("The waveform cache is full");
+		}
+		if (used + length > buffer.capacity()) {
+			map(Math.min(Integer.MAX_VALUE, Math.max(2L * buffer.capacity(), used + length)));
+		}
+
+		MappedByteBuffer b = buffer;
+		int position = used;
+		b.putInt(position, key.length);
+		b.put(position + 4, key);
+		b.putLong(position + 4 + key.length, size);
+		b.putLong(position + 12 + key.length, lastModified);
+		int peaksPosition = position + 20 + key.length;
+		b.put(peaksPosition, peaks);
+
+		used += length;
+		b.putLong(8, used);
+		index.put(path, new Entry(size, lastModified, peaksPosition));
+	}
+
+	// Build the index from the entries in the file. Later entries for the
+	// same path replace earlier ones.
+	private void readIndex() {
+		int position = HEADER_SIZE;
+		while (position + 4 <= used) {
+			int keyLength = buffer.getInt(position);
+			int peaksPosition = position + 20 + keyLength;
+			if (keyLength < 0 || peaksPosition + PEAKS_SIZE > used) break;
+			byte[] key = new byte[keyLength];
+			buffer.get(position + 4, key);
+			long size = buffer.getLong(position + 4 + keyLength);
+			long lastModified = buffer.getLong(position + 12 + keyLength);
+			index.put(new String(key, StandardCharsets.UTF_8), new Entry(size, lastModified, peaksPosition));
+			position = peaksPosition + PEAKS_SIZE;
+		}
+		used = position;
+	}
+
+	// Map the first capacity bytes of the file. Readers that still use the
+	// old mapping keep seeing the same data, since entries never move.
+	private void map(long capacity) throws IOException {
+		MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		buffer = b;
+	}
+
+	// Where the peaks of a file are stored, and which version of the file they belong to
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final int peaks;
+
+		Entry(long size, long lastModified, int peaks) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.peaks = peaks;
+		}
+
+		boolean matches(long size, long lastModified) {
+			return this.size == size && this.lastModified == lastModified;
+		}
+	}
+}
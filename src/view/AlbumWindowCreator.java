@@ -1,6 +1,7 @@
 package view;
 
 import controller.MusicOrganizerController;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.Group;
@@ -10,14 +11,14 @@ import javafx.stage.Stage;
 import javafx.scene.input.MouseEvent;
 import javafx.event.EventHandler;
 import model.Album;
+import model.AlbumEvent;
+import model.AlbumListener;
+import model.ClipRegistry;
 import model.SoundClip;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
-import java.util.HashSet;
-import java.util.Observable;
-import java.util.Observer;
-
 /**
  * A class that creates a new window displaying the contents of an Album
  */
@@ -42,20 +43,44 @@ public class AlbumWindowCreator {
         // Set the title of the window to the album's name
         newWindow.setTitle(initialAlbum.toString());
 
-        // Create a ListView and have it reflect the ObservableList of the album's content
+        // Create a ListView and have it reflect the ObservableList of the album's content,
+        // in the order of the clip ids like the main window
         ListView<SoundClip> listView = new ListView<>();
-        ObservableList<SoundClip> observableList = FXCollections.observableArrayList(new HashSet<>(initialAlbum.getSoundClips()));
+        ClipRegistry registry = initialAlbum.getClipRegistry();
+        ClipIds ids = new ClipIds(initialAlbum.getClipIds());
+        List<SoundClip> clips = new ArrayList<>(ids.size);
+        for (int i = 0; i < ids.size; i++) {
+            clips.add(registry.get(ids.ids[i]));
+        }
+        ObservableList<SoundClip> observableList = FXCollections.observableArrayList(clips);
         listView.setItems(observableList);
 
-        // Create an Observer that updates the ListView when the Album changes
-        Observer observer = new Observer() {
+        // Create a listener that applies the changes to the Album to the ListView
+        AlbumListener listener = new AlbumListener() {
             @Override
-            public void update(Observable o, Object arg) {
-                // If the Album has been removed, close the window. If not then update the ListView
-                if(arg instanceof String && arg.equals("albumRemoved")) {
-                    newWindow.close();
-                } else {
-                    observableList.setAll(initialAlbum.getSoundClips());
+            public void onAlbumEvents(List<AlbumEvent> events) {
+                for (AlbumEvent event : events) {
+                    if (event.getType() == AlbumEvent.Type.ALBUM_REMOVED && initialAlbum.isInside(event.getAlbum())) {
+                        // The Album, or one of the albums it is in, has been removed
+                        newWindow.close();
+                        return;
+                    }
+                    if (event.getAlbum() != initialAlbum) {
+                        continue;
+                    }
+                    switch (event.getType()) {
+                        case CLIPS_ADDED:
+                            ids.add(event.getClipIds().toArray(), event.getSoundClips(), observableList);
+                            break;
+                        case CLIPS_REMOVED:
+                            ids.remove(event.getClipIds().toArray(), observableList);
+                            break;
+                        case ALBUM_RENAMED:
+                            newWindow.setTitle(initialAlbum.toString());
+                            break;
+                        default:
+                            break;
+                    }
                 }
             }
         };
@@ -74,8 +99,9 @@ public class AlbumWindowCreator {
 
 
 
-        // Add the Observer to the Album
-        initialAlbum.addObserver(observer);
+        // Listen to the changes on the JavaFX application thread, and stop when the window closes
+        initialAlbum.getEventBus().subscribe(listener, Platform::runLater);
+        newWindow.setOnHidden(e -> initialAlbum.getEventBus().unsubscribe(listener));
 
         // Add the ListView to the new window
         ((Group) scene.getRoot()).getChildren().add(listView);
@@ -83,4 +109,65 @@ public class AlbumWindowCreator {
         // Show the new window
         newWindow.show();
     }
+
+    // The sorted ids of the clips shown, so that the place of a clip in the
+    // list is found by a binary search, and a change only touches the clips
+    // that changed. Clips already shown, or not shown, are skipped, so that
+    // changes made before the list was filled do no harm.
+    private static final class ClipIds {
+        int[] ids;
+        int size;
+
+        ClipIds(int[] ids) {
+            this.ids = ids;
+            this.size = ids.length;
+        }
+
+        // added holds the ids of clips, in increasing order. Clips going to the
+        // same place are put in the list at once.
+        void add(int[] added, List<SoundClip> clips, List<SoundClip> list) {
+            if (size + added.length > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(size + added.length, ids.length * 2));
+            }
+            int i = 0;
+            while (i < added.length) {
+                int at = Arrays.binarySearch(ids, 0, size, added[i]);
+                if (at >= 0) {
+                    i++;
+                    continue;
+                }
+                at = -at - 1;
+                // The ids going before the id at that place
+                int end = i + 1;
+                while (end < added.length && (at == size || added[end] < ids[at])) {
+                    end++;
+                }
+                System.arraycopy(ids, at, ids, at + end - i, size - at);
+                System.arraycopy(added, i, ids, at, end - i);
+                size += end - i;
+                list.addAll(at, clips.subList(i, end));
+                i = end;
+            }
+        }
+
+        // removed holds the ids of clips, in increasing order. Runs of clips
+        // next to each other are taken out of the list at once, from the end.
+        void remove(int[] removed, List<SoundClip> list) {
+            int i = removed.length - 1;
+            while (i >= 0) {
+                int at = Arrays.binarySearch(ids, 0, size, removed[i]);
+                if (at < 0) {
+                    i--;
+                    continue;
+                }
+                int from = at;
+                while (--i >= 0 && from > 0 && ids[from - 1] == removed[i]) {
+                    from--;
+                }
+                System.arraycopy(ids, at + 1, ids, from, size - at - 1);
+                size -= at + 1 - from;
+                list.subList(from, at + 1).clear();
+            }
+        }
+    }
 }
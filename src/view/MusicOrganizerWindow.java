@@ -1,11 +1,14 @@
 package view;
 	
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import controller.MusicOrganizerController;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.event.EventHandler;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
@@ -14,10 +17,15 @@ import javafx.scene.control.ScrollPane;
 import javafx.scene.control.ScrollPane.ScrollBarPolicy;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.Dragboard;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.TransferMode;
 import javafx.scene.layout.BorderPane;
 import model.Album;
 import model.SoundClip;
@@ -32,18 +40,25 @@ public class MusicOrganizerWindow extends Application {
 	private BorderPane bord;
 	private static MusicOrganizerController controller;
 	private TreeItem<Album> rootNode;
+	private Map<Long, AlbumNode> albumNodes = new HashMap<>(); // The tree node of every album shown so far, by album id
 	private TreeView<Album> tree;
 	private ButtonPaneHBox buttons;
 	private SoundClipListView soundClipTable;
+	private TextField searchField;
+	private static final int SEARCH_LIMIT = 500; // Largest number of search results shown
+	private static final int ALBUM_SEARCH_LIMIT = 5; // Largest number of matching albums named
 	private TextArea messages;
 	
 	
+	private static String clipFolder; // The folder the sound clips are loaded from once the window is shown
+	
+	
 	public static void main(String[] args) {
 		controller = new MusicOrganizerController();
 		if (args.length == 0) {
-			controller.loadSoundClips("sample-sound");
+			clipFolder = "sample-sound";
 		} else if (args.length == 1) {
-			controller.loadSoundClips(args[0]);
+			clipFolder = args[0];
 		} else {
 			System.err.println("too many command-line arguments");
 			System.exit(0);
@@ -76,7 +91,47 @@ public class MusicOrganizerWindow extends Application {
 			menu.getItems().add(load);
 			menu.getItems().add(saveAs);
 
-			menuBar.getMenus().addAll(menu);
+			Menu editMenu = new Menu("Edit");
+
+			MenuItem undo = new MenuItem("Undo");
+			undo.setOnAction(e -> { controller.undo();});
+
+			MenuItem redo = new MenuItem("Redo");
+			redo.setOnAction(e -> { controller.redo();});
+
+			editMenu.getItems().addAll(undo, redo);
+
+			Menu toolsMenu = new Menu("Tools");
+
+			MenuItem findDuplicates = new MenuItem("Find Duplicates");
+			findDuplicates.setOnAction(e -> { controller.findDuplicates();});
+
+			MenuItem newSmartAlbum = new MenuItem("New Smart Album");
+			newSmartAlbum.setOnAction(e -> { controller.addNewSmartAlbum();});
+
+			toolsMenu.getItems().add(findDuplicates);
+			toolsMenu.getItems().add(newSmartAlbum);
+
+			Menu clipsMenu = new Menu("Clips");
+
+			MenuItem favourite = new MenuItem("Toggle Favourite");
+			favourite.setOnAction(e -> { controller.toggleFavourite();});
+
+			MenuItem flag = new MenuItem("Toggle Flag");
+			flag.setOnAction(e -> { controller.toggleFlag();});
+
+			MenuItem mostPlayed = new MenuItem("Most Played");
+			mostPlayed.setOnAction(e -> { controller.showMostPlayed();});
+
+			MenuItem favourites = new MenuItem("Favourites");
+			favourites.setOnAction(e -> { controller.showFavourites();});
+
+			MenuItem flagged = new MenuItem("Flagged");
+			flagged.setOnAction(e -> { controller.showFlagged();});
+
+			clipsMenu.getItems().addAll(favourite, flag, mostPlayed, favourites, flagged);
+
+			menuBar.getMenus().addAll(menu, editMenu, toolsMenu, clipsMenu);
 
 			// Create buttons in the top of the GUI
 			buttons = new ButtonPaneHBox(controller, this);
@@ -91,9 +146,12 @@ public class MusicOrganizerWindow extends Application {
 			tree = createTreeView();
 			bord.setLeft(tree);
 			
-			// Create the list in the right of the GUI
+			// Create the search field and the list in the right of the GUI
 			soundClipTable = createSoundClipListView();
-			bord.setCenter(soundClipTable);
+			searchField = createSearchField();
+			VBox centerContainer = new VBox();
+			centerContainer.getChildren().addAll(searchField, soundClipTable);
+			bord.setCenter(centerContainer);
 						
 			// Create the text area in the bottom of the GUI
 			bord.setBottom(createBottomTextArea());
@@ -115,6 +173,9 @@ public class MusicOrganizerWindow extends Application {
 			});
 
 			primaryStage.show();
+
+			// Scanned in the background, so the window does not wait for it
+			controller.loadSoundClips(clipFolder);
 			
 			
 		} catch(Exception e) {
@@ -123,8 +184,9 @@ public class MusicOrganizerWindow extends Application {
 	}
 
 	private TreeView<Album> createTreeView(){
-		rootNode = new TreeItem<>(controller.getRootAlbum());
+		rootNode = createNode(controller.getRootAlbum());
 		TreeView<Album> v = new TreeView<>(rootNode);
+		v.setCellFactory(t -> createAlbumCell());
 
 		v.setOnMouseClicked(new EventHandler<MouseEvent>() {
 			@Override
@@ -135,6 +197,7 @@ public class MusicOrganizerWindow extends Application {
 					Album selectedAlbum = getSelectedAlbum();
 					if(selectedAlbum != null) {
 						soundClipTable.display(selectedAlbum);
+						displayMessage(selectedAlbum + ": " + controller.getAlbumStats(selectedAlbum));
 					}
 					e.consume();
 
@@ -148,9 +211,92 @@ public class MusicOrganizerWindow extends Application {
 		return v;
 	}
 	
+	/**
+	 * Creates a tree cell that lets the user drag an album onto another
+	 * album to move it there. The album is passed by its id.
+	 */
+	private TreeCell<Album> createAlbumCell() {
+		TreeCell<Album> cell = new TreeCell<Album>() {
+			@Override
+			protected void updateItem(Album album, boolean empty) {
+				super.updateItem(album, empty);
+				setText(empty || album == null ? null : album.toString());
+			}
+		};
+		cell.setOnDragDetected(e -> {
+			Album album = cell.getItem();
+			if (album != null && album.getParentAlbum() != null) {
+				Dragboard board = cell.startDragAndDrop(TransferMode.MOVE);
+				ClipboardContent content = new ClipboardContent();
+				content.putString(Long.toString(album.getId()));
+				board.setContent(content);
+				e.consume();
+			}
+		});
+		cell.setOnDragOver(e -> {
+			if (cell.getItem() != null && e.getGestureSource() != cell && e.getDragboard().hasString()) {
+				e.acceptTransferModes(TransferMode.MOVE);
+			}
+			e.consume();
+		});
+		cell.setOnDragDropped(e -> {
+			Album album = findAlbum(e.getDragboard().getString());
+			if (album != null && cell.getItem() != null) {
+				controller.moveAlbum(album, cell.getItem());
+			}
+			e.setDropCompleted(album != null);
+			e.consume();
+		});
+		return cell;
+	}
+
+	// The album in the tree with the given id, or null
+	private Album findAlbum(String id) {
+		try {
+			TreeItem<Album> node = albumNodes.get(Long.parseLong(id));
+			return node == null ? null : node.getValue();
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private TextField createSearchField() {
+		TextField field = new TextField();
+		field.setPromptText("Search sound clips and albums");
+		// Search again on every key stroke
+		field.textProperty().addListener((observable, oldText, newText) -> {
+			onClipsUpdated();
+			showAlbumMatches(newText);
+		});
+		// Enter goes to the album matching best
+		field.setOnAction(e -> {
+			List<Album> albums = controller.searchAlbums(field.getText(), 1);
+			if (!albums.isEmpty()) {
+				field.clear();
+				selectAlbum(albums.get(0));
+			}
+		});
+		return field;
+	}
+
+	// Names the albums matching the query, if any
+	private void showAlbumMatches(String query) {
+		if (query == null || query.trim().isEmpty()) return;
+		List<Album> albums = controller.searchAlbums(query, ALBUM_SEARCH_LIMIT);
+		if (!albums.isEmpty()) {
+			StringBuilder message = new StringBuilder("Albums (Enter to open the first): ");
+			for (int i = 0; i < albums.size(); i++) {
+				message.append(i > 0 ? ", " : "").append(albums.get(i));
+			}
+			displayMessage(message.toString());
+		}
+	}
+
 	private SoundClipListView createSoundClipListView() {
 		SoundClipListView v = new SoundClipListView();
 		v.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		v.setPeakCache(controller.getPeakCache());
+		v.setPlayStatistics(controller.getPlayStatistics());
 		v.display(controller.getRootAlbum());
 		
 		v.setOnMouseClicked(new EventHandler<MouseEvent>() {
@@ -168,27 +314,60 @@ public class MusicOrganizerWindow extends Application {
 	}
 
 	/**
-	 * Updates the tree view when a new hierarchy is loaded
+	 * Updates the tree view when a new hierarchy is loaded. The nodes of
+	 * the sub-albums are made as the nodes are opened.
 	 * @param newRoot
 	 */
 	public void updateTreeView(Album newRoot) {
-		rootNode = new TreeItem<>(newRoot);
-		buildItems(rootNode);
+		albumNodes.clear();
+		rootNode = createNode(newRoot);
 		tree.setRoot(rootNode);
 		tree.setShowRoot(true);
 		tree.getSelectionModel().select(rootNode); // Select the root node
 	}
 
+	private AlbumNode createNode(Album album) {
+		AlbumNode item = new AlbumNode(album);
+		albumNodes.put(album.getId(), item);
+		return item;
+	}
+
+	// Forgets the nodes of a removed part of the tree
+	private void forgetNodes(TreeItem<Album> item) {
+		albumNodes.remove(item.getValue().getId());
+		if (((AlbumNode) item).built) {
+			for (TreeItem<Album> child : item.getChildren()) {
+				forgetNodes(child);
+			}
+		}
+	}
+
 	/**
-	 * Builds the tree view from the parameter album
-	 * @param parentItem
+	 * A node of the tree view whose child nodes are made the first time
+	 * they are asked for, so that the sub-albums of a hierarchy opened from
+	 * a file are only read once the user opens their parent.
 	 */
-	private void buildItems(TreeItem<Album> parentItem) {
-		Album album = parentItem.getValue();
-		for (Album subAlbum : album.getSubAlbums()) {
-			TreeItem<Album> item = new TreeItem<>(subAlbum);
-			parentItem.getChildren().add(item);
-			buildItems(item);
+	private class AlbumNode extends TreeItem<Album> {
+		private boolean built; // True once the child nodes have been made
+
+		AlbumNode(Album album) {
+			super(album);
+		}
+
+		@Override
+		public ObservableList<TreeItem<Album>> getChildren() {
+			if (!built) {
+				built = true;
+				for (Album subAlbum : getValue().getSubAlbums()) {
+					super.getChildren().add(createNode(subAlbum));
+				}
+			}
+			return super.getChildren();
+		}
+
+		@Override
+		public boolean isLeaf() {
+			return built ? super.getChildren().isEmpty() : !getValue().hasSubAlbums();
 		}
 	}
 
@@ -245,6 +424,24 @@ public class MusicOrganizerWindow extends Application {
 		}
 	}
 	
+	/**
+	 * Pop up a dialog box prompting the user for the file name pattern of a
+	 * new smart album. Returns the pattern, or null if the user pressed Cancel
+	 */
+	public String promptForNamePattern() {
+		TextInputDialog dialog = new TextInputDialog("*");
+		
+		dialog.setTitle("Enter name pattern");
+		dialog.setHeaderText(null);
+		dialog.setContentText("Sound clips whose file name matches, e.g. *kick*.wav");
+		Optional<String> result = dialog.showAndWait();
+		if(result.isPresent()) {
+			return result.get();
+		} else {
+			return null;
+		}
+	}
+
 	/**
 	 * Return all the sound clips currently selected in the clip table.
 	 */
@@ -268,10 +465,14 @@ public class MusicOrganizerWindow extends Application {
 	 */
 	public void onAlbumAdded(Album parent, Album newAlbum){
 
-		TreeItem<Album> root = tree.getRoot();
-		TreeItem<Album> parentNode = findAlbumNode(parent, root);
+		TreeItem<Album> parentNode = albumNodes.get(parent.getId());
+		if (parentNode == null) return; // Not shown yet
 
-		parentNode.getChildren().add(new TreeItem<>(newAlbum));
+		// Made from the sub-albums, with the new one, if they were not made yet
+		List<TreeItem<Album>> children = parentNode.getChildren();
+		if (!albumNodes.containsKey(newAlbum.getId())) {
+			children.add(createNode(newAlbum));
+		}
 		parentNode.setExpanded(true); // automatically expand the parent node in the tree
 
 	}
@@ -280,36 +481,69 @@ public class MusicOrganizerWindow extends Application {
 
 	public void onAlbumRemoved(Album toRemove){
 
-		TreeItem<Album> root = tree.getRoot();
-
-		TreeItem<Album> nodeToRemove = findAlbumNode(toRemove, root);
-		nodeToRemove.getParent().getChildren().remove(nodeToRemove);
+		TreeItem<Album> nodeToRemove = albumNodes.get(toRemove.getId());
+		if (nodeToRemove != null) {
+			nodeToRemove.getParent().getChildren().remove(nodeToRemove);
+			forgetNodes(nodeToRemove);
+		}
 
 	}
 
-	private TreeItem<Album> findAlbumNode(Album albumToFind, TreeItem<Album> root) {
-
-		// recursive method to locate a node that contains a specific album in the TreeView
+	/**
+	 * Moves the node of an album, with the nodes below it, under the node of its new parent
+	 * @param album
+	 */
+	public void onAlbumMoved(Album album){
 
-		if(root.getValue().equals(albumToFind)) {
-			return root;
+		TreeItem<Album> node = albumNodes.get(album.getId());
+		AlbumNode newParentNode = albumNodes.get(album.getParentAlbum().getId());
+		if (node != null) {
+			node.getParent().getChildren().remove(node);
 		}
-
-		for(TreeItem<Album> node : root.getChildren()) {
-			TreeItem<Album> item = findAlbumNode(albumToFind, node);
-			if(item != null)
-				return item;
+		if (newParentNode != null && newParentNode.built) {
+			newParentNode.getChildren().add(node != null ? node : createNode(album));
+		} else {
+			// The node is made again along with the others when they are made
+			if (node != null) forgetNodes(node);
+			if (newParentNode == null) return;
+			newParentNode.getChildren();
 		}
+		newParentNode.setExpanded(true);
 
-		return null;
+	}
+
+	/**
+	 * Selects the node of an album in the tree
+	 * @param album
+	 */
+	public void selectAlbum(Album album){
+		TreeItem<Album> node = albumNodes.get(album.getId());
+		if (node != null) {
+			tree.getSelectionModel().select(node);
+		}
 	}
 	
+	/**
+	 * Shows a list of sound clips in the clipTable instead of the
+	 * contents of the selected album, until the selection changes
+	 * @param clips - the clips to show, in order
+	 */
+	public void displayClips(List<SoundClip> clips){
+		soundClipTable.displayClips(clips);
+	}
+
 	/**
 	 * Refreshes the clipTable in response to the event that clips have
 	 * been modified in an album
 	 */
 	public void onClipsUpdated(){
 		Album a = getSelectedAlbum();
-		soundClipTable.display(a);
+		String query = searchField == null ? "" : searchField.getText();
+		if (query != null && !query.trim().isEmpty()) {
+			// Show the search results in the selected album instead
+			soundClipTable.displayClips(controller.search(query, a, SEARCH_LIMIT));
+		} else if (a != null) {
+			soundClipTable.display(a);
+		}
 	}
 }
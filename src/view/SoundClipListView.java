@@ -5,38 +5,134 @@ import java.util.List;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import model.Album;
+import model.PlayStatistics;
 import model.SoundClip;
+import model.WaveformPeakCache;
+import javafx.scene.paint.Color;
 
 public class SoundClipListView extends ListView<SoundClip> {
 
-	private List<SoundClip> clips;
+	private WaveformPeakCache peakCache; // null when no waveforms are shown
+	private PlayStatistics statistics; // null when no play counts and marks are shown
 	
 	public SoundClipListView() {
 		super();
-		clips = new ArrayList<>();
+		setCellFactory(list -> new SoundClipCell(this));
 	}
 
 	public SoundClipListView(ObservableList<SoundClip> arg0) {
 		super(arg0);
-		clips = new ArrayList<>();
+		setCellFactory(list -> new SoundClipCell(this));
 	}
 	
 	/**
-	 * Displays the contents of the specified album
+	 * Displays the contents of the specified album. The sound clips are
+	 * only looked up as their cells are shown, so albums of any size are
+	 * displayed at once.
 	 * @param album - the album which contents are to be displayed
 	 */
 	public void display(Album album){
-		this.getItems().clear();
-		clips.addAll(album.getSoundClips());
-		ObservableList<SoundClip> temp = FXCollections.observableList(clips);
+		ObservableList<SoundClip> temp = FXCollections.observableList(album.getSoundClipList());
 		this.setItems(temp);
 	}
 
+	/**
+	 * Displays a list of sound clips, such as search results
+	 * @param clips - the clips to be displayed, in order
+	 */
+	public void displayClips(List<SoundClip> clips){
+		ObservableList<SoundClip> temp = FXCollections.observableList(new ArrayList<>(clips));
+		this.setItems(temp);
+	}
+
+	/**
+	 * Shows a waveform thumbnail next to every clip whose peaks are in the cache
+	 * @param peakCache the cache to read the peaks from
+	 */
+	public void setPeakCache(WaveformPeakCache peakCache) {
+		this.peakCache = peakCache;
+		refresh();
+	}
+
+	/**
+	 * Shows the favourite and flag marks and the play count of every clip
+	 * @param statistics the statistics to read them from
+	 */
+	public void setPlayStatistics(PlayStatistics statistics) {
+		this.statistics = statistics;
+		refresh();
+	}
+
 	public List<SoundClip> getSelectedClips(){
 		ObservableList<SoundClip> items = this.getSelectionModel().getSelectedItems();
 		List<SoundClip> clips = new ArrayList<>(items);
 		return clips;
 	}
+
+	/**
+	 * Shows the name of a sound clip, followed by its format once
+	 * the header of the file has been read. If the peaks of the clip are
+	 * cached, a waveform thumbnail is drawn in front of the name. Favourites
+	 * and flagged clips are marked, and the number of plays is shown.
+	 */
+	private static class SoundClipCell extends ListCell<SoundClip> {
+		private static final int THUMBNAIL_LEVEL = 0; // one bucket per pixel
+		private static final double THUMBNAIL_HEIGHT = 16;
+
+		private final SoundClipListView listView;
+		private final Canvas thumbnail = new Canvas(WaveformPeakCache.getBucketCount(THUMBNAIL_LEVEL), THUMBNAIL_HEIGHT);
+
+		SoundClipCell(SoundClipListView listView) {
+			this.listView = listView;
+		}
+
+		@Override
+		protected void updateItem(SoundClip clip, boolean empty) {
+			super.updateItem(clip, empty);
+			if (empty || clip == null) {
+				setText(null);
+				setGraphic(null);
+				return;
+			}
+			String text = clip.toString();
+			if (clip.getMetadata() != null) {
+				text += "  (" + clip.getMetadata() + ")";
+			}
+			PlayStatistics statistics = listView.statistics;
+			if (statistics != null) {
+				if (statistics.isFavourite(clip)) text = "\u2605 " + text;
+				if (statistics.isFlagged(clip)) text = "\u2691 " + text;
+				long plays = statistics.getPlayCount(clip);
+				if (plays > 0) text += "  played " + plays + (plays == 1 ? " time" : " times");
+			}
+			setText(text);
+			setGraphic(drawThumbnail(clip) ? thumbnail : null);
+		}
+
+		// Draw the waveform straight from the cache, returns false if it has no peaks for the clip
+		private boolean drawThumbnail(SoundClip clip) {
+			WaveformPeakCache cache = listView.peakCache;
+			if (cache == null) return false;
+			int position = cache.locate(clip, THUMBNAIL_LEVEL);
+			if (position < 0) return false;
+
+			GraphicsContext g = thumbnail.getGraphicsContext2D();
+			double middle = THUMBNAIL_HEIGHT / 2;
+			double scale = middle / 128;
+			g.clearRect(0, 0, thumbnail.getWidth(), THUMBNAIL_HEIGHT);
+			g.setStroke(Color.STEELBLUE);
+			g.setLineWidth(1);
+			for (int bucket = 0; bucket < WaveformPeakCache.getBucketCount(THUMBNAIL_LEVEL); bucket++) {
+				double x = bucket + 0.5;
+				g.strokeLine(x, middle - cache.getMax(position, bucket) * scale,
+						x, middle - cache.getMin(position, bucket) * scale);
+			}
+			return true;
+		}
+	}
 }